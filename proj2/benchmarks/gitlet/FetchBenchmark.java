@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks fetching the whole history of a synthetic repository into an empty one.
+ * The synthetic repository is generated in the working directory, then moved aside
+ * to be the remote; before each fetch, the working directory gets a new empty repository.
+ *
+ * @author R7CKB
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FetchBenchmark {
+
+    /**
+     * The number of files of the remote repository.
+     */
+    @Param({"1000", "10000"})
+    int files;
+
+    /**
+     * The number of commits of master in the remote repository.
+     */
+    @Param({"200"})
+    int commits;
+
+    /**
+     * The storage backend of the remote repository: "loose" or "packed".
+     */
+    @Param({"loose", "packed"})
+    String backend;
+
+    /**
+     * The working directory of the local repository.
+     */
+    private File dir;
+
+    /**
+     * The .gitlet directory of the remote repository.
+     */
+    private File remote;
+
+    /**
+     * Generates the remote repository.
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = SyntheticRepo.create();
+        SyntheticRepo.generate(files, commits, 0, backend);
+        remote = new File(dir.getPath() + "-remote", ".gitlet");
+        remote.getParentFile().mkdirs();
+        Files.move(Repository.GITLET_DIR.toPath(), remote.toPath());
+    }
+
+    /**
+     * Replaces the local repository by a new empty one, with the remote "origin".
+     */
+    @Setup(Level.Invocation)
+    public void reinit() {
+        SyntheticRepo.delete(Repository.GITLET_DIR);
+        // forget the packs and the commit-graph mapped from the deleted repository.
+        ObjectStore.LOCAL.refresh();
+        CommitGraph.LOCAL.refresh();
+        Repository.init();
+        Repository.addRemote("origin", remote.getPath());
+    }
+
+    /**
+     * Deletes the local and the remote repositories.
+     */
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticRepo.delete(dir);
+        SyntheticRepo.delete(remote.getParentFile());
+    }
+
+    @Benchmark
+    public void fetch() {
+        Repository.fetch("origin", "master");
+    }
+}
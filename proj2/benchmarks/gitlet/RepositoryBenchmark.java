@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the commands of gitlet through the Repository API, on a synthetic repository
+ * (see SyntheticRepo) generated once per fork.
+ * The commands that change the repository (add, commit, merge) get it ready before each call,
+ * outside of the measured time, with the nested states below.
+ * Run with "-prof gc" to get the allocation rates,
+ * and compare the storage backends with "-p backend=loose,packed".
+ *
+ * @author R7CKB
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+
+    /**
+     * The number of files of the repository.
+     */
+    @Param({"1000", "10000"})
+    int files;
+
+    /**
+     * The number of commits of master.
+     */
+    @Param({"200"})
+    int commits;
+
+    /**
+     * The number of branches besides master.
+     */
+    @Param({"8"})
+    int branches;
+
+    /**
+     * The storage backend: "loose" objects or "packed" objects.
+     */
+    @Param({"loose", "packed"})
+    String backend;
+
+    /**
+     * The working directory of the repository.
+     */
+    private File dir;
+
+    /**
+     * The heads of master and of the first branch after the generation.
+     */
+    String masterHead;
+    String branchHead;
+
+    /**
+     * The commits of these heads, for findMergeBase.
+     */
+    private Commit masterCommit;
+    private Commit branchCommit;
+
+    /**
+     * The number of versions written by add and commit, to write new contents every time.
+     */
+    int version;
+
+    /**
+     * Whether the first branch is checked out, for checkout.
+     */
+    private boolean onBranch;
+
+    /**
+     * Generates the repository of the fork.
+     */
+    @Setup(Level.Trial)
+    public void generate() {
+        dir = SyntheticRepo.create();
+        SyntheticRepo.generate(files, commits, branches, backend);
+        masterHead = SyntheticRepo.head("master");
+        branchHead = SyntheticRepo.head("branch0");
+        masterCommit = Commit.fromFile(masterHead);
+        branchCommit = Commit.fromFile(branchHead);
+    }
+
+    /**
+     * Deletes the repository of the fork.
+     */
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticRepo.delete(dir);
+    }
+
+    @Benchmark
+    public void status() {
+        Repository.status();
+    }
+
+    @Benchmark
+    public void log() {
+        Repository.log();
+    }
+
+    /**
+     * Finds the split point of master and the first branch, as merge does.
+     */
+    @Benchmark
+    public Commit findMergeBase() {
+        return Repository.findMergeBase(masterCommit, branchCommit);
+    }
+
+    /**
+     * Switches between master and the first branch.
+     */
+    @Benchmark
+    public void checkout() {
+        onBranch = !onBranch;
+        Repository.checkout(onBranch ? "branch0" : "master", true);
+    }
+
+    @Benchmark
+    public void add(Edited edited) {
+        Repository.add(List.of(edited.path));
+    }
+
+    @Benchmark
+    public void commit(Staged staged) {
+        Repository.commit("benchmark commit " + version);
+    }
+
+    @Benchmark
+    public void merge(Unmerged unmerged) {
+        Repository.merge("branch0");
+    }
+
+    /**
+     * A file with a new content, for add.
+     */
+    @State(Scope.Benchmark)
+    public static class Edited {
+        /** The path of the file. */
+        String path;
+
+        @Setup(Level.Invocation)
+        public void edit(RepositoryBenchmark repo) {
+            repo.version += 1;
+            path = SyntheticRepo.writeFile(repo.version % repo.files, repo.commits + repo.version);
+        }
+    }
+
+    /**
+     * A staged file with a new content, for commit.
+     */
+    @State(Scope.Benchmark)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void stage(RepositoryBenchmark repo) {
+            repo.version += 1;
+            Repository.add(List.of(SyntheticRepo.writeFile(repo.version % repo.files,
+                    repo.commits + repo.version)));
+        }
+    }
+
+    /**
+     * Master reset to its head before the merge, for merge.
+     */
+    @State(Scope.Benchmark)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void reset(RepositoryBenchmark repo) {
+            Repository.reset(repo.masterHead);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Generates the synthetic repositories that the benchmarks run on.
+ * The repository of a benchmark is the working directory of gitlet (Repository.CWD),
+ * which is read once, when the gitlet classes are initialized: create must run before
+ * any gitlet class is used, so each benchmark needs its own forked JVM (@Fork, the default).
+ * A repository has:
+ * - N files, spread over 64 directories, added by the first commit,
+ * - M more commits on master, each modifying 1% of the files,
+ * - B branches forked from master, each with a commit of its own,
+ * - one more commit on master, so that master and the branches have diverged.
+ * With the "packed" backend, all the objects are then moved into the packs.
+ *
+ * @author R7CKB
+ */
+final class SyntheticRepo {
+
+    /**
+     * The number of directories the files are spread over.
+     */
+    private static final int DIRECTORIES = 64;
+
+    /**
+     * The number of lines of a generated file.
+     */
+    private static final int LINES = 20;
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private SyntheticRepo() {
+    }
+
+    /**
+     * Creates an empty temporary directory and makes it the working directory of gitlet.
+     * The output of the commands is discarded.
+     *
+     * @return the new working directory.
+     */
+    static File create() {
+        try {
+            File dir = Files.createTempDirectory("gitlet-bench").toFile().getCanonicalFile();
+            System.setProperty("user.dir", dir.getPath());
+            if (!Repository.CWD.getCanonicalFile().equals(dir)) {
+                throw new IllegalStateException("gitlet was initialized in another directory, "
+                        + "each benchmark must run in its own fork");
+            }
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            return dir;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Generates the history of a repository in the working directory.
+     *
+     * @param files    the number of files.
+     * @param commits  the number of commits after the one adding the files.
+     * @param branches the number of branches besides master (named branch0, branch1...).
+     * @param backend  "loose" to leave the objects loose, "packed" to pack them.
+     */
+    static void generate(int files, int commits, int branches, String backend) {
+        Repository.init();
+        for (int i = 0; i < files; i += 1) {
+            writeFile(i, 0);
+        }
+        Repository.add(List.of("."));
+        Repository.commit("add " + files + " files");
+        int changed = Math.max(1, files / 100);
+        int next = 0;
+        for (int c = 1; c <= commits; c += 1) {
+            List<String> paths = new ArrayList<>();
+            for (int k = 0; k < changed; k += 1) {
+                paths.add(writeFile(next, c));
+                next = (next + 1) % files;
+            }
+            Repository.add(paths);
+            Repository.commit("commit " + c);
+        }
+        for (int b = 0; b < branches; b += 1) {
+            String branch = "branch" + b;
+            Repository.branch(branch);
+            Repository.checkout(branch, true);
+            Repository.add(List.of(writeFile((next + 1 + b) % files, commits + 1)));
+            Repository.commit("work on " + branch);
+            Repository.checkout("master", true);
+        }
+        Repository.add(List.of(writeFile(next, commits + 1)));
+        Repository.commit("diverge from the branches");
+        if (backend.equals("packed")) {
+            Repository.repack();
+        } else if (!backend.equals("loose")) {
+            throw new IllegalArgumentException("unknown backend: " + backend);
+        }
+    }
+
+    /**
+     * Writes a version of a generated file.
+     *
+     * @param i       the number of the file.
+     * @param version the version of its content.
+     * @return the path of the file.
+     */
+    static String writeFile(int i, int version) {
+        String path = "d" + (i % DIRECTORIES) + Tree.SEPARATOR + "f" + i + ".txt";
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < LINES; line += 1) {
+            content.append("file ").append(i).append(" line ").append(line);
+            content.append(line == i % LINES ? " version " + version : "").append('\n');
+        }
+        File file = new File(Repository.CWD, path);
+        file.getParentFile().mkdirs();
+        writeContents(file, content.toString());
+        return path;
+    }
+
+    /**
+     * Returns the commit id of the given branch.
+     *
+     * @param branch the name of the branch.
+     * @return the id of its head commit.
+     */
+    static String head(String branch) {
+        return readContentsAsString(new File(Repository.BRANCH_DIR, branch));
+    }
+
+    /**
+     * Deletes the given directory and everything in it.
+     *
+     * @param dir the directory.
+     */
+    static void delete(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -1,109 +1,578 @@
-package gitlet;
-
-import java.io.File;
-import java.io.Serializable;
-
-import static gitlet.Utils.*;
-
-/**
- * Represents a blob object in Gitlet.
- * It contains a filename and content, and computes its id as the name of the blob file.
- *
- * @author R7CKB
- */
-public class Blob implements Serializable {
-
-    /**
-     * The blobs' directory.
-     * This directory addContainsId all the trees of the repository.
-     */
-    static final File BLOBS_DIR = join(Repository.OBJECTS_DIR, "blobs");
-
-    /**
-     * This filename is the file original name.
-     */
-    private final String filename;
-
-    /**
-     * This content is the actual data of the file.
-     */
-    private final String content;
-
-    /**
-     * The blob's id.
-     * This id is the SHA-1 hash of the filename and content.
-     */
-    private final String id;
-
-
-    /**
-     * Create a new blob with the given filename, id, and content.
-     * Every time you create a blob,
-     * the corresponding blob file is automatically generated in the blobs' directory.
-     *
-     * @param filename the filename of the blob.
-     * @param content  the content of the blob.
-     */
-    public Blob(String filename, String content) {
-        this.filename = filename;
-        this.id = sha1(filename, content);
-        this.content = content;
-        saveBlob();
-    }
-
-    /**
-     * Get the filename of the blob.
-     *
-     * @return the filename of the blob.
-     */
-    public String getFilename() {
-        return filename;
-    }
-
-    /**
-     * Get the id of the blob.
-     *
-     * @return the id of the blob.
-     */
-    public String getId() {
-        return id;
-    }
-
-    /**
-     * Get the content of the blob.
-     *
-     * @return the content of the blob.
-     */
-    public String getContent() {
-        return content;
-    }
-
-    /**
-     * Get the blob object from the given id.
-     *
-     * @param id the id of the blob.
-     * @return the blob object.
-     */
-    public static Blob fromFile(String id) {
-        Blob blob = null;
-        File blobFile = new File(BLOBS_DIR, id);
-        blob = readObject(blobFile, Blob.class);
-        return blob;
-
-    }
-
-    /**
-     * Save the blob object to the corresponding blob file.
-     */
-    public void saveBlob() {
-        File blobFile = new File(BLOBS_DIR, id);
-        writeObject(blobFile, this);
-    }
-
-    // This is only for debugging
-    //    @Override
-    //    public void dump() {
-    //        Blob blob = fromFile(filename);
-    //        System.out.println(blob);
-    //    }
-}
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a blob object in Gitlet.
+ * It contains a filename and content, and computes its id as the name of the blob file.
+ * The content is kept as raw bytes, so binary files are stored unchanged.
+ * On disk, a blob is stored zlib-compressed, either as its full content,
+ * or as a delta against the previous version of the same file (its base).
+ * The format of a blob file is:
+ * - a kind byte (FULL or DELTA),
+ * - the filename,
+ * - the length of the delta chain (0 for a full blob),
+ * - the id of the base (only for a delta),
+ * - the compressed content (or the compressed delta).
+ * Files larger than STREAM_THRESHOLD are hashed, stored and checked out
+ * through a fixed-size buffer, so they are never loaded into memory as a whole.
+ * Blobs written by the first version of Gitlet are Java-serialized, they start with
+ * the LEGACY byte and are read through Legacy until the migrate command rewrites them.
+ *
+ * @author R7CKB
+ */
+public class Blob {
+
+    /**
+     * The kinds of blob file.
+     */
+    private static final int FULL = 0;
+    private static final int DELTA = 1;
+
+    /**
+     * The first byte of a Java-serialized blob of the first version (see Legacy).
+     */
+    private static final int LEGACY = (byte) 0xAC;
+
+    /**
+     * The maximum length of a delta chain,
+     * so that reading a blob never has to resolve too many bases.
+     */
+    private static final int MAX_DEPTH = 16;
+
+    /**
+     * Files larger than this (in bytes) are streamed and never stored as deltas.
+     */
+    static final long STREAM_THRESHOLD = 8 * 1024 * 1024;
+
+    /**
+     * The size of the buffer used to stream large files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The blobs' directory.
+     * This directory addContainsId all the trees of the repository.
+     */
+    static final File BLOBS_DIR = join(Repository.OBJECTS_DIR, "blobs");
+
+    /**
+     * The blobs read during this command, without their content,
+     * weighed by a rough estimate of their size.
+     */
+    private static final ObjectCache<Blob> HEADERS = new ObjectCache<>("blob headers",
+            1024 * 1024, blob -> 96 + 2L * blob.filename.length());
+
+    /**
+     * The contents of the blobs read during this command, weighed by their length.
+     * The bases of delta chains are cached as well, so they are decompressed only once.
+     */
+    private static final ObjectCache<byte[]> CONTENTS = new ObjectCache<>("blob contents",
+            64 * 1024 * 1024, bytes -> bytes.length);
+
+    /**
+     * This filename is the file original name.
+     */
+    private final String filename;
+
+    /**
+     * This content is the actual data of the file.
+     * It is null until it is needed for a blob read back from the object store.
+     */
+    private byte[] content;
+
+    /**
+     * The blob's id.
+     * This id is the SHA-1 hash of the filename and content.
+     */
+    private final String id;
+
+
+    /**
+     * Create a new blob with the given filename, id, and content.
+     * Every time you create a blob,
+     * the corresponding blob file is automatically generated in the blobs' directory.
+     *
+     * @param filename the filename of the blob.
+     * @param content  the content of the blob.
+     */
+    public Blob(String filename, byte[] content) {
+        this(filename, content, null);
+    }
+
+    /**
+     * Create a new blob with the given filename and content,
+     * stored as a delta against the given base if it makes the blob file smaller.
+     *
+     * @param filename the filename of the blob.
+     * @param content  the content of the blob.
+     * @param baseId   the id of the previous version of the file, or null if there is none.
+     */
+    public Blob(String filename, byte[] content, String baseId) {
+        this.filename = filename;
+        this.id = sha1(filename, content);
+        this.content = content;
+        saveBlob(baseId);
+    }
+
+    /**
+     * Create a blob that is already in the object store.
+     *
+     * @param filename the filename of the blob.
+     * @param id       the id of the blob.
+     * @param content  the content of the blob, or null to read it lazily.
+     */
+    private Blob(String filename, String id, byte[] content) {
+        this.filename = filename;
+        this.id = id;
+        this.content = content;
+    }
+
+    /**
+     * Create a blob for the given working file and save it to the object store.
+     * Small files are read in memory and may be stored as a delta against the base,
+     * large files are hashed and compressed chunk by chunk.
+     *
+     * @param filename the filename of the blob.
+     * @param file     the working file.
+     * @param baseId   the id of the previous version of the file, or null if there is none.
+     * @return the blob of the file.
+     */
+    public static Blob fromWorkingFile(String filename, File file, String baseId) {
+        if (file.length() <= STREAM_THRESHOLD) {
+            return new Blob(filename, readContents(file), baseId);
+        }
+        File temp = ObjectStore.LOCAL.tempFile();
+        MessageDigest digest = sha1Digest();
+        digest.update(filename.getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = new FileInputStream(file);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE))) {
+            writeHeader(out, FULL, filename, 0, null);
+            // the stream isn't closed before out, so its deflater is ended here at once
+            // instead of when it is garbage collected, like the inflaters of inflating.
+            Deflater deflater = new Deflater();
+            try {
+                DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                    compressed.write(buffer, 0, n);
+                }
+                compressed.finish();
+            } finally {
+                deflater.end();
+            }
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        String id = toHex(digest.digest());
+        ObjectStore.LOCAL.install(ObjectStore.BLOBS, id, temp);
+        return new Blob(filename, id, null);
+    }
+
+    /**
+     * Returns the id that the blob of the given working file would have,
+     * reading the file through a fixed-size buffer.
+     *
+     * @param filename the filename of the blob.
+     * @param file     the working file.
+     * @return the id of the blob.
+     */
+    public static String hashFile(String filename, File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            return sha1(filename, in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the filename of the blob.
+     *
+     * @return the filename of the blob.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Get the id of the blob.
+     *
+     * @return the id of the blob.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the content of the blob.
+     * This loads the whole content in memory, use writeTo for large files.
+     * The content of a blob read back from the object store is cached and shared,
+     * so it must not be modified.
+     *
+     * @return the content of the blob.
+     */
+    public byte[] getContent() {
+        return content == null ? contentOf(id) : content;
+    }
+
+    /**
+     * Writes the content of the blob to the given file, creating or overwriting it.
+     * A large blob is decompressed straight into the file through a fixed-size buffer.
+     *
+     * @param file the file to write to.
+     */
+    public void writeTo(File file) {
+        if (content != null) {
+            writeContents(file, content);
+            return;
+        }
+        try (DataInputStream in = open(id)) {
+            if (in.readByte() != FULL) {
+                in.close();
+                writeContents(file, getContent());
+                return;
+            }
+            in.readUTF();
+            in.readByte();
+            try (InputStream inflated = inflating(in);
+                 OutputStream out = new FileOutputStream(file)) {
+                inflated.transferTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Opens the content of the blob as a stream.
+     * A large blob is decompressed as it is read, so it is never loaded into memory as a whole.
+     *
+     * @return the stream over the content, to be closed by the caller.
+     */
+    public InputStream openContent() {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        DataInputStream in = open(id);
+        try {
+            if (in.readByte() != FULL) {
+                in.close();
+                return new ByteArrayInputStream(getContent());
+            }
+            in.readUTF();
+            in.readByte();
+            return inflating(in);
+        } catch (IOException excp) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                excp.addSuppressed(e);
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Get the blob object from the given id.
+     * Only the header of the blob file is read, the content is read when it is needed.
+     * The blob is cached, so reading it again during the same command doesn't open its file.
+     *
+     * @param id the id of the blob.
+     * @return the blob object.
+     */
+    public static Blob fromFile(String id) {
+        return HEADERS.get(id, blobId -> {
+            // the blob is either a loose file or an entry of the blobs' pack.
+            try (DataInputStream in = open(blobId)) {
+                if (in.readByte() == LEGACY) {
+                    return new Blob(Legacy.readBlob(blobId).filename, blobId, null);
+                }
+                return new Blob(in.readUTF(), blobId, null);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the content of the blob with the given id, from the cache if possible.
+     *
+     * @param id the id of the blob.
+     * @return the content of the blob.
+     */
+    private static byte[] contentOf(String id) {
+        return CONTENTS.get(id, Blob::load);
+    }
+
+    /**
+     * Reads and decompresses the whole content of the blob with the given id,
+     * resolving its chain of deltas.
+     *
+     * @param id the id of the blob.
+     * @return the content of the blob.
+     */
+    private static byte[] load(String id) {
+        try (DataInputStream in = open(id)) {
+            int kind = in.readByte();
+            if (kind == LEGACY) {
+                return Legacy.readBlob(id).content.getBytes(StandardCharsets.UTF_8);
+            }
+            in.readUTF();
+            in.readByte();
+            if (kind == DELTA) {
+                String baseId = in.readUTF();
+                return Delta.apply(contentOf(baseId), inflate(in));
+            }
+            return inflate(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the id of the base of the blob with the given id, if it is stored as a delta.
+     * Only the header of the blob file is read.
+     *
+     * @param store the object store holding the blob.
+     * @param id    the id of the blob.
+     * @return the id of the base, or null if the blob is stored in full.
+     */
+    static String deltaBase(ObjectStore store, String id) {
+        try (DataInputStream in = new DataInputStream(store.open(ObjectStore.BLOBS, id))) {
+            int kind = in.readByte();
+            if (kind == LEGACY) {
+                return null;
+            }
+            in.readUTF();
+            in.readByte();
+            return kind == DELTA ? in.readUTF() : null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Adds the blob with the given id to the blobs to copy from one object store to another,
+     * together with the part of its chain of delta bases that the destination doesn't have.
+     * The bases are added before the blobs stored against them.
+     *
+     * @param from   the object store to copy from.
+     * @param to     the object store to copy to.
+     * @param id     the id of the blob.
+     * @param result the ordered set of the blobs to copy.
+     */
+    static void missing(ObjectStore from, ObjectStore to, String id, Set<String> result) {
+        List<String> chain = new ArrayList<>();
+        while (id != null && !result.contains(id) && !to.contains(ObjectStore.BLOBS, id)) {
+            chain.add(id);
+            id = deltaBase(from, id);
+        }
+        Collections.reverse(chain);
+        result.addAll(chain);
+    }
+
+    /**
+     * Save the blob object to the corresponding blob file,
+     * unless the object store already contains it.
+     */
+    public void saveBlob() {
+        saveBlob(null);
+    }
+
+    /**
+     * Save the blob object to the corresponding blob file,
+     * unless the object store already contains it.
+     * The blob is stored as a delta against the given base when the delta is
+     * less than half the size of the content and the chain isn't too long.
+     *
+     * @param baseId the id of the base blob, or null to store the full content.
+     */
+    private void saveBlob(String baseId) {
+        if (ObjectStore.LOCAL.contains(ObjectStore.BLOBS, id)) {
+            return;
+        }
+        byte[] data = getContent();
+        int depth = 0;
+        byte[] delta = null;
+        if (baseId != null && !baseId.equals(id)
+                && ObjectStore.LOCAL.contains(ObjectStore.BLOBS, baseId)) {
+            int baseDepth = depth(baseId);
+            if (baseDepth < MAX_DEPTH) {
+                byte[] candidate = Delta.encode(contentOf(baseId), data);
+                if (candidate.length < data.length / 2) {
+                    delta = candidate;
+                    depth = baseDepth + 1;
+                }
+            }
+        }
+        ObjectStore.LOCAL.write(ObjectStore.BLOBS, id, encode(delta == null ? FULL : DELTA,
+                filename, depth, delta == null ? null : baseId, delta == null ? data : delta));
+    }
+
+    /**
+     * Returns the blob with the given id in the current format if it was written
+     * by the first version of Gitlet (see Legacy), for the migrate command.
+     *
+     * @param id the id of the blob.
+     * @return the bytes of the blob file in the current format,
+     *         or null if the blob already has this format.
+     */
+    static byte[] reencode(String id) {
+        try (DataInputStream in = open(id)) {
+            if (in.readByte() != LEGACY) {
+                return null;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Legacy.OldBlob old = Legacy.readBlob(id);
+        return encode(FULL, old.filename, 0, null,
+                old.content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes a blob file: its header followed by the compressed data.
+     *
+     * @param kind     FULL or DELTA.
+     * @param filename the filename of the blob.
+     * @param depth    the length of the delta chain.
+     * @param baseId   the id of the base, or null for a full blob.
+     * @param data     the content, or the delta against the base.
+     * @return the bytes of the blob file.
+     */
+    private static byte[] encode(int kind, String filename, int depth, String baseId,
+                                 byte[] data) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeHeader(out, kind, filename, depth, baseId);
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out);
+            compressed.write(data);
+            compressed.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the header of a blob file.
+     *
+     * @param out      the stream to write to.
+     * @param kind     FULL or DELTA.
+     * @param filename the filename of the blob.
+     * @param depth    the length of the delta chain.
+     * @param baseId   the id of the base, or null for a full blob.
+     */
+    private static void writeHeader(DataOutputStream out, int kind, String filename,
+                                    int depth, String baseId) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(filename);
+        out.writeByte(depth);
+        if (baseId != null) {
+            out.writeUTF(baseId);
+        }
+    }
+
+    /**
+     * Returns the length of the delta chain of the blob with the given id.
+     *
+     * @param id the id of the blob.
+     * @return the length of the delta chain (0 for a full blob or a blob of the first version).
+     */
+    private static int depth(String id) {
+        try (DataInputStream in = open(id)) {
+            if (in.readByte() == LEGACY) {
+                return 0;
+            }
+            in.readUTF();
+            return in.readByte();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Opens the blob file with the given id.
+     *
+     * @param id the id of the blob.
+     * @return the stream over the blob file.
+     */
+    private static DataInputStream open(String id) {
+        return new DataInputStream(new BufferedInputStream(
+                ObjectStore.LOCAL.open(ObjectStore.BLOBS, id), BUFFER_SIZE));
+    }
+
+    /**
+     * Decompresses the rest of the given stream.
+     *
+     * @param in the stream positioned at the compressed data.
+     * @return the decompressed bytes.
+     */
+    private static byte[] inflate(DataInputStream in) throws IOException {
+        try (InputStream inflated = inflating(in)) {
+            return inflated.readAllBytes();
+        }
+    }
+
+    /**
+     * Returns a stream that decompresses the rest of the given stream through a buffer
+     * of BUFFER_SIZE bytes. Closing it also ends its inflater, which frees the native memory
+     * of the inflater at once instead of when it is garbage collected (a daemon serves
+     * many commands before that happens).
+     *
+     * @param in the stream positioned at the compressed data.
+     * @return the stream over the decompressed data, to be closed by the caller.
+     */
+    private static InputStream inflating(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+            private boolean ended;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!ended) {
+                        ended = true;
+                        inf.end();
+                    }
+                }
+            }
+        };
+    }
+
+    // This is only for debugging
+    //    @Override
+    //    public void dump() {
+    //        Blob blob = fromFile(filename);
+    //        System.out.println(blob);
+    //    }
+}
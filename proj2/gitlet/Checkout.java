@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Updates the working directory from one tree to another, for checkout and reset.
+ * The two trees are diffed by id (see Tree.diff), so the unchanged directories are not even
+ * read, and only the files whose blob ids differ are deleted or written.
+ * A file whose stat-cache entry shows that it already has the new content is not written again,
+ * and the stat entries of the written files are recorded in the index.
+ * The files are written in parallel by the workers of WorkingTree.
+ * With a sparse checkout (see Patterns), only the files matching the patterns of
+ * .gitlet/sparse-checkout are written to the working directory.
+ *
+ * @author R7CKB
+ */
+class Checkout {
+
+    /**
+     * The file holding the patterns of the sparse checkout, one per line.
+     */
+    static final File SPARSE_FILE = join(Repository.GITLET_DIR, "sparse-checkout");
+
+    /**
+     * The index holding the stat cache.
+     */
+    private final Index index;
+
+    /**
+     * The patterns of the paths to write to the working directory.
+     */
+    private final Patterns patterns;
+
+    /**
+     * Creates a checkout updating the given index, with the patterns of the sparse-checkout file.
+     *
+     * @param index the index holding the stat cache, which the caller saves.
+     */
+    Checkout(Index index) {
+        this.index = index;
+        this.patterns = Patterns.read();
+    }
+
+    /**
+     * Updates the working directory from the files of the old tree to those of the new tree.
+     * Fails before touching any file if a file of the new tree only
+     * is in the way in the working directory.
+     *
+     * @param oldTree the id of the tree of the current commit.
+     * @param newTree the id of the tree of the commit to check out.
+     * @return true if the new tree has files that the old tree doesn't have.
+     */
+    boolean switchTrees(String oldTree, String newTree) {
+        TreeMap<String, String[]> changes = Tree.diff(ObjectStore.LOCAL, oldTree, newTree);
+        boolean added = false;
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String[] ids = change.getValue();
+            if (ids[0] == null) {
+                added = true;
+                if (patterns.includes(change.getKey())
+                        && new File(Repository.CWD, change.getKey()).exists()) {
+                    throw error("There is an untracked file in the way; "
+                            + "delete it, or add and commit it first.");
+                }
+            }
+        }
+        // the deletions come first, since a deleted file may be replaced by a directory.
+        Map<String, String> writes = new TreeMap<>();
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String newId = change.getValue()[1];
+            if (newId == null) {
+                WorkingTree.delete(new File(Repository.CWD, change.getKey()));
+            } else if (patterns.includes(change.getKey())) {
+                writes.put(change.getKey(), newId);
+            }
+        }
+        write(writes);
+        return added;
+    }
+
+    /**
+     * Replaces the patterns of the sparse checkout, and updates the working directory:
+     * the files of the given tree that the new patterns include are written if they are missing,
+     * and those that they exclude are deleted unless they were modified.
+     *
+     * @param treeId   the id of the tree of the current commit.
+     * @param newLines the new patterns, or an empty list to write all the files.
+     */
+    void setPatterns(String treeId, List<String> newLines) {
+        Patterns newPatterns = Patterns.of(newLines);
+        Map<String, String> files = Tree.flatten(ObjectStore.LOCAL, treeId);
+        Map<String, String> writes = new TreeMap<>();
+        List<String> excluded = new ArrayList<>();
+        for (Map.Entry<String, String> entry : files.entrySet()) {
+            String path = entry.getKey();
+            boolean exists = new File(Repository.CWD, path).isFile();
+            if (newPatterns.includes(path) && !exists) {
+                writes.put(path, entry.getValue());
+            } else if (!newPatterns.includes(path) && exists) {
+                excluded.add(path);
+            }
+        }
+        Map<String, Index.StatEntry> stats = WorkingTree.hash(index, excluded);
+        for (String path : excluded) {
+            if (stats.get(path).getId().equals(files.get(path))) {
+                WorkingTree.delete(new File(Repository.CWD, path));
+            }
+        }
+        write(writes);
+        if (newLines.isEmpty()) {
+            SPARSE_FILE.delete();
+        } else {
+            Journal.writeAtomic(SPARSE_FILE, String.join("\n", newLines) + "\n");
+        }
+    }
+
+    /**
+     * Writes the given files in parallel, skipping those that already have the right content,
+     * and records their stat entries.
+     *
+     * @param writes the files to write, mapping paths to blob ids.
+     */
+    private void write(Map<String, String> writes) {
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, String> entry : writes.entrySet()) {
+            File file = new File(Repository.CWD, entry.getKey());
+            Index.StatEntry stat = index.getStat(entry.getKey(), file);
+            if (stat == null || !stat.getId().equals(entry.getValue())) {
+                paths.add(entry.getKey());
+            }
+        }
+        TreeMap<String, Index.StatEntry> written = WorkingTree.map(paths, path -> {
+            String id = writes.get(path);
+            File file = new File(Repository.CWD, path);
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            Blob.fromFile(id).writeTo(file);
+            return Index.newStat(file, id, WorkingTree.isConflicted(file));
+        });
+        for (Map.Entry<String, Index.StatEntry> entry : written.entrySet()) {
+            index.putStat(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * The patterns of a sparse checkout.
+     * A pattern is a path ("src/lib"), which includes the file or the directory with this path,
+     * or a glob ("src/*.java", "docs/v?"), which includes the paths it matches
+     * and everything in the directories it matches.
+     * Empty lines and lines starting with "#" are ignored.
+     * Without any pattern, every path is included.
+     */
+    static class Patterns {
+        /** The path patterns, without a trailing separator. */
+        private final List<String> prefixes = new ArrayList<>();
+        /** The glob patterns. */
+        private final List<PathMatcher> globs = new ArrayList<>();
+
+        /**
+         * Reads the patterns of the sparse-checkout file.
+         *
+         * @return the patterns.
+         */
+        static Patterns read() {
+            if (!SPARSE_FILE.isFile()) {
+                return new Patterns();
+            }
+            return of(List.of(readContentsAsString(SPARSE_FILE).split("\n")));
+        }
+
+        /**
+         * Parses the given patterns.
+         *
+         * @param lines the patterns, one per line.
+         * @return the patterns.
+         */
+        static Patterns of(List<String> lines) {
+            Patterns patterns = new Patterns();
+            for (String line : lines) {
+                String pattern = line.trim();
+                while (pattern.startsWith(Tree.SEPARATOR)) {
+                    pattern = pattern.substring(1);
+                }
+                while (pattern.endsWith(Tree.SEPARATOR)) {
+                    pattern = pattern.substring(0, pattern.length() - 1);
+                }
+                if (pattern.isEmpty() || pattern.startsWith("#")) {
+                    continue;
+                }
+                if (isGlob(pattern)) {
+                    patterns.globs.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                } else {
+                    patterns.prefixes.add(pattern);
+                }
+            }
+            return patterns;
+        }
+
+        /**
+         * Returns true if the given pattern is a glob rather than a path.
+         *
+         * @param pattern the pattern.
+         * @return true if the pattern has a wildcard ("*", "?", "[" or "{").
+         */
+        static boolean isGlob(String pattern) {
+            return pattern.matches(".*[*?\\[{].*");
+        }
+
+        /**
+         * Returns true if the file with the given path is written to the working directory.
+         *
+         * @param path the path of the file.
+         * @return true if there is no pattern or if a pattern includes the path.
+         */
+        boolean includes(String path) {
+            if (prefixes.isEmpty() && globs.isEmpty()) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (path.equals(prefix) || path.startsWith(prefix + Tree.SEPARATOR)) {
+                    return true;
+                }
+            }
+            if (!globs.isEmpty()) {
+                for (Path p = Path.of(path); p != null; p = p.getParent()) {
+                    for (PathMatcher glob : globs) {
+                        if (glob.matches(p)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A thin client for the Gitlet daemon (see Daemon).
+ * Usage: java gitlet.Client ARGS, with the same arguments as gitlet.Main.
+ * The command is sent to the daemon of the repository of the working directory,
+ * and its output is printed as if it had run in this process.
+ * If no daemon is running, the command simply runs in this process.
+ *
+ * @author R7CKB
+ */
+public class Client {
+
+    /**
+     * The size of the buffers of the connection.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sends the command to the daemon, or runs it in this process if there is no daemon.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        String dir = System.getProperty("user.dir");
+        // the path of the socket is built by hand, so that the client loads as few classes
+        // as possible (Daemon.SOCKET would load the whole repository).
+        File socket = new File(dir, ".gitlet" + File.separator + "daemon.sock");
+        SocketChannel channel = socket.exists() ? connect(socket) : null;
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Channels.newOutputStream(channel), BUFFER_SIZE));
+            Codec.writeString(out, dir);
+            Codec.writeNumber(out, args.length);
+            for (String arg : args) {
+                Codec.writeString(out, arg);
+            }
+            out.flush();
+            status = receive(new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), BUFFER_SIZE)));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Prints the output frames of the daemon until the exit status of the command.
+     *
+     * @param in the stream from the daemon.
+     * @return the exit status of the command.
+     */
+    private static int receive(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            while (true) {
+                int kind = in.readUnsignedByte();
+                if (kind == Daemon.EXIT) {
+                    return Codec.readNumber(in);
+                }
+                PrintStream target = kind == Daemon.ERR ? System.err : System.out;
+                int length = Codec.readNumber(in);
+                while (length > 0) {
+                    int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                    if (n < 0) {
+                        throw new IOException("The daemon closed the connection.");
+                    }
+                    target.write(buffer, 0, n);
+                    length -= n;
+                }
+            }
+        } finally {
+            System.out.flush();
+            System.err.flush();
+        }
+    }
+
+    /**
+     * Connects to the daemon listening on the given socket.
+     *
+     * @param socket the socket of the daemon.
+     * @return the connection, or null if no daemon is listening.
+     */
+    static SocketChannel connect(File socket) {
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()));
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
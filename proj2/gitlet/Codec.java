@@ -0,0 +1,206 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary format of the objects of a repository (commits, trees, the index, ...).
+ * Every encoded object starts with a header:
+ * - a magic byte ('G'),
+ * - the version of the format,
+ * - a kind byte telling what kind of object follows.
+ * The fields of the objects are then written one after another:
+ * numbers as variable-length integers (7 bits per byte) or fixed-size longs,
+ * strings as their length followed by their UTF-8 bytes,
+ * and ids as their 20 raw bytes instead of 40 hexadecimal characters.
+ * Files written by older versions with Java serialization start with 0xACED,
+ * which never starts an encoded object, so they can still be recognized and read.
+ *
+ * @author R7CKB
+ */
+class Codec {
+
+    /**
+     * The magic byte at the start of every encoded object ('G').
+     */
+    private static final int MAGIC = 0x47;
+
+    /**
+     * The version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The kinds of encoded objects.
+     */
+    static final int COMMIT = 'C';
+    static final int TREE = 'T';
+    static final int INDEX = 'I';
+    static final int MESSAGE_INDEX = 'M';
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private Codec() {
+    }
+
+    /**
+     * Writes the fields of an object.
+     */
+    interface Encoder {
+        void encode(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the fields of an object.
+     *
+     * @param <T> the type of the object.
+     */
+    interface Decoder<T> {
+        T decode(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Encodes an object of the given kind.
+     *
+     * @param kind    the kind of the object.
+     * @param encoder writes the fields of the object.
+     * @return the encoded object.
+     */
+    static byte[] encode(int kind, Encoder encoder) {
+        long start = Trace.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(kind);
+            encoder.encode(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] result = bytes.toByteArray();
+        Trace.record(Trace.SERIALIZE, start, result.length);
+        return result;
+    }
+
+    /**
+     * Decodes an object of the given kind.
+     *
+     * @param bytes   the encoded object.
+     * @param kind    the expected kind of the object.
+     * @param decoder reads the fields of the object.
+     * @param <T>     the type of the object.
+     * @return the decoded object.
+     */
+    static <T> T decode(byte[] bytes, int kind, Decoder<T> decoder) {
+        if (bytes.length < 3 || bytes[0] != MAGIC || bytes[2] != kind) {
+            throw Utils.error("Not an encoded object of kind %c.", (char) kind);
+        }
+        if (bytes[1] != VERSION) {
+            throw Utils.error("Unsupported object version: %d.", bytes[1]);
+        }
+        long start = Trace.start();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes, 3, bytes.length - 3))) {
+            T result = decoder.decode(in);
+            Trace.record(Trace.DESERIALIZE, start, bytes.length);
+            return result;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the given bytes were written with Java serialization
+     * (by an older version of Gitlet).
+     *
+     * @param bytes the bytes of an object.
+     * @return true if the bytes start with the Java serialization magic number.
+     */
+    static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    /**
+     * Writes a 40-character hexadecimal id as its 20 raw bytes.
+     *
+     * @param out the stream to write to.
+     * @param id  the id.
+     */
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(Pack.toRaw(id));
+    }
+
+    /**
+     * Reads an id written by writeId.
+     *
+     * @param in the stream to read from.
+     * @return the 40-character hexadecimal id.
+     */
+    static String readId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[Pack.RAW_ID_LENGTH];
+        in.readFully(raw);
+        return Utils.toHex(raw);
+    }
+
+    /**
+     * Writes a string as its length followed by its UTF-8 bytes.
+     *
+     * @param out the stream to write to.
+     * @param s   the string.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeNumber(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param in the stream to read from.
+     * @return the string.
+     */
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readNumber(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a non-negative number as a variable-length integer.
+     *
+     * @param out   the stream to write to.
+     * @param value the number.
+     */
+    static void writeNumber(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a number written by writeNumber.
+     *
+     * @param in the stream to read from.
+     * @return the number.
+     */
+    static int readNumber(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -15,22 +16,37 @@ import static gitlet.Utils.*;
  * - timeStamp: the date and time of the commit.
  * - id: the SHA-1 hash of the commit.
  * - parents: the parent Commits of the commit.
- * - blobMap: the blobMap of the commit.
- * The Commit object is responsible for serializing and deserializing itself to and from a file.
+ * - tree: the id of the tree of the root directory of the commit.
+ * The Commit object is responsible for encoding and decoding itself to and from a file
+ * (see Codec for the format).
  * It also provides methods for getting and setting its fields,
  * as well as for saving and loading it to and from a file.
- * The blobMap is a map that maps the filename to the SHA-1 hash of the corresponding blob.
+ * The blobMap is a map that maps the path of each file to the SHA-1 hash of its blob,
+ * it is computed from the tree when it is needed.
  *
  * @author R7CKB
  */
 public class Commit implements Serializable, Dumpable {
 
+    /**
+     * The version of the Java-serialized form of this class,
+     * so that commits written by older versions can still be read.
+     */
+    private static final long serialVersionUID = 6825200096508108030L;
+
     /**
      * The commits' directory.
      * This directory addContainsId all the commits of the repository.
      */
     static final File COMMITS_DIR = join(Repository.OBJECTS_DIR, "commits");
 
+    /**
+     * The commits read during this command, weighed by a rough estimate of their size,
+     * which includes their blobMap once it is read (see getBlobMap).
+     */
+    private static final ObjectCache<Commit> CACHE = new ObjectCache<>("commits",
+            32 * 1024 * 1024, Commit::weight);
+
     /**
      * The message of this Commit.
      */
@@ -56,15 +72,21 @@ public class Commit implements Serializable, Dumpable {
 
 
     /**
-     * The blobMap of this Commit.
+     * The id of the tree of this Commit.
+     */
+    private final String tree;
+
+    /**
+     * The blobMap of this Commit, or null until it is read from the tree.
      */
-    private final Map<String, String> blobMap;
+    private transient Map<String, String> blobMap;
 
     /**
      * Constructor for an empty Commit object.
      */
     public Commit() {
-        this("initial commit", new Date(0), new ArrayList<>(), new TreeMap<>());
+        this("initial commit", new Date(0), new ArrayList<>(),
+                Tree.update(null, new TreeMap<>()));
     }
 
     /**
@@ -73,15 +95,35 @@ public class Commit implements Serializable, Dumpable {
      * @param message the message of this Commit.
      * @param date    the date of this Commit.
      * @param parents the parent Commits of this Commit.
-     * @param blobMap the blobMap of this Commit.
+     * @param tree    the id of the tree of this Commit.
      */
-    public Commit(String message, Date date, List<String> parents, Map<String, String> blobMap) {
+    public Commit(String message, Date date, List<String> parents, String tree) {
         this.message = message;
         this.timeStamp = handleDate(date);
         this.parents = parents;
-        this.blobMap = blobMap;
-        this.id = sha1(message, timeStamp, parents.toString(), blobMap.toString());
+        this.tree = tree;
+        this.id = sha1(message, timeStamp, parents.toString(), tree);
         saveCommit();
+        CACHE.put(id, this);
+        CommitGraph.LOCAL.add(this);
+    }
+
+    /**
+     * Constructor for a Commit object read from the object store.
+     *
+     * @param id        the commit ID of this Commit.
+     * @param message   the message of this Commit.
+     * @param timeStamp the dateString of this Commit.
+     * @param parents   the parent Commits of this Commit.
+     * @param tree      the id of the tree of this Commit.
+     */
+    private Commit(String id, String message, String timeStamp, List<String> parents,
+                   String tree) {
+        this.id = id;
+        this.message = message;
+        this.timeStamp = timeStamp;
+        this.parents = parents;
+        this.tree = tree;
     }
 
     /**
@@ -103,15 +145,27 @@ public class Commit implements Serializable, Dumpable {
     }
 
     /**
-     * Returns true if the commit contains the given id.
+     * get the time of this Commit, in milliseconds since the epoch.
      *
-     * @return true if the commit contains the given id, false otherwise.
+     * @return the time of this Commit.
      */
-    public boolean containsId(String fileId) {
-        if (blobMap.isEmpty()) {
-            return false;
+    public long getTime() {
+        try {
+            return dateFormat().parse(timeStamp).getTime();
+        } catch (ParseException e) {
+            throw error("Invalid commit date: %s", timeStamp);
         }
-        return blobMap.containsValue(fileId);
+    }
+
+    /**
+     * Returns true if the commit contains the given file with the given id.
+     *
+     * @param filename the path of the file.
+     * @param fileId   the id of the blob.
+     * @return true if the file has this content in the commit, false otherwise.
+     */
+    public boolean containsFile(String filename, String fileId) {
+        return fileId.equals(getBlobMap().get(filename));
     }
 
     /**
@@ -120,10 +174,11 @@ public class Commit implements Serializable, Dumpable {
      * @return true if the commit contains the given file, false otherwise.
      */
     public boolean containsFile(String filename) {
-        if (blobMap.isEmpty()) {
+        Map<String, String> blobs = getBlobMap();
+        if (blobs.isEmpty()) {
             return false;
         }
-        return blobMap.containsKey(filename);
+        return blobs.containsKey(filename);
     }
 
     /**
@@ -145,34 +200,75 @@ public class Commit implements Serializable, Dumpable {
     }
 
     /**
-     * Returns the blobMap of this Commit.
+     * Returns the id of the tree of this Commit.
+     *
+     * @return the id of the tree of this Commit.
+     */
+    public String getTree() {
+        return tree;
+    }
+
+    /**
+     * Returns the blobMap of this Commit, mapping the path of each file to its blob id.
+     * The map is read from the tree the first time and can't be modified.
      *
      * @return the blobMap of this Commit.
      */
     public Map<String, String> getBlobMap() {
+        if (blobMap == null) {
+            blobMap = Collections.unmodifiableMap(Tree.flatten(ObjectStore.LOCAL, tree));
+            // the commit is much heavier now, so it is weighed again (or dropped if too heavy).
+            CACHE.put(id, this);
+        }
         return blobMap;
     }
 
+    /**
+     * Returns a rough estimate of the size of this Commit in memory, for the cache.
+     *
+     * @return the estimated size in bytes.
+     */
+    private long weight() {
+        Map<String, String> blobs = blobMap;
+        long result = 256 + 2L * message.length();
+        if (blobs != null) {
+            for (String path : blobs.keySet()) {
+                result += 160 + path.length();
+            }
+        }
+        return result;
+    }
+
     /**
      * output the log of the commit.
      */
     @Override
     public void dump() {
-        List<String> listOfParents = getParents();
-        System.out.println("===");
-        System.out.println("commit " + this.getId());
-        if (listOfParents.size() == 2) {
-            Commit parent1 = fromFile(listOfParents.get(0));
-            Commit parent2 = fromFile(listOfParents.get(1));
-            System.out.println("Merge: " + parent1.getId().substring(0, 7)
-                    + " " + parent2.getId().substring(0, 7));
+        System.out.print(toLog());
+    }
+
+    /**
+     * Returns the log entry of the commit, as printed by log and global-log.
+     * The merge line is made from the ids of the parents, without reading them.
+     *
+     * @return the log entry of the commit.
+     */
+    public String toLog() {
+        String newline = System.lineSeparator();
+        StringBuilder log = new StringBuilder();
+        log.append("===").append(newline);
+        log.append("commit ").append(getId()).append(newline);
+        if (parents.size() == 2) {
+            log.append("Merge: ").append(parents.get(0), 0, 7)
+                    .append(" ").append(parents.get(1), 0, 7).append(newline);
         }
-        System.out.println("Date: " + this.getTimeStamp());
-        System.out.println(this.getMessage());
-        System.out.println();
+        log.append("Date: ").append(getTimeStamp()).append(newline);
+        log.append(getMessage()).append(newline);
+        log.append(newline);
         // the following code is for debugging purposes only.
-        // System.out.println("Parents: " + this.getParents());
-        // System.out.println("BlobMap: " + this.getBlobMap());
+        // log.append("Parents: ").append(getParents()).append(newline);
+        // log.append("BlobMap: ").append(getBlobMap()).append(newline);
+        return log.toString();
     }
 
 
@@ -183,33 +279,107 @@ public class Commit implements Serializable, Dumpable {
      * @return the string format of the date
      */
     private String handleDate(Date date) {
+        this.timeStamp = dateFormat().format(date);
+        return timeStamp;
+    }
+
+    /**
+     * Returns the format of the date string of a commit.
+     *
+     * @return the date format.
+     */
+    private static SimpleDateFormat dateFormat() {
         // reference: https://docs.oracle.com/javase/7/docs/api/java/text/SimpleDateFormat.html
         SimpleDateFormat ft = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z", Locale.US);
         // PST is the time zone of the Pacific Standard Time.
         ft.setTimeZone(TimeZone.getTimeZone("PST"));
         // The format of the date string is "Wed Dec 31 16:00:00 1969 -0800"
-        this.timeStamp = ft.format(date);
-        return timeStamp;
+        return ft;
     }
 
     /**
-     * Reads in and deserializes a Commit object from a file with filename in OBJECTS_DIR.
+     * Reads in and decodes a Commit object with the given id from the object store.
+     * The commit is cached, so that reading it again during the same command
+     * returns the same object (and its blobMap is flattened only once).
      *
      * @param filename name of file to read from
      * @return The Commit object
      */
     public static Commit fromFile(String filename) {
-        Commit commit = null;
-        File commitFile = new File(COMMITS_DIR, filename);
-        commit = readObject(commitFile, Commit.class);
+        // the commit is either a loose file or an entry of the commits' pack.
+        return CACHE.get(filename,
+                id -> decode(ObjectStore.LOCAL.read(ObjectStore.COMMITS, id)));
+    }
+
+    /**
+     * Encodes this Commit object: its id, message, time, parents and tree.
+     * The time is stored in milliseconds, the dateString is formatted again when decoding.
+     *
+     * @return the encoded commit.
+     */
+    byte[] encode() {
+        return Codec.encode(Codec.COMMIT, out -> {
+            Codec.writeId(out, id);
+            Codec.writeString(out, message);
+            out.writeLong(getTime());
+            Codec.writeNumber(out, parents.size());
+            for (String parent : parents) {
+                Codec.writeId(out, parent);
+            }
+            Codec.writeId(out, tree);
+        });
+    }
+
+    /**
+     * Decodes a Commit object written by encode,
+     * or by Java serialization in older versions of Gitlet (see Legacy).
+     *
+     * @param bytes the encoded commit.
+     * @return The Commit object
+     */
+    static Commit decode(byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            Object commit = Legacy.read(bytes, Object.class);
+            if (commit instanceof Legacy.OldCommit) {
+                return fromLegacy((Legacy.OldCommit) commit);
+            }
+            return (Commit) commit;
+        }
+        return Codec.decode(bytes, Codec.COMMIT, in -> {
+            String id = Codec.readId(in);
+            String message = Codec.readString(in);
+            String timeStamp = dateFormat().format(new Date(in.readLong()));
+            int count = Codec.readNumber(in);
+            List<String> parents = new ArrayList<>(count);
+            for (int i = 0; i < count; i += 1) {
+                parents.add(Codec.readId(in));
+            }
+            return new Commit(id, message, timeStamp, parents, Codec.readId(in));
+        });
+    }
+
+    /**
+     * Converts a commit of the first version of Gitlet, which held its blobMap instead of a tree.
+     * The trees of the blobMap are computed in memory: reading a commit doesn't write
+     * to any object store (see Tree.compute, and migrate, which writes them).
+     * The id of the commit is kept, since the refs use it.
+     *
+     * @param old the commit of the first version.
+     * @return The Commit object
+     */
+    private static Commit fromLegacy(Legacy.OldCommit old) {
+        Commit commit = new Commit(old.id, old.message, old.timeStamp,
+                new ArrayList<>(old.parents), Tree.compute(old.blobMap));
+        commit.blobMap = Collections.unmodifiableMap(new TreeMap<>(old.blobMap));
         return commit;
     }
 
     /**
-     * Saves this Commit object to a file for future use.
+     * Saves this Commit object to a file for future use,
+     * and adds it to the message index.
      */
     public void saveCommit() {
-        File commitFile = new File(COMMITS_DIR, getId());
-        writeObject(commitFile, this);
+        ObjectStore.LOCAL.write(ObjectStore.COMMITS, getId(), encode());
+        MessageIndex.update(this);
     }
 }
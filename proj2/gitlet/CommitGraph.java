@@ -0,0 +1,879 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit-graph of a repository: a compact cache of the shape of the history.
+ * For every commit, it stores the positions of its parents, its generation number
+ * (1 for a root commit, 1 + the largest generation of its parents otherwise) and its timestamp.
+ * The file is laid out as:
+ * - a header: magic number, version and number of commits,
+ * - a fan-out table of 256 counts: entry b is the number of commits whose id starts
+ * with a byte not greater than b, so the commits starting with b are those from
+ * entry b - 1 to entry b, as in the idx files of git,
+ * - the 20-byte raw ids of all the commits, in sorted order,
+ * - one fixed-size entry per commit, in the same order:
+ * position of the first parent, position of the second parent (-1 if none),
+ * generation number and timestamp.
+ * The file is memory-mapped, so walking the history is a matter of following
+ * positions in a single array, without reading any commit object.
+ * The commits created or fetched since the file was written are appended to a second file,
+ * the layer ([file]-layer), so that adding a commit doesn't rewrite the whole graph:
+ * - a header: magic number, version and number of commits of the file it extends,
+ * - one record per commit, parents before children: 20-byte raw id, positions of the parents,
+ * generation number and timestamp.
+ * The commits of the layer follow those of the file: the commit at position count + k
+ * is the k-th record of the layer. The layer is merged into the file by repack and gc,
+ * and when it reaches LAYER_LIMIT commits, so that it stays small enough to be read at once.
+ * The graph is rebuilt from the commit objects if it is missing or has an older format.
+ * Since it holds every commit, it also resolves abbreviated commit ids (see withPrefix).
+ *
+ * @author R7CKB
+ */
+class CommitGraph {
+
+    /**
+     * The commit-graph of the current repository.
+     */
+    static final CommitGraph LOCAL = new CommitGraph(
+            join(Repository.OBJECTS_DIR, "commit-graph"), ObjectStore.LOCAL);
+
+    /**
+     * The magic number at the start of the file ("GCGR").
+     */
+    private static final int MAGIC = 0x47434752;
+
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the header: magic number, version and number of commits.
+     */
+    private static final int HEADER = 12;
+
+    /**
+     * The size of the fan-out table: one count per value of the first byte of an id.
+     */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /**
+     * The position of the sorted ids in the file, after the header and the fan-out table.
+     */
+    private static final int IDS = HEADER + FANOUT_SIZE;
+
+    /**
+     * The size of one entry: two parents, generation number and timestamp.
+     */
+    private static final int ENTRY_SIZE = 4 + 4 + 4 + 8;
+
+    /**
+     * The magic number at the start of the layer ("GCGL").
+     */
+    private static final int LAYER_MAGIC = 0x4743474c;
+
+    /**
+     * The version of the layer format.
+     */
+    private static final int LAYER_VERSION = 1;
+
+    /**
+     * The size of the header of the layer: magic number, version and number of commits
+     * of the file it extends.
+     */
+    private static final int LAYER_HEADER = 12;
+
+    /**
+     * The size of one record of the layer: raw id, two parents, generation number and timestamp.
+     */
+    private static final int LAYER_RECORD = Pack.RAW_ID_LENGTH + ENTRY_SIZE;
+
+    /**
+     * The number of commits of the layer above which it is merged into the file.
+     */
+    static final int LAYER_LIMIT = 1024;
+
+    /**
+     * The position used for a missing parent.
+     */
+    static final int NONE = -1;
+
+    /**
+     * The flags used to paint the commits while searching for merge bases.
+     * PARENT1 and PARENT2 mark the commits reachable from either side,
+     * STALE marks the commits reachable from a common ancestor, which can't be a best one,
+     * RESULT marks the common ancestors that were found.
+     */
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+
+    /**
+     * The commit-graph file.
+     */
+    private final File file;
+
+    /**
+     * The layer file, holding the commits added since the commit-graph file was written.
+     */
+    private final File layerFile;
+
+    /**
+     * The object store holding the commits of the graph.
+     */
+    private final ObjectStore store;
+
+    /**
+     * The mapped commit-graph file, or null if it is not loaded yet.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * The modification time and the length of the commit-graph file when it was mapped.
+     */
+    private long mappedTime;
+    private long mappedLength;
+
+    /**
+     * The number of commits in the commit-graph file.
+     */
+    private int count;
+
+    /**
+     * The records of the layer read in memory, or null if there is no valid layer.
+     */
+    private ByteBuffer layer;
+
+    /**
+     * The number of commits in the layer.
+     */
+    private int layerCount;
+
+    /**
+     * The positions of the commits of the layer, by id.
+     */
+    private final Map<String, Integer> layerPositions = new HashMap<>();
+
+    /**
+     * The modification time and the length of the layer when it was read.
+     */
+    private long layerTime;
+    private long layerLength;
+
+    /**
+     * Creates the commit-graph stored in the given file, for the commits of the given store.
+     *
+     * @param file  the commit-graph file.
+     * @param store the object store holding the commits.
+     */
+    CommitGraph(File file, ObjectStore store) {
+        this.file = file;
+        this.layerFile = new File(file.getPath() + "-layer");
+        this.store = store;
+    }
+
+    /**
+     * Returns the number of commits in the graph.
+     *
+     * @return the number of commits.
+     */
+    int size() {
+        load();
+        return count + layerCount;
+    }
+
+    /**
+     * Returns the position of the commit with the given id,
+     * adding it (and its missing ancestors) to the graph if it is only in the object store.
+     *
+     * @param id the id of the commit.
+     * @return the position of the commit, or NONE if there is no such commit.
+     */
+    int indexOf(String id) {
+        int i = find(id);
+        if (i == NONE && id != null && store.contains(ObjectStore.COMMITS, id)) {
+            addAll(List.of(Commit.decode(store.read(ObjectStore.COMMITS, id))));
+            i = find(id);
+        }
+        return i;
+    }
+
+    /**
+     * Returns the id of the commit at the given position.
+     *
+     * @param i the position of the commit.
+     * @return the id of the commit.
+     */
+    String idAt(int i) {
+        load();
+        byte[] raw = new byte[Pack.RAW_ID_LENGTH];
+        ByteBuffer slice = i < count ? buffer.duplicate() : layer.duplicate();
+        slice.position(i < count ? IDS + i * Pack.RAW_ID_LENGTH : record(i));
+        slice.get(raw);
+        return toHex(raw);
+    }
+
+    /**
+     * Returns the position of the first (which = 0) or second (which = 1) parent of a commit.
+     *
+     * @param i     the position of the commit.
+     * @param which 0 for the first parent, 1 for the second parent.
+     * @return the position of the parent, or NONE if there is no such parent.
+     */
+    int parent(int i, int which) {
+        return i < count ? buffer.getInt(entry(i) + 4 * which)
+                : layer.getInt(record(i) + Pack.RAW_ID_LENGTH + 4 * which);
+    }
+
+    /**
+     * Returns the generation number of the commit at the given position.
+     *
+     * @param i the position of the commit.
+     * @return the generation number.
+     */
+    int generation(int i) {
+        return i < count ? buffer.getInt(entry(i) + 8)
+                : layer.getInt(record(i) + Pack.RAW_ID_LENGTH + 8);
+    }
+
+    /**
+     * Returns the timestamp (in milliseconds) of the commit at the given position.
+     *
+     * @param i the position of the commit.
+     * @return the timestamp.
+     */
+    long time(int i) {
+        return i < count ? buffer.getLong(entry(i) + 12)
+                : layer.getLong(record(i) + Pack.RAW_ID_LENGTH + 12);
+    }
+
+    /**
+     * Returns the ids of the parents of the commit with the given id.
+     *
+     * @param id the id of the commit.
+     * @return the ids of the parents, first parent first.
+     */
+    List<String> parents(String id) {
+        List<String> result = new ArrayList<>();
+        int i = indexOf(id);
+        for (int which = 0; i != NONE && which < 2; which += 1) {
+            int p = parent(i, which);
+            if (p != NONE) {
+                result.add(idAt(p));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the best common ancestors of the two given commits:
+     * the common ancestors that are not ancestors of another common ancestor.
+     * The commits are walked in decreasing generation number, so a commit is always visited
+     * after all its descendants that can reach it, and the walk stops as soon as every
+     * commit left in the queue is reachable from a common ancestor (so can't be a better one).
+     *
+     * @param a the position of the first commit.
+     * @param b the position of the second commit.
+     * @return the positions of the best common ancestors, highest generation (then latest) first.
+     */
+    List<Integer> mergeBases(int a, int b) {
+        List<Integer> result = new ArrayList<>();
+        if (a == NONE || b == NONE) {
+            return result;
+        }
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        byte[] flags = new byte[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(byGeneration());
+        flags[a] |= PARENT1;
+        flags[b] |= PARENT2;
+        queue.add(a);
+        queue.add(b);
+        while (hasNonStale(queue, flags)) {
+            int commit = queue.poll();
+            int paint = flags[commit] & (PARENT1 | PARENT2 | STALE);
+            if (paint == (PARENT1 | PARENT2)) {
+                // reachable from both sides: a common ancestor, and its ancestors are stale.
+                if ((flags[commit] & RESULT) == 0) {
+                    flags[commit] |= RESULT;
+                    result.add(commit);
+                }
+                paint |= STALE;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int p = parent(commit, which);
+                if (p == NONE || (flags[p] & paint) == paint) {
+                    continue;
+                }
+                flags[p] |= paint;
+                queue.add(p);
+            }
+        }
+        result.removeIf(commit -> (flags[commit] & STALE) != 0);
+        removeRedundant(result);
+        result.sort(byGeneration());
+        return result;
+    }
+
+    /**
+     * Removes from the given common ancestors those that are ancestors of another one.
+     * A walk from a candidate only needs to go down to the lowest generation of the candidates.
+     *
+     * @param candidates the positions of the common ancestors.
+     */
+    private void removeRedundant(List<Integer> candidates) {
+        if (candidates.size() < 2) {
+            return;
+        }
+        int minGeneration = Integer.MAX_VALUE;
+        for (int candidate : candidates) {
+            minGeneration = Math.min(minGeneration, generation(candidate));
+        }
+        List<Integer> redundant = new ArrayList<>();
+        for (int candidate : candidates) {
+            boolean[] seen = new boolean[size()];
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(candidate);
+            while (!stack.isEmpty()) {
+                int commit = stack.pop();
+                for (int which = 0; which < 2; which += 1) {
+                    int p = parent(commit, which);
+                    if (p == NONE || seen[p] || generation(p) < minGeneration) {
+                        continue;
+                    }
+                    seen[p] = true;
+                    stack.push(p);
+                }
+            }
+            for (int other : candidates) {
+                if (other != candidate && seen[other]) {
+                    redundant.add(other);
+                }
+            }
+        }
+        candidates.removeAll(redundant);
+    }
+
+    /**
+     * Returns true if the queue still contains a commit that is not stale.
+     *
+     * @param queue the queue of the walk.
+     * @param flags the flags of every commit.
+     * @return true if the walk must go on, false otherwise.
+     */
+    private static boolean hasNonStale(PriorityQueue<Integer> queue, byte[] flags) {
+        for (int commit : queue) {
+            if ((flags[commit] & STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the order of the walks: highest generation number first, then latest commit first.
+     *
+     * @return the comparator of positions.
+     */
+    private Comparator<Integer> byGeneration() {
+        return Comparator.comparingInt((Integer i) -> -generation(i))
+                .thenComparingLong(i -> -time(i));
+    }
+
+    /**
+     * Adds the given commit to the graph.
+     *
+     * @param commit the new commit.
+     */
+    void add(Commit commit) {
+        addAll(List.of(commit));
+    }
+
+    /**
+     * Adds the given commits to the graph, appending them to the layer in one write,
+     * so that the cost depends on the number of new commits, not on the size of the history.
+     * Parents that are neither in the graph nor in the given commits are read from the store.
+     * The layer is merged into the commit-graph file once it reaches LAYER_LIMIT commits.
+     *
+     * @param commits the new commits.
+     */
+    void addAll(Collection<Commit> commits) {
+        load();
+        Map<String, Node> nodes = new HashMap<>();
+        Deque<Commit> pending = new ArrayDeque<>(commits);
+        while (!pending.isEmpty()) {
+            Commit commit = pending.pop();
+            if (nodes.containsKey(commit.getId()) || find(commit.getId()) != NONE) {
+                continue;
+            }
+            nodes.put(commit.getId(), new Node(commit.getParents(), commit.getTime()));
+            for (String parent : commit.getParents()) {
+                if (!nodes.containsKey(parent) && find(parent) == NONE) {
+                    pending.push(Commit.decode(store.read(ObjectStore.COMMITS, parent)));
+                }
+            }
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+        // append the new commits parents first, so that their parents already have a position.
+        Map<String, Integer> positions = new HashMap<>();
+        ByteBuffer records = ByteBuffer.allocate(nodes.size() * LAYER_RECORD);
+        for (String id : nodes.keySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String top = stack.peek();
+                if (positions.containsKey(top)) {
+                    stack.pop();
+                    continue;
+                }
+                Node node = nodes.get(top);
+                boolean ready = true;
+                for (String parent : node.parents) {
+                    if (nodes.containsKey(parent) && !positions.containsKey(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (!ready) {
+                    continue;
+                }
+                stack.pop();
+                int[] parents = {NONE, NONE};
+                int max = 0;
+                for (int which = 0; which < node.parents.size() && which < 2; which += 1) {
+                    String parent = node.parents.get(which);
+                    parents[which] = nodes.containsKey(parent) ? positions.get(parent)
+                            : find(parent);
+                    max = Math.max(max, nodes.containsKey(parent)
+                            ? nodes.get(parent).generation : generation(parents[which]));
+                }
+                node.generation = max + 1;
+                positions.put(top, size() + positions.size());
+                records.put(Pack.toRaw(top)).putInt(parents[0]).putInt(parents[1])
+                        .putInt(node.generation).putLong(node.time);
+            }
+        }
+        records.flip();
+        appendLayer(records);
+        boolean full = layerCount + nodes.size() >= LAYER_LIMIT;
+        buffer = null;
+        if (full) {
+            compact();
+        }
+    }
+
+    /**
+     * Appends the given records to the layer, creating it (or replacing a layer that
+     * doesn't extend the current commit-graph file) if needed.
+     * A partial record left by an interrupted append is overwritten.
+     *
+     * @param records the records to append.
+     */
+    private void appendLayer(ByteBuffer records) {
+        try (FileChannel channel = FileChannel.open(layerFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            long position = LAYER_HEADER + (long) layerCount * LAYER_RECORD;
+            if (layer == null) {
+                ByteBuffer header = ByteBuffer.allocate(LAYER_HEADER);
+                header.putInt(LAYER_MAGIC).putInt(LAYER_VERSION).putInt(count).flip();
+                channel.write(header, 0);
+                position = LAYER_HEADER;
+            }
+            channel.truncate(position);
+            while (records.hasRemaining()) {
+                position += channel.write(records, position);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Merges the layer into the commit-graph file, if there is one.
+     */
+    void compact() {
+        load();
+        if (layerCount > 0) {
+            write(readNodes());
+        }
+    }
+
+    /**
+     * Rebuilds the whole graph from the commits of the object store.
+     */
+    void rebuild() {
+        TreeMap<String, Node> nodes = new TreeMap<>();
+        for (String id : store.ids(ObjectStore.COMMITS)) {
+            Commit commit = Commit.decode(store.read(ObjectStore.COMMITS, id));
+            nodes.put(id, new Node(commit.getParents(), commit.getTime()));
+        }
+        for (String id : nodes.keySet()) {
+            computeGeneration(nodes, id);
+        }
+        write(nodes);
+    }
+
+    /**
+     * Computes the generation number of the given node and of its ancestors that lack one,
+     * without recursion, so that long histories can't overflow the stack.
+     *
+     * @param nodes all the nodes of the graph.
+     * @param id    the id of the node.
+     */
+    private static void computeGeneration(Map<String, Node> nodes, String id) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            Node node = nodes.get(stack.peek());
+            if (node.generation > 0) {
+                stack.pop();
+                continue;
+            }
+            int max = 0;
+            boolean ready = true;
+            for (String parent : node.parents) {
+                int generation = nodes.get(parent).generation;
+                if (generation == 0) {
+                    stack.push(parent);
+                    ready = false;
+                }
+                max = Math.max(max, generation);
+            }
+            if (ready) {
+                node.generation = max + 1;
+                stack.pop();
+            }
+        }
+    }
+
+    /**
+     * Reads all the commits of the graph, those of the layer included.
+     *
+     * @return the map from commit id to node.
+     */
+    private TreeMap<String, Node> readNodes() {
+        TreeMap<String, Node> nodes = new TreeMap<>();
+        List<String> ids = new ArrayList<>();
+        int n = size();
+        for (int i = 0; i < n; i += 1) {
+            ids.add(idAt(i));
+        }
+        for (int i = 0; i < n; i += 1) {
+            List<String> parents = new ArrayList<>();
+            for (int which = 0; which < 2; which += 1) {
+                if (parent(i, which) != NONE) {
+                    parents.add(ids.get(parent(i, which)));
+                }
+            }
+            Node node = new Node(parents, time(i));
+            node.generation = generation(i);
+            nodes.put(ids.get(i), node);
+        }
+        return nodes;
+    }
+
+    /**
+     * Writes the given nodes as the new commit-graph file,
+     * writing to a temporary file and then renaming it over the old one.
+     * The layer is deleted before the rename: a crash in between loses the commits
+     * of the layer from the graph, and indexOf adds them back from the object store.
+     *
+     * @param nodes the sorted map from commit id to node.
+     */
+    private void write(TreeMap<String, Node> nodes) {
+        int n = nodes.size();
+        Map<String, Integer> positions = new HashMap<>();
+        for (String id : nodes.keySet()) {
+            positions.put(id, positions.size());
+        }
+        ByteBuffer out = ByteBuffer.allocate(IDS + n * (Pack.RAW_ID_LENGTH + ENTRY_SIZE));
+        out.putInt(MAGIC).putInt(VERSION).putInt(n);
+        int[] fanout = new int[256];
+        for (String id : nodes.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int b = 0; b < 256; b += 1) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (String id : nodes.keySet()) {
+            out.put(Pack.toRaw(id));
+        }
+        for (Node node : nodes.values()) {
+            for (int which = 0; which < 2; which += 1) {
+                out.putInt(which < node.parents.size()
+                        ? positions.get(node.parents.get(which)) : NONE);
+            }
+            out.putInt(node.generation);
+            out.putLong(node.time);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        writeContents(temp, out.array());
+        layerFile.delete();
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        buffer = null;
+    }
+
+    /**
+     * Returns the ids of the commits that start with the given abbreviated id,
+     * stopping at the second one, which is enough to tell whether the prefix is ambiguous.
+     * The fan-out table gives the range of the ids sharing the first byte of the prefix,
+     * and a binary search in that range finds the first id that is not smaller than it:
+     * the matching ids, if any, are this one and the ones that follow it.
+     *
+     * @param prefix the abbreviated id, in lowercase hexadecimal.
+     * @return the matching ids: none, one, or two if the prefix is ambiguous.
+     */
+    List<String> withPrefix(String prefix) {
+        load();
+        List<String> result = new ArrayList<>();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            return result;
+        }
+        int first = Integer.parseInt(prefix.substring(0, 1), 16) << 4;
+        int last = first + 15;
+        if (prefix.length() > 1) {
+            first = Integer.parseInt(prefix.substring(0, 2), 16);
+            last = first;
+        }
+        int low = fanoutStart(first);
+        int high = buffer.getInt(HEADER + 4 * last);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparePrefix(mid, prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low; i < count && result.size() < 2; i += 1) {
+            if (comparePrefix(i, prefix) != 0) {
+                break;
+            }
+            result.add(idAt(i));
+        }
+        for (String id : layerPositions.keySet()) {
+            if (result.size() < 2 && id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the first id starting with the given byte.
+     *
+     * @param b the first byte of the ids.
+     * @return the number of ids starting with a smaller byte.
+     */
+    private int fanoutStart(int b) {
+        return b == 0 ? 0 : buffer.getInt(HEADER + 4 * (b - 1));
+    }
+
+    /**
+     * Compares the first hexadecimal digits of the id at the given position with a prefix.
+     *
+     * @param i      the position of the id.
+     * @param prefix the hexadecimal prefix.
+     * @return a negative number, zero or a positive number, as for Comparable.
+     */
+    private int comparePrefix(int i, String prefix) {
+        int position = IDS + i * Pack.RAW_ID_LENGTH;
+        for (int k = 0; k < prefix.length(); k += 1) {
+            int b = buffer.get(position + k / 2) & 0xff;
+            int a = k % 2 == 0 ? b >>> 4 : b & 0xf;
+            int c = Character.digit(prefix.charAt(k), 16);
+            if (a != c) {
+                return a - c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Binary searches the sorted ids for the given id,
+     * within the range of its first byte given by the fan-out table.
+     *
+     * @param id the id of the commit.
+     * @return the position of the commit, or NONE if it is not in the graph.
+     */
+    private int find(String id) {
+        load();
+        if (id == null || id.length() != UID_LENGTH) {
+            return NONE;
+        }
+        byte[] target = Pack.toRaw(id);
+        int low = fanoutStart(target[0] & 0xff);
+        int high = buffer.getInt(HEADER + 4 * (target[0] & 0xff)) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(mid, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return layerPositions.getOrDefault(id, NONE);
+    }
+
+    /**
+     * Compares the id at the given position with the target raw id.
+     *
+     * @param i      the position of the id.
+     * @param target the raw id to compare with.
+     * @return a negative number, zero or a positive number, as for Comparable.
+     */
+    private int compareAt(int i, byte[] target) {
+        int position = IDS + i * Pack.RAW_ID_LENGTH;
+        for (int k = 0; k < target.length; k += 1) {
+            int a = buffer.get(position + k) & 0xff;
+            int b = target[k] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the position in the file of the entry of the commit at the given position.
+     *
+     * @param i the position of the commit.
+     * @return the offset of its entry.
+     */
+    private int entry(int i) {
+        return IDS + count * Pack.RAW_ID_LENGTH + i * ENTRY_SIZE;
+    }
+
+    /**
+     * Returns the position in the layer of the record of the commit at the given position.
+     *
+     * @param i the position of the commit, not smaller than count.
+     * @return the offset of its record.
+     */
+    private int record(int i) {
+        return LAYER_HEADER + (i - count) * LAYER_RECORD;
+    }
+
+    /**
+     * Forgets the mapped file if another process rewrote the commit-graph
+     * or appended to its layer since they were read,
+     * so that a long-running process (the daemon) sees the new commits.
+     */
+    void refresh() {
+        if (buffer != null && (file.lastModified() != mappedTime
+                || file.length() != mappedLength || layerFile.lastModified() != layerTime
+                || layerFile.length() != layerLength)) {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Maps the commit-graph file, building it first if it doesn't exist yet
+     * or if it has an older format.
+     */
+    private void load() {
+        if (buffer != null) {
+            return;
+        }
+        if (!file.isFile()) {
+            rebuild();
+        }
+        mappedTime = file.lastModified();
+        mappedLength = file.length();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (mapped.getInt(0) == MAGIC && mapped.getInt(4) < VERSION) {
+                // written by an older version of Gitlet, without the fan-out table.
+                rebuild();
+                load();
+                return;
+            }
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw error("Corrupted commit-graph: %s", file.getPath());
+            }
+            count = mapped.getInt(8);
+            buffer = mapped;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        loadLayer();
+    }
+
+    /**
+     * Reads the layer in memory, ignoring a layer that extends another commit-graph file
+     * (left by a crash, see write) and a partial record at its end.
+     */
+    private void loadLayer() {
+        layer = null;
+        layerCount = 0;
+        layerPositions.clear();
+        layerTime = layerFile.lastModified();
+        layerLength = layerFile.length();
+        if (!layerFile.isFile()) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(readContents(layerFile));
+        if (bytes.limit() < LAYER_HEADER || bytes.getInt(0) != LAYER_MAGIC
+                || bytes.getInt(4) != LAYER_VERSION || bytes.getInt(8) != count) {
+            return;
+        }
+        layer = bytes;
+        layerCount = (bytes.limit() - LAYER_HEADER) / LAYER_RECORD;
+        for (int k = 0; k < layerCount; k += 1) {
+            layerPositions.put(idAt(count + k), count + k);
+        }
+    }
+
+    /**
+     * A commit of the graph while it is being rewritten.
+     */
+    private static class Node {
+        /** The ids of the parents. */
+        private final List<String> parents;
+        /** The timestamp of the commit. */
+        private final long time;
+        /** The generation number, or 0 if it is not computed yet. */
+        private int generation;
+
+        Node(List<String> parents, long time) {
+            this.parents = parents;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many Gitlet processes committing in parallel to one repository,
+ * and checks that no commit is lost and that no lock file or journal is left behind.
+ *
+ * @author R7CKB
+ */
+public class ConcurrencyStressTest {
+
+    /**
+     * The number of processes committing in parallel.
+     */
+    private static final int COMMITTERS = 8;
+
+    /**
+     * The number of commits made by each process.
+     */
+    private static final int ROUNDS = 5;
+
+    @Test
+    /**
+     * Test parallel add and commit commands on the same branch.
+     */
+    public void testParallelCommits() throws Exception {
+        File dir = Files.createTempDirectory("gitlet-stress").toFile();
+        assertEquals("", gitlet(dir, "init"));
+        AtomicInteger commits = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(COMMITTERS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < COMMITTERS; i += 1) {
+            int committer = i;
+            futures.add(pool.submit(() -> {
+                for (int round = 0; round < ROUNDS; round += 1) {
+                    String name = "c" + committer + "-" + round + ".txt";
+                    Files.writeString(new File(dir, name).toPath(), name);
+                    assertEquals("", gitlet(dir, "add", name));
+                    String output = gitlet(dir, "commit", "add " + name);
+                    // another process may have committed our file with its own.
+                    if (output.isEmpty()) {
+                        commits.incrementAndGet();
+                    } else {
+                        assertEquals("No changes added to the commit.", output.trim());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        String log = gitlet(dir, "log");
+        int entries = 0;
+        for (String line : log.split("\n")) {
+            if (line.startsWith("commit ")) {
+                entries += 1;
+            }
+        }
+        assertEquals("every commit is in the history", commits.get() + 1, entries);
+        String status = gitlet(dir, "status");
+        String staged = status.substring(status.indexOf("=== Staged Files ==="),
+                status.indexOf("=== Removed Files ==="));
+        assertEquals("=== Staged Files ===\n\n", staged);
+        String untracked = status.substring(status.indexOf("=== Untracked Files ==="));
+        assertEquals("=== Untracked Files ===\n", untracked.trim() + "\n");
+        assertLeftovers(new File(dir, ".gitlet"));
+    }
+
+    /**
+     * Asserts that no lock file or journal is left in the given directory.
+     *
+     * @param dir a directory of the repository.
+     */
+    private static void assertLeftovers(File dir) {
+        assertFalse("journal left", new File(dir, "journal").exists());
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                assertLeftovers(file);
+            } else {
+                assertFalse("lock file left: " + file,
+                        file.getName().endsWith(Journal.LOCK_SUFFIX));
+                assertFalse("temporary file left: " + file,
+                        file.getName().startsWith("tmp_obj_"));
+            }
+        }
+    }
+
+    /**
+     * Runs a Gitlet command in a new process.
+     *
+     * @param dir  the working directory.
+     * @param args the arguments of the command.
+     * @return the output of the command.
+     */
+    private static String gitlet(File dir, String... args) throws IOException,
+            InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+}
@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Utils.*;
+
+/**
+ * Serves the commands of a repository from a long-running process,
+ * so that scripts issuing many commands don't pay the start of a JVM for each of them,
+ * and the object caches and the index stay in memory between the commands.
+ * The daemon is started with "java gitlet.Main daemon" in the working directory,
+ * and listens on the Unix domain socket .gitlet/daemon.sock.
+ * The commands are sent by gitlet.Client and run one at a time.
+ * A request is the working directory of the client followed by the arguments of the command.
+ * The response is a sequence of frames: the standard output and error of the command,
+ * as (kind, length, bytes), and finally the exit status of the command.
+ * "daemon stop" stops the daemon.
+ *
+ * @author R7CKB
+ */
+class Daemon {
+
+    /**
+     * The socket of the daemon.
+     */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /**
+     * The kinds of frames of a response.
+     */
+    static final int OUT = 'O';
+    static final int ERR = 'E';
+    static final int EXIT = 'X';
+
+    /**
+     * The size of the buffers of the connections.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private Daemon() {
+    }
+
+    /**
+     * Listens on the socket and runs the commands of the clients until "daemon stop".
+     */
+    static void serve() {
+        if (SOCKET.exists()) {
+            SocketChannel running = Client.connect(SOCKET);
+            if (running != null) {
+                try {
+                    running.close();
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+                throw error("A daemon is already running.");
+            }
+            // a daemon that was killed left its socket behind.
+            SOCKET.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            message("Daemon listening on %s.", SOCKET.getPath());
+            boolean running = true;
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    running = handle(channel);
+                } catch (IOException excp) {
+                    // the client went away, serve the next one.
+                    running = true;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Runs the command of one client,
+     * sending its output and its exit status back through the connection.
+     *
+     * @param channel the connection with the client.
+     * @return false if the daemon was asked to stop, true otherwise.
+     */
+    private static boolean handle(SocketChannel channel) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel), BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel), BUFFER_SIZE));
+        File dir = new File(Codec.readString(in));
+        String[] args = new String[Codec.readNumber(in)];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = Codec.readString(in);
+        }
+        boolean stop = args.length == 2 && args[0].equals("daemon") && args[1].equals("stop");
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        PrintStream commandOut = new PrintStream(new FrameStream(out, OUT));
+        PrintStream commandErr = new PrintStream(new FrameStream(out, ERR));
+        int status = 0;
+        System.setOut(commandOut);
+        System.setErr(commandErr);
+        try {
+            if (!dir.getCanonicalFile().equals(Repository.CWD.getCanonicalFile())) {
+                throw error("The daemon serves another directory: %s", Repository.CWD);
+            }
+            if (stop) {
+                message("Daemon stopped.");
+            } else if (args.length > 0 && args[0].equals("daemon")) {
+                throw error("A daemon is already running.");
+            } else {
+                // other processes may have repacked or written commits since the last command.
+                // A gc rewrites the packs of the objects it keeps, so a changed pack may mean
+                // that cached objects were pruned: the caches are emptied, not to serve them.
+                if (ObjectStore.LOCAL.refresh()) {
+                    ObjectCache.clearAll();
+                }
+                CommitGraph.LOCAL.refresh();
+                Main.run(args);
+            }
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            commandOut.flush();
+            commandErr.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        out.writeByte(EXIT);
+        Codec.writeNumber(out, status);
+        out.flush();
+        return !stop;
+    }
+
+    /**
+     * A stream writing the bytes of the standard output or error of a command as frames.
+     */
+    private static class FrameStream extends OutputStream {
+        /** The connection with the client. */
+        private final DataOutputStream out;
+        /** The kind of the frames (OUT or ERR). */
+        private final int kind;
+
+        FrameStream(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // the output and error streams share the connection.
+            synchronized (out) {
+                out.writeByte(kind);
+                Codec.writeNumber(out, len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
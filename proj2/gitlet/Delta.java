@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An rsync-style binary delta between two versions of a file.
+ * The base is cut into fixed-size blocks which are indexed by a rolling hash,
+ * then the target is scanned with the same rolling hash to find the blocks it shares with the base.
+ * A delta is a sequence of two instructions:
+ * - COPY offset length: copy length bytes from the base, starting at offset.
+ * - INSERT length bytes: insert the following length literal bytes.
+ * Numbers are written as variable-length integers (7 bits per byte).
+ *
+ * @author R7CKB
+ */
+class Delta {
+
+    /**
+     * The size of the blocks of the base that can be matched.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * The multiplier of the polynomial rolling hash.
+     */
+    private static final int PRIME = 31;
+
+    /**
+     * The instruction codes.
+     */
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private Delta() {
+    }
+
+    /**
+     * Computes the delta that turns base into target.
+     *
+     * @param base   the base version.
+     * @param target the target version.
+     * @return the encoded delta.
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeNumber(out, target.length);
+        // index the blocks of the base by their hash (the first block wins on collisions).
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        int literalStart = 0;
+        int position = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (position + BLOCK <= target.length) {
+            Integer candidate = blocks.get(h);
+            if (candidate != null && same(base, candidate, target, position, BLOCK)) {
+                int baseStart = candidate;
+                int targetStart = position;
+                // extend the match backwards into the pending literal, then forwards.
+                while (targetStart > literalStart && baseStart > 0
+                        && base[baseStart - 1] == target[targetStart - 1]) {
+                    baseStart -= 1;
+                    targetStart -= 1;
+                }
+                int end = position + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                writeInsert(out, target, literalStart, targetStart);
+                out.write(COPY);
+                writeNumber(out, baseStart);
+                writeNumber(out, end - targetStart);
+                literalStart = end;
+                position = end;
+                if (position + BLOCK <= target.length) {
+                    h = hash(target, position);
+                }
+                continue;
+            }
+            if (position + BLOCK < target.length) {
+                h = (h - target[position] * power) * PRIME + target[position + BLOCK];
+            }
+            position += 1;
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies the given delta to the base.
+     *
+     * @param base  the base version.
+     * @param delta the encoded delta.
+     * @return the target version.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] position = {0};
+        byte[] result = new byte[readNumber(delta, position)];
+        int length = 0;
+        while (position[0] < delta.length) {
+            int op = delta[position[0]];
+            position[0] += 1;
+            if (op == COPY) {
+                int offset = readNumber(delta, position);
+                int size = readNumber(delta, position);
+                System.arraycopy(base, offset, result, length, size);
+                length += size;
+            } else if (op == INSERT) {
+                int size = readNumber(delta, position);
+                System.arraycopy(delta, position[0], result, length, size);
+                position[0] += size;
+                length += size;
+            } else {
+                throw Utils.error("Corrupted delta.");
+            }
+        }
+        if (length != result.length) {
+            throw Utils.error("Corrupted delta.");
+        }
+        return result;
+    }
+
+    /**
+     * Writes an INSERT instruction for target[from..to), if it is not empty.
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeNumber(out, to - from);
+            out.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * Returns the hash of the block of data starting at the given position.
+     */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * PRIME + data[i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns true if a[aStart..aStart+length) equals b[bStart..bStart+length).
+     */
+    private static boolean same(byte[] a, int aStart, byte[] b, int bStart, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a non-negative number as a variable-length integer.
+     */
+    private static void writeNumber(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads a variable-length integer and advances the position.
+     */
+    private static int readNumber(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data[position[0]] & 0xff;
+            position[0] += 1;
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
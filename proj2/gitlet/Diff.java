@@ -0,0 +1,499 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the differences between two sequences of lines, for the diff command
+ * and for the line-level merge of files (see LineMerge).
+ * The algorithm is the one of Myers ("An O(ND) Difference Algorithm and Its Variations"):
+ * the common prefix and suffix are skipped, then the middle snake of a shortest edit script
+ * is found by searching forward from the start and backward from the end at the same time,
+ * and the two halves around it are compared recursively.
+ * It runs in O((N + M) D) time and O(N + M) space, D being the number of different lines.
+ * The lines are read from streams one at a time (see Lines) and interned as ints,
+ * so comparing two lines is comparing two ints.
+ *
+ * @author R7CKB
+ */
+class Diff {
+
+    /**
+     * The number of unchanged lines printed around the changes by the diff command.
+     */
+    static final int CONTEXT = 3;
+
+    /**
+     * The ids of the lines of the old sequence.
+     */
+    private final int[] a;
+
+    /**
+     * The ids of the lines of the new sequence.
+     */
+    private final int[] b;
+
+    /**
+     * Whether each line of the old sequence is deleted.
+     */
+    private final boolean[] deleted;
+
+    /**
+     * Whether each line of the new sequence is inserted.
+     */
+    private final boolean[] inserted;
+
+    /**
+     * The furthest x reached on each diagonal by the forward and the backward searches,
+     * shared by all the recursive comparisons.
+     */
+    private final int[] forward;
+    private final int[] backward;
+
+    /**
+     * Creates the comparison of two sequences of line ids.
+     *
+     * @param a the ids of the lines of the old sequence.
+     * @param b the ids of the lines of the new sequence.
+     */
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.deleted = new boolean[a.length];
+        this.inserted = new boolean[b.length];
+        this.forward = new int[2 * (a.length + b.length) + 3];
+        this.backward = new int[2 * (a.length + b.length) + 3];
+    }
+
+    /**
+     * Returns the differences between two sequences of lines.
+     *
+     * @param a the old lines.
+     * @param b the new lines, interned with the same interner as the old lines.
+     * @return the hunks of changed lines, in order.
+     */
+    static List<Hunk> diff(Lines a, Lines b) {
+        return diff(a.ids, b.ids);
+    }
+
+    /**
+     * Returns the differences between two sequences of line ids.
+     *
+     * @param a the ids of the old lines.
+     * @param b the ids of the new lines.
+     * @return the hunks of changed lines, in order.
+     */
+    static List<Hunk> diff(int[] a, int[] b) {
+        Diff diff = new Diff(a, b);
+        diff.compare(0, a.length, 0, b.length);
+        return diff.hunks();
+    }
+
+    /**
+     * Marks the deleted and inserted lines of a[aLo, aHi) and b[bLo, bHi).
+     *
+     * @param aLo the start of the range of the old lines.
+     * @param aHi the end of the range of the old lines.
+     * @param bLo the start of the range of the new lines.
+     * @param bHi the end of the range of the new lines.
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            for (int j = bLo; j < bHi; j += 1) {
+                inserted[j] = true;
+            }
+        } else if (bLo == bHi) {
+            for (int i = aLo; i < aHi; i += 1) {
+                deleted[i] = true;
+            }
+        } else {
+            int[] split = middleSnake(aLo, aHi, bLo, bHi);
+            compare(aLo, split[0], bLo, split[1]);
+            compare(split[0], aHi, split[1], bHi);
+        }
+    }
+
+    /**
+     * Finds a point of a shortest edit script of a[aLo, aHi) and b[bLo, bHi)
+     * that splits it in two smaller problems.
+     * The ranges are not empty, and their first and last lines differ.
+     *
+     * @param aLo the start of the range of the old lines.
+     * @param aHi the end of the range of the old lines.
+     * @param bLo the start of the range of the new lines.
+     * @param bHi the end of the range of the new lines.
+     * @return the point {i, j}, with aLo <= i <= aHi and bLo <= j <= bHi.
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        // the diagonal k holds the points (x, y) with x - y = k, at index offset + k.
+        int offset = n + m + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                // the backward diagonal delta - k is the same diagonal, searched from the end.
+                if (odd && delta - k >= -(d - 1) && delta - k <= d - 1
+                        && x + backward[offset + delta - k] >= n) {
+                    return new int[]{aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                        && x + forward[offset + delta - k] >= n) {
+                    return new int[]{aHi - x, bHi - y};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /**
+     * Groups the marked lines into hunks.
+     *
+     * @return the hunks of changed lines, in order.
+     */
+    private List<Hunk> hunks() {
+        List<Hunk> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && j < b.length && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int aStart = i;
+            int bStart = j;
+            while (i < a.length && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.length && inserted[j]) {
+                j += 1;
+            }
+            result.add(new Hunk(aStart, i, bStart, j));
+        }
+        return result;
+    }
+
+    /**
+     * Prints the differences between two versions of a file in the unified format,
+     * with CONTEXT unchanged lines around the changes.
+     *
+     * @param path the path of the file.
+     * @param a    the lines of the old version, or null if the file is created.
+     * @param b    the lines of the new version, or null if the file is deleted.
+     * @param out  the stream to print to.
+     */
+    static void printUnified(String path, Lines a, Lines b, PrintStream out) {
+        out.print("diff --gitlet a/" + path + " b/" + path + "\n");
+        if ((a != null && a.isBinary()) || (b != null && b.isBinary())) {
+            out.print("Binary files " + (a == null ? "/dev/null" : "a/" + path) + " and "
+                    + (b == null ? "/dev/null" : "b/" + path) + " differ\n");
+            return;
+        }
+        out.print("--- " + (a == null ? "/dev/null" : "a/" + path) + "\n");
+        out.print("+++ " + (b == null ? "/dev/null" : "b/" + path) + "\n");
+        a = a == null ? Lines.EMPTY : a;
+        b = b == null ? Lines.EMPTY : b;
+        List<Hunk> hunks = diff(a, b);
+        int first = 0;
+        while (first < hunks.size()) {
+            // the hunks closer than twice the context are printed together.
+            int last = first;
+            while (last + 1 < hunks.size()
+                    && hunks.get(last + 1).aStart - hunks.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            int aLo = Math.max(0, hunks.get(first).aStart - CONTEXT);
+            int aHi = Math.min(a.size(), hunks.get(last).aEnd + CONTEXT);
+            int bLo = hunks.get(first).bStart - (hunks.get(first).aStart - aLo);
+            int bHi = hunks.get(last).bEnd + (aHi - hunks.get(last).aEnd);
+            out.print("@@ -" + range(aLo, aHi - aLo) + " +" + range(bLo, bHi - bLo) + " @@\n");
+            int i = aLo;
+            for (int h = first; h <= last; h += 1) {
+                Hunk hunk = hunks.get(h);
+                printLines(out, ' ', a, i, hunk.aStart);
+                printLines(out, '-', a, hunk.aStart, hunk.aEnd);
+                printLines(out, '+', b, hunk.bStart, hunk.bEnd);
+                i = hunk.aEnd;
+            }
+            printLines(out, ' ', a, i, aHi);
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Returns a range of lines as printed in the header of a hunk.
+     *
+     * @param start  the index of the first line.
+     * @param length the number of lines.
+     * @return the line number of the first line (or of the line before an empty range),
+     * followed by the number of lines unless it is 1.
+     */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /**
+     * Prints lines with the given prefix.
+     *
+     * @param out    the stream to print to.
+     * @param prefix the prefix of the lines.
+     * @param lines  the lines.
+     * @param from   the index of the first line to print.
+     * @param to     the index after the last line to print.
+     */
+    private static void printLines(PrintStream out, char prefix, Lines lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.print(prefix);
+            String line = lines.get(i);
+            byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes, 0, bytes.length);
+            if (!line.endsWith("\n")) {
+                out.print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /**
+     * A range of old lines replaced by a range of new lines.
+     * One of the ranges may be empty (an insertion or a deletion).
+     */
+    static class Hunk {
+        /** The start and the end of the range of old lines. */
+        final int aStart;
+        final int aEnd;
+        /** The start and the end of the range of new lines. */
+        final int bStart;
+        final int bEnd;
+
+        Hunk(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /**
+     * The lines of a file, read from a stream one at a time.
+     * A line is kept with its "\n" (the last line may not have one), as a string of bytes
+     * (ISO-8859-1), so any content is written back unchanged.
+     * Only the ids of the lines are kept: the text of each distinct line is kept once,
+     * by the interner shared by the files that are compared.
+     */
+    static class Lines {
+        /** The lines of an empty file. */
+        static final Lines EMPTY = new Lines(new Interner(), new int[0], false);
+
+        /** The distinct lines. */
+        private final Interner interner;
+        /** The ids of the lines. */
+        private final int[] ids;
+        /** Whether the file contains a NUL byte, i.e. isn't a text file. */
+        private final boolean binary;
+
+        private Lines(Interner interner, int[] ids, boolean binary) {
+            this.interner = interner;
+            this.ids = ids;
+            this.binary = binary;
+        }
+
+        /**
+         * Reads the lines of a stream, which is closed.
+         *
+         * @param input    the stream.
+         * @param interner the distinct lines.
+         * @return the lines.
+         */
+        static Lines read(InputStream input, Interner interner) {
+            int[] ids = new int[64];
+            int size = 0;
+            boolean binary = false;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            try (InputStream in = new BufferedInputStream(input)) {
+                int c = in.read();
+                while (c >= 0) {
+                    line.write(c);
+                    binary |= c == 0;
+                    int next = in.read();
+                    if (c == '\n' || next < 0) {
+                        if (size == ids.length) {
+                            ids = Arrays.copyOf(ids, size * 2);
+                        }
+                        ids[size] = interner.intern(line.toString(StandardCharsets.ISO_8859_1));
+                        size += 1;
+                        line.reset();
+                    }
+                    c = next;
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return new Lines(interner, Arrays.copyOf(ids, size), binary);
+        }
+
+        /**
+         * Reads the lines of the blob with the given id.
+         *
+         * @param id       the id of the blob, or null.
+         * @param interner the distinct lines.
+         * @return the lines, or null if the id is null.
+         */
+        static Lines ofBlob(String id, Interner interner) {
+            return id == null ? null : read(Blob.fromFile(id).openContent(), interner);
+        }
+
+        /**
+         * Reads the lines of the given file.
+         *
+         * @param file     the file.
+         * @param interner the distinct lines.
+         * @return the lines, or null if the file doesn't exist.
+         */
+        static Lines ofFile(File file, Interner interner) {
+            if (!file.isFile()) {
+                return null;
+            }
+            try {
+                return read(new FileInputStream(file), interner);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+
+        /**
+         * Returns the number of lines.
+         *
+         * @return the number of lines.
+         */
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Returns a line.
+         *
+         * @param i the index of the line.
+         * @return the line, with its "\n" if it has one.
+         */
+        String get(int i) {
+            return interner.line(ids[i]);
+        }
+
+        /**
+         * Returns the id of a line.
+         *
+         * @param i the index of the line.
+         * @return the id of the line.
+         */
+        int id(int i) {
+            return ids[i];
+        }
+
+        /**
+         * Returns true if the file isn't a text file.
+         *
+         * @return true if the file contains a NUL byte.
+         */
+        boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * Writes lines to the given stream.
+         *
+         * @param out     the stream.
+         * @param from    the index of the first line.
+         * @param to      the index after the last line.
+         * @param newline whether to end the last line with "\n" if it doesn't have one.
+         */
+        void write(OutputStream out, int from, int to, boolean newline) throws IOException {
+            for (int i = from; i < to; i += 1) {
+                String line = get(i);
+                out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+                if (newline && i == to - 1 && !line.endsWith("\n")) {
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * The distinct lines of the files that are compared, each with an id.
+     */
+    static class Interner {
+        /** The ids of the lines. */
+        private final Map<String, Integer> ids = new HashMap<>();
+        /** The lines, by id. */
+        private final List<String> lines = new ArrayList<>();
+
+        /**
+         * Returns the id of the given line, giving it a new id if it is new.
+         *
+         * @param line the line.
+         * @return the id of the line.
+         */
+        int intern(String line) {
+            Integer id = ids.putIfAbsent(line, lines.size());
+            if (id == null) {
+                lines.add(line);
+                return lines.size() - 1;
+            }
+            return id;
+        }
+
+        /**
+         * Returns the line with the given id.
+         *
+         * @param id the id of the line.
+         * @return the line.
+         */
+        String line(int id) {
+            return lines.get(id);
+        }
+    }
+}
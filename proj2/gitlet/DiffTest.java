@@ -0,0 +1,288 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the line diff: that the edit scripts found through the middle snakes are valid
+ * and as short as possible, and the unified format printed by the diff command.
+ *
+ * @author R7CKB
+ */
+public class DiffTest {
+
+    @Test
+    /**
+     * Test that the hunks of random sequences turn the old lines into the new ones,
+     * with as few deleted and inserted lines as a longest common subsequence gives.
+     * The small alphabet makes many equal lines, so the snakes are short and many.
+     */
+    public void testRandomSequences() {
+        Random random = new Random(18);
+        for (int round = 0; round < 3000; round += 1) {
+            int[] a = randomLines(random, random.nextInt(30), 1 + random.nextInt(4));
+            int[] b = random.nextBoolean() ? edit(random, a)
+                    : randomLines(random, random.nextInt(30), 1 + random.nextInt(4));
+            assertMinimalDiff(a, b);
+        }
+    }
+
+    @Test
+    /**
+     * Test the diffs of empty, equal and completely different sequences.
+     */
+    public void testEdgeCases() {
+        assertEquals(0, Diff.diff(new int[0], new int[0]).size());
+        assertEquals(0, Diff.diff(new int[]{1, 2, 3}, new int[]{1, 2, 3}).size());
+        assertHunks(Diff.diff(new int[0], new int[]{1, 2}), new int[]{0, 0, 0, 2});
+        assertHunks(Diff.diff(new int[]{1, 2}, new int[0]), new int[]{0, 2, 0, 0});
+        assertHunks(Diff.diff(new int[]{1, 2}, new int[]{3, 4, 5}), new int[]{0, 2, 0, 3});
+        // an insertion and a deletion apart are two hunks.
+        assertHunks(Diff.diff(new int[]{1, 2, 3, 4}, new int[]{1, 9, 2, 3}),
+                new int[]{1, 1, 1, 2}, new int[]{3, 4, 4, 4});
+    }
+
+    @Test
+    /**
+     * Test a change printed with its context.
+     */
+    public void testUnifiedContext() {
+        assertEquals("diff --gitlet a/f.txt b/f.txt\n"
+                        + "--- a/f.txt\n"
+                        + "+++ b/f.txt\n"
+                        + "@@ -2,7 +2,7 @@\n"
+                        + " 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n",
+                unified("f.txt", "1\n2\n3\n4\n5\n6\n7\n8\n9\n",
+                        "1\n2\n3\n4\nfive\n6\n7\n8\n9\n"));
+    }
+
+    @Test
+    /**
+     * Test that the changes closer than twice the context share a hunk,
+     * and that the ones further apart don't.
+     */
+    public void testUnifiedHunks() {
+        String base = "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n11\n12\n13\n14\n15\n16\n";
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ b/f\n"
+                        + "@@ -1,11 +1,11 @@\n-1\n+one\n 2\n 3\n 4\n 5\n 6\n 7\n"
+                        + "-8\n+eight\n 9\n 10\n 11\n",
+                unified(base, base.replace("1\n2\n", "one\n2\n")
+                        .replace("\n8\n", "\neight\n")));
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ b/f\n"
+                        + "@@ -1,4 +1,4 @@\n-1\n+one\n 2\n 3\n 4\n"
+                        + "@@ -13,4 +13,4 @@\n 13\n 14\n 15\n-16\n+sixteen\n",
+                unified(base, base.replace("1\n2\n", "one\n2\n")
+                        .replace("16\n", "sixteen\n")));
+    }
+
+    @Test
+    /**
+     * Test the headers of the hunks of a created and of a deleted file,
+     * whose empty range is numbered by the line before it.
+     */
+    public void testUnifiedEmptyRanges() {
+        assertEquals("diff --gitlet a/f b/f\n--- /dev/null\n+++ b/f\n"
+                + "@@ -0,0 +1,2 @@\n+a\n+b\n", unified(null, "a\nb\n"));
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ /dev/null\n"
+                + "@@ -1 +0,0 @@\n-a\n", unified("a\n", null));
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ b/f\n"
+                + "@@ -1,2 +1,3 @@\n a\n+x\n b\n", unified("a\nb\n", "a\nx\nb\n"));
+    }
+
+    @Test
+    /**
+     * Test the lines without a newline at the end of a file.
+     */
+    public void testUnifiedNoNewline() {
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ b/f\n"
+                        + "@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n"
+                        + "+c\n\\ No newline at end of file\n",
+                unified("a\nb", "a\nc"));
+        assertEquals("diff --gitlet a/f b/f\n--- a/f\n+++ b/f\n"
+                        + "@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+b\n",
+                unified("a\nb", "a\nb\n"));
+    }
+
+    @Test
+    /**
+     * Test that files with a NUL byte are only reported as different.
+     */
+    public void testUnifiedBinary() {
+        assertEquals("diff --gitlet a/f b/f\nBinary files a/f and b/f differ\n",
+                unified("a\0b\n", "a\0c\n"));
+        assertEquals("diff --gitlet a/f b/f\nBinary files /dev/null and b/f differ\n",
+                unified(null, "\0"));
+    }
+
+    /**
+     * Asserts that the hunks of two sequences are valid and minimal.
+     *
+     * @param a the old lines.
+     * @param b the new lines.
+     */
+    private static void assertMinimalDiff(int[] a, int[] b) {
+        List<Diff.Hunk> hunks = Diff.diff(a, b);
+        int[] rebuilt = new int[b.length];
+        int size = 0;
+        int i = 0;
+        int changed = 0;
+        Diff.Hunk previous = null;
+        for (Diff.Hunk hunk : hunks) {
+            assertTrue(hunk.aStart < hunk.aEnd || hunk.bStart < hunk.bEnd);
+            if (previous != null) {
+                // the hunks are separated by at least one unchanged line.
+                assertTrue(hunk.aStart > previous.aEnd && hunk.bStart > previous.bEnd);
+            }
+            assertEquals(hunk.aStart - i, hunk.bStart - size);
+            while (i < hunk.aStart) {
+                rebuilt[size] = a[i];
+                size += 1;
+                i += 1;
+            }
+            for (int j = hunk.bStart; j < hunk.bEnd; j += 1) {
+                rebuilt[size] = b[j];
+                size += 1;
+            }
+            changed += (hunk.aEnd - hunk.aStart) + (hunk.bEnd - hunk.bStart);
+            i = hunk.aEnd;
+            previous = hunk;
+        }
+        assertEquals(a.length - i, b.length - size);
+        while (i < a.length) {
+            rebuilt[size] = a[i];
+            size += 1;
+            i += 1;
+        }
+        assertArrayEquals(b, rebuilt);
+        assertEquals(a.length + b.length - 2 * lcs(a, b), changed);
+    }
+
+    /**
+     * Asserts that the given hunks are the expected ones.
+     *
+     * @param hunks    the hunks.
+     * @param expected the expected hunks, as {aStart, aEnd, bStart, bEnd}.
+     */
+    private static void assertHunks(List<Diff.Hunk> hunks, int[]... expected) {
+        assertEquals(expected.length, hunks.size());
+        for (int k = 0; k < expected.length; k += 1) {
+            Diff.Hunk hunk = hunks.get(k);
+            assertArrayEquals(expected[k],
+                    new int[]{hunk.aStart, hunk.aEnd, hunk.bStart, hunk.bEnd});
+        }
+    }
+
+    /**
+     * Returns the length of a longest common subsequence, by dynamic programming.
+     *
+     * @param a the first sequence.
+     * @param b the second sequence.
+     * @return the length of the longest common subsequence.
+     */
+    private static int lcs(int[] a, int[] b) {
+        int[][] table = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; i -= 1) {
+            for (int j = b.length - 1; j >= 0; j -= 1) {
+                table[i][j] = a[i] == b[j] ? table[i + 1][j + 1] + 1
+                        : Math.max(table[i + 1][j], table[i][j + 1]);
+            }
+        }
+        return table[0][0];
+    }
+
+    /**
+     * Returns random lines.
+     *
+     * @param random   the random generator.
+     * @param length   the number of lines.
+     * @param distinct the number of distinct lines.
+     * @return the ids of the lines.
+     */
+    private static int[] randomLines(Random random, int length, int distinct) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = random.nextInt(distinct);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given lines with a few random lines deleted, inserted and changed.
+     *
+     * @param random the random generator.
+     * @param a      the lines.
+     * @return the edited lines.
+     */
+    private static int[] edit(Random random, int[] a) {
+        int[] result = new int[a.length * 2 + 8];
+        int size = 0;
+        for (int line : a) {
+            int action = random.nextInt(8);
+            if (action == 0) {
+                continue;
+            } else if (action == 1) {
+                result[size] = 100 + random.nextInt(3);
+                size += 1;
+            }
+            result[size] = action == 2 ? 200 : line;
+            size += 1;
+        }
+        if (random.nextBoolean()) {
+            result[size] = 300;
+            size += 1;
+        }
+        int[] edited = new int[size];
+        System.arraycopy(result, 0, edited, 0, size);
+        return edited;
+    }
+
+    /**
+     * Prints the unified diff of two versions of the file "f".
+     *
+     * @param a the old version, or null if the file is created.
+     * @param b the new version, or null if the file is deleted.
+     * @return the printed diff.
+     */
+    private static String unified(String a, String b) {
+        return unified("f", a, b);
+    }
+
+    /**
+     * Prints the unified diff of two versions of a file.
+     *
+     * @param path the path of the file.
+     * @param a    the old version, or null if the file is created.
+     * @param b    the new version, or null if the file is deleted.
+     * @return the printed diff.
+     */
+    private static String unified(String path, String a, String b) {
+        Diff.Interner interner = new Diff.Interner();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.ISO_8859_1);
+        Diff.printUnified(path, lines(a, interner), lines(b, interner), out);
+        return bytes.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads the lines of a string.
+     *
+     * @param text     the text, or null.
+     * @param interner the distinct lines.
+     * @return the lines, or null if the text is null.
+     */
+    private static Diff.Lines lines(String text, Diff.Interner interner) {
+        if (text == null) {
+            return null;
+        }
+        return Diff.Lines.read(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.ISO_8859_1)), interner);
+    }
+}
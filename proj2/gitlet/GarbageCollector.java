@@ -0,0 +1,282 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static gitlet.Utils.*;
+
+/**
+ * Finds the objects that are still reachable, for the gc command.
+ * The roots are the commits of all the branches (fetched branches included)
+ * and the staged blobs of the index. From them, the commits, their trees, their blobs
+ * and the delta bases of the blobs are marked in parallel by the workers of a ForkJoinPool:
+ * marking an object schedules a task that reads it and marks what it references.
+ * An object reachable from several commits is marked once, so each object is read only once.
+ * The marks are bitmaps over the sorted ids of each type (one bit per object),
+ * so the memory used beyond the list of ids doesn't grow with the length of the history.
+ * The unmarked objects are then deleted by ObjectStore.prune.
+ *
+ * @author R7CKB
+ */
+class GarbageCollector {
+
+    /**
+     * The default grace period: unreachable objects younger than this are kept.
+     */
+    static final long DEFAULT_GRACE = TimeUnit.DAYS.toMillis(14);
+
+    /**
+     * The object store to collect.
+     */
+    private final ObjectStore store;
+
+    /**
+     * The marks of each type of object (same order as ObjectStore.TYPES).
+     */
+    private final Marks[] marks;
+
+    /**
+     * The workers reading the marked objects.
+     */
+    private final ForkJoinPool pool = new ForkJoinPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The trees that are only in memory, computed from the commits of the first version
+     * of Gitlet that weren't migrated (see Tree.compute), once their blobs are being marked.
+     */
+    private final Set<String> computedTrees = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The first failure of a worker, which aborts the collection.
+     */
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    /**
+     * The number of bytes taken by the objects that were deleted.
+     */
+    private long reclaimed;
+
+    /**
+     * Creates a garbage collector over the given object store.
+     *
+     * @param store the object store.
+     */
+    GarbageCollector(ObjectStore store) {
+        this.store = store;
+        this.marks = new Marks[ObjectStore.TYPES.length];
+        for (int i = 0; i < marks.length; i += 1) {
+            marks[i] = new Marks(store.ids(ObjectStore.TYPES[i]));
+        }
+    }
+
+    /**
+     * Marks everything reachable from the given roots, then deletes the unreachable objects
+     * that are older than the grace period.
+     * Nothing is deleted if an object can't be read, e.g. if a reachable object is missing.
+     *
+     * @param commits the ids of the root commits.
+     * @param blobs   the ids of the root blobs.
+     * @param grace   the grace period, in milliseconds.
+     * @return the number of objects that were deleted.
+     */
+    int collect(List<String> commits, List<String> blobs, long grace) {
+        long cutoff = System.currentTimeMillis() - grace;
+        try {
+            for (String id : commits) {
+                submit(() -> markCommit(id));
+            }
+            for (String id : blobs) {
+                submit(() -> markBlob(id));
+            }
+            pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            pool.shutdown();
+        }
+        if (failure.get() != null) {
+            throw error("Cannot collect garbage: %s", failure.get().getMessage());
+        }
+        int before = 0;
+        for (Marks mark : marks) {
+            before += mark.ids.size();
+        }
+        reclaimed = store.prune((type, id) -> marks(type).isMarked(id), cutoff);
+        int after = 0;
+        for (String type : ObjectStore.TYPES) {
+            after += store.ids(type).size();
+        }
+        return before - after;
+    }
+
+    /**
+     * Returns the number of bytes taken by the objects that collect deleted.
+     *
+     * @return the reclaimed bytes.
+     */
+    long reclaimed() {
+        return reclaimed;
+    }
+
+    /**
+     * Marks the commit with the given id, and schedules the marking of its tree and parents.
+     *
+     * @param id the id of the commit.
+     */
+    private void markCommit(String id) {
+        if (marks(ObjectStore.COMMITS).mark(id)) {
+            submit(() -> {
+                Commit commit = Commit.decode(store.read(ObjectStore.COMMITS, id));
+                markTree(commit.getTree());
+                for (String parent : commit.getParents()) {
+                    markCommit(parent);
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks the tree with the given id, and schedules the marking of its blobs and subtrees.
+     * The trees are not put in the tree cache, which they would only flush.
+     *
+     * @param id the id of the tree.
+     */
+    private void markTree(String id) {
+        Marks trees = marks(ObjectStore.TREES);
+        boolean stored = !Tree.isComputed(id) || trees.contains(id);
+        if (stored ? trees.mark(id) : computedTrees.add(id)) {
+            submit(() -> {
+                Tree tree = Tree.load(store, id);
+                for (String blobId : tree.blobIds()) {
+                    markBlob(blobId);
+                }
+                for (String subtreeId : tree.treeIds()) {
+                    markTree(subtreeId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Marks the blob with the given id, and schedules the marking of its delta base.
+     *
+     * @param id the id of the blob.
+     */
+    private void markBlob(String id) {
+        if (marks(ObjectStore.BLOBS).mark(id)) {
+            submit(() -> {
+                String base = Blob.deltaBase(store, id);
+                if (base != null) {
+                    markBlob(base);
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs the given task on a worker, recording its failure if it fails.
+     * The tasks are independent (none waits for another), so a long history
+     * can't pile up nested joins on the stack of a worker.
+     *
+     * @param task the task.
+     */
+    private void submit(Runnable task) {
+        if (failure.get() != null) {
+            return;
+        }
+        pool.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException excp) {
+                failure.compareAndSet(null, excp);
+            }
+        });
+    }
+
+    /**
+     * Returns the marks of the given type of object.
+     *
+     * @param type the type of the objects.
+     * @return the marks of the type.
+     */
+    private Marks marks(String type) {
+        for (int i = 0; i < ObjectStore.TYPES.length; i += 1) {
+            if (ObjectStore.TYPES[i].equals(type)) {
+                return marks[i];
+            }
+        }
+        throw new IllegalArgumentException("unknown object type: " + type);
+    }
+
+    /**
+     * The marks of the objects of one type: a bitmap over their sorted ids,
+     * updated atomically so that the workers can mark objects concurrently.
+     */
+    private static class Marks {
+        /** The sorted ids of the objects. */
+        private final List<String> ids;
+        /** The bitmap, bit i being the mark of the i-th id. */
+        private final AtomicLongArray bits;
+
+        /**
+         * Creates the marks of the given objects, all unmarked.
+         *
+         * @param ids the sorted ids of the objects.
+         */
+        Marks(List<String> ids) {
+            this.ids = new ArrayList<>(ids);
+            this.bits = new AtomicLongArray((ids.size() + 63) / 64);
+        }
+
+        /**
+         * Marks the object with the given id.
+         * Fails if there is no such object: a reachable object is missing.
+         *
+         * @param id the id of the object.
+         * @return true if the object was not marked yet, false otherwise.
+         */
+        boolean mark(String id) {
+            int i = Collections.binarySearch(ids, id);
+            if (i < 0) {
+                throw new IllegalArgumentException("missing object " + id);
+            }
+            long bit = 1L << (i & 63);
+            while (true) {
+                long word = bits.get(i >>> 6);
+                if ((word & bit) != 0) {
+                    return false;
+                }
+                if (bits.compareAndSet(i >>> 6, word, word | bit)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Returns true if there is an object with the given id.
+         *
+         * @param id the id of the object.
+         * @return true if the object is in the store, false otherwise.
+         */
+        boolean contains(String id) {
+            return Collections.binarySearch(ids, id) >= 0;
+        }
+
+        /**
+         * Returns true if the object with the given id is marked.
+         *
+         * @param id the id of the object.
+         * @return true if the object is reachable, false otherwise.
+         */
+        boolean isMarked(String id) {
+            int i = Collections.binarySearch(ids, id);
+            return i >= 0 && (bits.get(i >>> 6) & (1L << (i & 63))) != 0;
+        }
+    }
+}
@@ -1,225 +1,572 @@
-package gitlet;
-
-import java.io.File;
-import java.io.Serializable;
-import java.util.*;
-
-import static gitlet.Utils.*;
-
-/**
- * Represents the index(stage area) of a repository.
- * The index is a collection of blobs that'd been added or removed from the working directory,
- * but not yet committed.
- * The index is stored in a file named "index" in the repository's root directory.
- * The index is a map of filenames to their corresponding blob ids.
- * The index is also responsible for managing the add and remove entries of the index.
- *
- * @author R7CKB
- */
-public class Index implements Serializable {
-
-    /**
-     * The file where the index is stored.
-     */
-    static final File INDEX_FILE = new File(join(Repository.GITLET_DIR), "index");
-
-    /**
-     * The entries of the index, mapping filenames to their corresponding blob ids.
-     */
-    private final Map<String, String> addEntries;
-
-    /**
-     * The entries of the index, mapping filenames to their corresponding blob ids.
-     */
-    private final Map<String, String> removeEntries;
-
-    /**
-     * Creates a new empty index.
-     * The index is initially empty.
-     */
-    public Index() {
-        this(new TreeMap<>(), new TreeMap<>());
-    }
-
-    /**
-     * Creates a new index with the given add and remove entries.
-     *
-     * @param addEntries    the adding entries of the index,
-     *                      mapping filenames to their corresponding blob ids.
-     * @param removeEntries the remove entries of the index,
-     *                      mapping filenames to their corresponding blob ids.
-     */
-    public Index(Map<String, String> addEntries, Map<String, String> removeEntries) {
-        this.addEntries = addEntries;
-        this.removeEntries = removeEntries;
-        saveFile();
-    }
-
-    /**
-     * Adds a blob to the added entry of the index.
-     *
-     * @param blob the blob to be added.
-     */
-    public void addAdd(Blob blob) {
-        addEntries.put(blob.getFilename(), blob.getId());
-    }
-
-    /**
-     * Adds a blob to the removed entry of the index.
-     *
-     * @param blob the blob to be removed.
-     */
-    public void removeAdd(Blob blob) {
-        removeEntries.put(blob.getFilename(), blob.getId());
-    }
-
-    /**
-     * Removes a blob from the removed entry of the index.
-     *
-     * @param filename the filename of the blob to be removed.
-     */
-    public void addRemove(String filename) {
-        addEntries.remove(filename);
-    }
-
-    /**
-     * Removes a blob from the added entry of the index.
-     *
-     * @param filename the filename of the blob to be removed.
-     */
-    public void removeRemove(String filename) {
-        removeEntries.remove(filename);
-    }
-
-    /**
-     * Returns true if the added entry of the index with the given filename.
-     * Returns false otherwise.
-     *
-     * @param filename the filename of the added entry(AKA Key).
-     * @return the boolean value indicating whether
-     * the added entry of the index contains the given filename.
-     */
-    public boolean addContainsFile(String filename) {
-        if (addEntries.isEmpty()) {
-            return false;
-        }
-        return addEntries.containsKey(filename);
-    }
-
-    /**
-     * Returns true if the added entry of the index with the given id.
-     * Returns false otherwise.
-     *
-     * @param id the value of the id of the removed entry(AKA Value).
-     * @return the boolean value indicating whether the added entry of the index with the given id.
-     */
-    public boolean addContainsId(String id) {
-        if (addEntries.isEmpty()) {
-            return false;
-        }
-        return addEntries.containsValue(id);
-    }
-
-    /**
-     * Returns true if the removed entry of the index with the given filename.
-     * Returns false otherwise.
-     *
-     * @param filename the filename of the removed entry(AKA Key).
-     * @return the boolean value indicating whether
-     * the removed entry of the index contains the given filename.
-     */
-    public boolean removeContainsFile(String filename) {
-        if (removeEntries.isEmpty()) {
-            return false;
-        }
-        return removeEntries.containsKey(filename);
-    }
-
-    /**
-     * Returns true if the removed entry of the index with the given id.
-     * Returns false otherwise.
-     *
-     * @param id the value of the id of the removed entry(AKA Value).
-     * @return the boolean value indicating whether
-     * the removed entry of the index contains the given id.
-     */
-    public boolean removeContainsId(String id) {
-        if (removeEntries.isEmpty()) {
-            return false;
-        }
-        return removeEntries.containsValue(id);
-    }
-
-    /**
-     * clear the index file.
-     */
-    public void clearFile() {
-        addEntries.clear();
-        removeEntries.clear();
-        saveFile();
-    }
-
-    /**
-     * Returns the added entry of the index.
-     *
-     * @return the added entry of the index.
-     */
-    public Map<String, String> getAddBlobs() {
-        return addEntries;
-    }
-
-    /**
-     * Returns the removed entry of the index.
-     *
-     * @return the removed entry of the index.
-     */
-    public Map<String, String> getRemoveBlobs() {
-        return removeEntries;
-    }
-
-    /**
-     * Returns true if the added entry of the index is empty.
-     *
-     * @return the boolean value indicating whether the added entry of the index is empty.
-     */
-    public boolean addIsEmpty() {
-        return addEntries.isEmpty();
-    }
-
-    /**
-     * Returns true if the removed entry of the index is empty.
-     *
-     * @return the boolean value indicating whether the removed entry of the index is empty.
-     */
-    public boolean removeIsEmpty() {
-        return removeEntries.isEmpty();
-    }
-
-    /**
-     * Saves the index to the index file.
-     */
-    public void saveFile() {
-        writeObject(INDEX_FILE, this);
-    }
-
-    //    /**
-    //     * Prints the index to the console.
-    //     * only for debug
-    //     */
-    //    @Override
-    //    public void dump() {
-    //        System.out.println("Index:");
-    //        System.out.println("Add Entries:");
-    //        if (!addEntries.isEmpty()) {
-    //            for (String filename : addEntries.keySet()) {
-    //                System.out.println(filename + " -> " + addEntries.get(filename));
-    //            }
-    //        }
-    //        System.out.println("Remove Entries:");
-    //        if (!removeEntries.isEmpty()) {
-    //            for (String filename : removeEntries.keySet()) {
-    //                System.out.println(filename + " -> " + removeEntries.get(filename));
-    //            }
-    //        }
-    //    }
-}
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the index(stage area) of a repository.
+ * The index is a collection of blobs that'd been added or removed from the working directory,
+ * but not yet committed.
+ * The index is stored in a file named "index" in the repository's root directory
+ * (see Codec for the format).
+ * The index is a map of filenames to their corresponding blob ids.
+ * The index is also responsible for managing the add and remove entries of the index.
+ * Like the index of git, it also caches the stat data (size, modification time and inode)
+ * of the working files together with their blob ids,
+ * so that status only has to rehash the files whose stat data changed.
+ *
+ * @author R7CKB
+ */
+public class Index implements Serializable {
+
+    /**
+     * The version of the Java-serialized form of this class,
+     * so that an index written by an older version can still be read.
+     */
+    private static final long serialVersionUID = -6067732756217522042L;
+
+    /**
+     * The file where the index is stored.
+     */
+    static final File INDEX_FILE = new File(join(Repository.GITLET_DIR), "index");
+
+    /**
+     * The entries of the index, mapping filenames to their corresponding blob ids.
+     */
+    private final Map<String, String> addEntries;
+
+    /**
+     * The minimum time (in milliseconds) between the modification of a file and the recording
+     * of its stat entry for the entry to be trusted.
+     * It covers the coarsest timestamp granularity of common file systems (1 second).
+     */
+    private static final long RACY_MILLIS = 1000;
+
+    /**
+     * The entries of the index, mapping filenames to their corresponding blob ids.
+     */
+    private final Map<String, String> removeEntries;
+
+    /**
+     * The stat cache of the index, mapping filenames to the stat data of the working files
+     * when their blob ids were last computed.
+     */
+    private final Map<String, StatEntry> statEntries = new TreeMap<>();
+
+    /**
+     * True if the stat cache changed since the index was read, so it needs to be saved.
+     */
+    private transient boolean statChanged;
+
+    /**
+     * The last index read or saved by this process and the bytes of its file,
+     * so that a long-running process (the daemon) only decodes the index file
+     * when another process changed it.
+     */
+    private static Index resident;
+    private static byte[] residentBytes;
+
+    /**
+     * Creates a new empty index.
+     * The index is initially empty.
+     */
+    public Index() {
+        this(new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * Creates a new index with the given add and remove entries.
+     *
+     * @param addEntries    the adding entries of the index,
+     *                      mapping filenames to their corresponding blob ids.
+     * @param removeEntries the remove entries of the index,
+     *                      mapping filenames to their corresponding blob ids.
+     */
+    public Index(Map<String, String> addEntries, Map<String, String> removeEntries) {
+        this.addEntries = addEntries;
+        this.removeEntries = removeEntries;
+        saveFile();
+    }
+
+    /**
+     * Creates an index read from the index file, without saving it.
+     *
+     * @param addEntries    the adding entries of the index.
+     * @param removeEntries the remove entries of the index.
+     * @param statEntries   the stat cache of the index.
+     */
+    private Index(Map<String, String> addEntries, Map<String, String> removeEntries,
+                  Map<String, StatEntry> statEntries) {
+        this.addEntries = addEntries;
+        this.removeEntries = removeEntries;
+        this.statEntries.putAll(statEntries);
+    }
+
+    /**
+     * Reads the index from the index file.
+     * An index written by Java serialization (older versions of Gitlet) is still read.
+     * If the file didn't change since it was last read or saved by this process,
+     * a copy of the index in memory is returned instead of decoding the file again.
+     *
+     * @return the index.
+     */
+    public static Index fromFile() {
+        byte[] bytes = readContents(INDEX_FILE);
+        if (resident != null && Arrays.equals(bytes, residentBytes)) {
+            return resident.copy();
+        }
+        Index index = decode(bytes);
+        remember(bytes, index);
+        return index;
+    }
+
+    /**
+     * Decodes the bytes of an index file.
+     * An index of the first version of Gitlet is read through Legacy, with an empty stat cache.
+     *
+     * @param bytes the bytes of the index file.
+     * @return the index.
+     */
+    private static Index decode(byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            Object index = Legacy.read(bytes, Object.class);
+            if (index instanceof Legacy.OldIndex) {
+                Legacy.OldIndex old = (Legacy.OldIndex) index;
+                return new Index(new TreeMap<>(old.addEntries), new TreeMap<>(old.removeEntries),
+                        new TreeMap<>());
+            }
+            return (Index) index;
+        }
+        return Codec.decode(bytes, Codec.INDEX, in -> {
+            List<Map<String, String>> entries = new ArrayList<>();
+            for (int kind = 0; kind < 2; kind += 1) {
+                Map<String, String> map = new TreeMap<>();
+                int count = Codec.readNumber(in);
+                for (int i = 0; i < count; i += 1) {
+                    map.put(Codec.readString(in), Codec.readId(in));
+                }
+                entries.add(map);
+            }
+            Map<String, StatEntry> stats = new TreeMap<>();
+            int count = Codec.readNumber(in);
+            for (int i = 0; i < count; i += 1) {
+                String filename = Codec.readString(in);
+                stats.put(filename, new StatEntry(in.readLong(), in.readLong(), in.readLong(),
+                        in.readLong(), Codec.readId(in), in.readBoolean()));
+            }
+            return new Index(entries.get(0), entries.get(1), stats);
+        });
+    }
+
+    /**
+     * Adds a blob to the added entry of the index.
+     *
+     * @param blob the blob to be added.
+     */
+    public void addAdd(Blob blob) {
+        addAdd(blob.getFilename(), blob.getId());
+    }
+
+    /**
+     * Adds a blob to the added entry of the index.
+     *
+     * @param filename the filename of the blob to be added.
+     * @param id       the id of the blob to be added.
+     */
+    public void addAdd(String filename, String id) {
+        addEntries.put(filename, id);
+    }
+
+    /**
+     * Adds a blob to the removed entry of the index.
+     *
+     * @param blob the blob to be removed.
+     */
+    public void removeAdd(Blob blob) {
+        removeAdd(blob.getFilename(), blob.getId());
+    }
+
+    /**
+     * Adds a blob to the removed entry of the index, without reading the blob.
+     *
+     * @param filename the filename of the blob to be removed.
+     * @param id       the id of the blob to be removed.
+     */
+    public void removeAdd(String filename, String id) {
+        removeEntries.put(filename, id);
+    }
+
+    /**
+     * Removes a blob from the removed entry of the index.
+     *
+     * @param filename the filename of the blob to be removed.
+     */
+    public void addRemove(String filename) {
+        addEntries.remove(filename);
+    }
+
+    /**
+     * Removes a blob from the added entry of the index.
+     *
+     * @param filename the filename of the blob to be removed.
+     */
+    public void removeRemove(String filename) {
+        removeEntries.remove(filename);
+    }
+
+    /**
+     * Returns true if the added entry of the index with the given filename.
+     * Returns false otherwise.
+     *
+     * @param filename the filename of the added entry(AKA Key).
+     * @return the boolean value indicating whether
+     * the added entry of the index contains the given filename.
+     */
+    public boolean addContainsFile(String filename) {
+        if (addEntries.isEmpty()) {
+            return false;
+        }
+        return addEntries.containsKey(filename);
+    }
+
+    /**
+     * Returns true if the added entry of the index maps the given filename to the given id.
+     * Returns false otherwise.
+     *
+     * @param filename the filename of the added entry(AKA Key).
+     * @param id       the id of the blob(AKA Value).
+     * @return the boolean value indicating whether
+     * the given file is staged for addition with the given id.
+     */
+    public boolean addContainsFile(String filename, String id) {
+        return id.equals(addEntries.get(filename));
+    }
+
+    /**
+     * Returns true if the removed entry of the index with the given filename.
+     * Returns false otherwise.
+     *
+     * @param filename the filename of the removed entry(AKA Key).
+     * @return the boolean value indicating whether
+     * the removed entry of the index contains the given filename.
+     */
+    public boolean removeContainsFile(String filename) {
+        if (removeEntries.isEmpty()) {
+            return false;
+        }
+        return removeEntries.containsKey(filename);
+    }
+
+    /**
+     * Returns true if the removed entry of the index maps the given filename to the given id.
+     * Returns false otherwise.
+     *
+     * @param filename the filename of the removed entry(AKA Key).
+     * @param id       the id of the blob(AKA Value).
+     * @return the boolean value indicating whether
+     * the given file is staged for removal with the given id.
+     */
+    public boolean removeContainsFile(String filename, String id) {
+        return id.equals(removeEntries.get(filename));
+    }
+
+    /**
+     * clear the index file.
+     */
+    public void clearFile() {
+        addEntries.clear();
+        removeEntries.clear();
+        saveFile();
+    }
+
+    /**
+     * Clears the index, as part of the given operation on several files.
+     *
+     * @param journal the operation, which writes the index file when it is committed.
+     */
+    void clearFile(Journal journal) {
+        addEntries.clear();
+        removeEntries.clear();
+        saveFile(journal);
+    }
+
+    /**
+     * Returns the added entry of the index.
+     *
+     * @return the added entry of the index.
+     */
+    public Map<String, String> getAddBlobs() {
+        return addEntries;
+    }
+
+    /**
+     * Returns the removed entry of the index.
+     *
+     * @return the removed entry of the index.
+     */
+    public Map<String, String> getRemoveBlobs() {
+        return removeEntries;
+    }
+
+    /**
+     * Returns true if the added entry of the index is empty.
+     *
+     * @return the boolean value indicating whether the added entry of the index is empty.
+     */
+    public boolean addIsEmpty() {
+        return addEntries.isEmpty();
+    }
+
+    /**
+     * Returns true if the removed entry of the index is empty.
+     *
+     * @return the boolean value indicating whether the removed entry of the index is empty.
+     */
+    public boolean removeIsEmpty() {
+        return removeEntries.isEmpty();
+    }
+
+    /**
+     * Returns the cached stat entry of the given working file,
+     * if the file didn't change since the entry was recorded.
+     * An entry recorded less than RACY_MILLIS after the modification of the file is never used,
+     * since the file may have been modified again without changing its modification time.
+     *
+     * @param filename the name of the file.
+     * @param file     the working file.
+     * @return the cached entry, or null if the file must be hashed again.
+     */
+    public StatEntry getStat(String filename, File file) {
+        StatEntry entry = statEntries.get(filename);
+        if (entry == null) {
+            return null;
+        }
+        long[] stat = readStat(file);
+        if (stat == null || stat[0] != entry.size || stat[1] != entry.mtime
+                || stat[2] != entry.inode
+                || TimeUnit.NANOSECONDS.toMillis(entry.mtime) + RACY_MILLIS > entry.recorded) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Creates the stat entry of the given working file with its blob id.
+     * The entry is not recorded, so it can be created from any thread.
+     *
+     * @param file       the working file.
+     * @param id         the blob id of the file.
+     * @param conflicted whether the file contains merge conflict markers.
+     * @return the new entry.
+     */
+    public static StatEntry newStat(File file, String id, boolean conflicted) {
+        long now = System.currentTimeMillis();
+        long[] stat = readStat(file);
+        return stat == null ? new StatEntry(-1, -1, -1, now, id, conflicted)
+                : new StatEntry(stat[0], stat[1], stat[2], now, id, conflicted);
+    }
+
+    /**
+     * Records the given stat entry of a working file in the stat cache.
+     *
+     * @param filename the name of the file.
+     * @param entry    the stat entry of the file.
+     */
+    public void putStat(String filename, StatEntry entry) {
+        statEntries.put(filename, entry);
+        statChanged = true;
+    }
+
+    /**
+     * Removes the stat entries of the files that are not in the given list.
+     *
+     * @param filenames the names of the working files.
+     */
+    public void retainStats(Collection<String> filenames) {
+        statChanged |= statEntries.keySet().retainAll(filenames);
+    }
+
+    /**
+     * Returns true if the stat cache changed since the index was read.
+     *
+     * @return the boolean value indicating whether the index needs to be saved.
+     */
+    public boolean statChanged() {
+        return statChanged;
+    }
+
+    /**
+     * Reads the size, modification time (in nanoseconds) and inode of the given file.
+     * The inode is 0 on file systems that don't have one.
+     *
+     * @param file the file.
+     * @return {size, mtime, inode}, or null if the file can't be read.
+     */
+    private static long[] readStat(File file) {
+        try {
+            Map<String, Object> attributes =
+                    Files.readAttributes(file.toPath(), "unix:size,lastModifiedTime,ino");
+            return new long[]{(Long) attributes.get("size"),
+                ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                (Long) attributes.get("ino")};
+        } catch (UnsupportedOperationException excp) {
+            try {
+                BasicFileAttributes attributes =
+                        Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return new long[]{attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), 0};
+            } catch (IOException e) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the index to the index file (see Codec for the format).
+     */
+    public void saveFile() {
+        byte[] bytes = encode();
+        Journal.writeAtomic(INDEX_FILE, bytes);
+        remember(bytes, this);
+        statChanged = false;
+    }
+
+    /**
+     * Saves the index, as part of the given operation on several files.
+     *
+     * @param journal the operation, which writes the index file when it is committed.
+     */
+    void saveFile(Journal journal) {
+        byte[] bytes = encode();
+        journal.write(INDEX_FILE, bytes);
+        remember(bytes, this);
+        statChanged = false;
+    }
+
+    /**
+     * Encodes the index (see Codec for the format).
+     *
+     * @return the bytes of the index file.
+     */
+    private byte[] encode() {
+        return Codec.encode(Codec.INDEX, out -> {
+            for (Map<String, String> entries : List.of(addEntries, removeEntries)) {
+                Codec.writeNumber(out, entries.size());
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    Codec.writeString(out, entry.getKey());
+                    Codec.writeId(out, entry.getValue());
+                }
+            }
+            Codec.writeNumber(out, statEntries.size());
+            for (Map.Entry<String, StatEntry> entry : statEntries.entrySet()) {
+                StatEntry stat = entry.getValue();
+                Codec.writeString(out, entry.getKey());
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                out.writeLong(stat.inode);
+                out.writeLong(stat.recorded);
+                Codec.writeId(out, stat.id);
+                out.writeBoolean(stat.conflicted);
+            }
+        });
+    }
+
+    /**
+     * Keeps a copy of the given index as the resident index.
+     *
+     * @param bytes the bytes of the index file.
+     * @param index the index.
+     */
+    private static void remember(byte[] bytes, Index index) {
+        resident = index.copy();
+        residentBytes = bytes;
+    }
+
+    /**
+     * Returns a copy of this index, which can be modified without changing this one.
+     *
+     * @return the copy.
+     */
+    private Index copy() {
+        return new Index(new TreeMap<>(addEntries), new TreeMap<>(removeEntries), statEntries);
+    }
+
+    /**
+     * Represents the cached stat data of a working file.
+     */
+    public static class StatEntry implements Serializable {
+        /** The version of the Java-serialized form of this class. */
+        private static final long serialVersionUID = 6321186540010482296L;
+        /** The size of the file. */
+        private final long size;
+        /** The modification time of the file, in nanoseconds. */
+        private final long mtime;
+        /** The inode of the file. */
+        private final long inode;
+        /** The time (in milliseconds) when the entry was recorded. */
+        private final long recorded;
+        /** The blob id of the file. */
+        private final String id;
+        /** Whether the file contains merge conflict markers. */
+        private final boolean conflicted;
+
+        StatEntry(long size, long mtime, long inode, long recorded,
+                  String id, boolean conflicted) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.recorded = recorded;
+            this.id = id;
+            this.conflicted = conflicted;
+        }
+
+        /**
+         * Returns the blob id of the file.
+         *
+         * @return the blob id of the file.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns true if the file contains merge conflict markers.
+         *
+         * @return the boolean value indicating whether the file is conflicted.
+         */
+        public boolean isConflicted() {
+            return conflicted;
+        }
+    }
+
+    //    /**
+    //     * Prints the index to the console.
+    //     * only for debug
+    //     */
+    //    @Override
+    //    public void dump() {
+    //        System.out.println("Index:");
+    //        System.out.println("Add Entries:");
+    //        if (!addEntries.isEmpty()) {
+    //            for (String filename : addEntries.keySet()) {
+    //                System.out.println(filename + " -> " + addEntries.get(filename));
+    //            }
+    //        }
+    //        System.out.println("Remove Entries:");
+    //        if (!removeEntries.isEmpty()) {
+    //            for (String filename : removeEntries.keySet()) {
+    //                System.out.println(filename + " -> " + removeEntries.get(filename));
+    //            }
+    //        }
+    //    }
+}
@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Updates the files of the .gitlet directory (refs, HEAD, index, ...) safely.
+ * A file is never overwritten in place: its new content is written to a lock file
+ * next to it ([file].lock, created only if it doesn't exist yet), flushed to the disk,
+ * and then renamed over the file, so a crash leaves either the old or the new content.
+ * An operation that updates several files at once (commit, merge, reset) writes all the lock
+ * files first, then a journal listing them, then renames them. The journal is the commit point:
+ * if a crash happens before it is written, the lock files are simply removed on the next
+ * command, and if it happens after, the next command finishes the renames (see recover).
+ * Files too large to be held in memory (the packs) are written to a temporary file by the caller,
+ * which the journal renames to their lock files (see move).
+ * The journal and the lock files are only handled while holding the RepositoryLock.
+ *
+ * @author R7CKB
+ */
+class Journal {
+
+    /**
+     * The suffix of the lock files.
+     */
+    static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * The name of the journal file, in the .gitlet directory.
+     */
+    private static final String JOURNAL_NAME = "journal";
+
+    /**
+     * The new contents of the files updated by the operation, in order.
+     */
+    private final Map<File, byte[]> writes = new LinkedHashMap<>();
+
+    /**
+     * The temporary files holding the new contents of the files replaced by the operation.
+     */
+    private final Map<File, File> moves = new LinkedHashMap<>();
+
+    /**
+     * Records the new content of the given file, which is written when the journal is committed.
+     *
+     * @param file     the file to update.
+     * @param contents the new content, as for Utils.writeContents (strings and byte arrays).
+     */
+    void write(File file, Object... contents) {
+        writes.put(file, toBytes(contents));
+    }
+
+    /**
+     * Records that the given file is replaced by the content of the given temporary file,
+     * which is renamed when the journal is committed.
+     *
+     * @param file    the file to replace.
+     * @param content the temporary file holding the new content, in the same directory.
+     */
+    void move(File file, File content) {
+        moves.put(file, content);
+    }
+
+    /**
+     * Writes all the recorded files atomically.
+     */
+    void commit() {
+        if (writes.isEmpty() && moves.isEmpty()) {
+            return;
+        }
+        if (writes.size() == 1 && moves.isEmpty()) {
+            Map.Entry<File, byte[]> write = writes.entrySet().iterator().next();
+            writeAtomic(write.getKey(), write.getValue());
+            return;
+        }
+        List<File> locks = new ArrayList<>();
+        try {
+            StringBuilder journal = new StringBuilder();
+            for (Map.Entry<File, byte[]> write : writes.entrySet()) {
+                locks.add(writeLock(write.getKey(), write.getValue()));
+                journal.append(relativePath(write.getKey())).append('\n');
+            }
+            for (Map.Entry<File, File> move : moves.entrySet()) {
+                locks.add(moveLock(move.getKey(), move.getValue()));
+                journal.append(relativePath(move.getKey())).append('\n');
+            }
+            File journalFile = join(Repository.GITLET_DIR, JOURNAL_NAME);
+            writeAtomic(journalFile, journal.toString().getBytes(StandardCharsets.UTF_8));
+            ObjectStore.sync(Repository.GITLET_DIR);
+            locks.clear();
+            for (File file : writes.keySet()) {
+                install(file);
+            }
+            for (File file : moves.keySet()) {
+                install(file);
+            }
+            journalFile.delete();
+        } catch (RuntimeException excp) {
+            for (File lock : locks) {
+                lock.delete();
+            }
+            throw excp;
+        }
+    }
+
+    /**
+     * Writes the given file atomically, through its lock file.
+     *
+     * @param file     the file to write.
+     * @param contents the new content, as for Utils.writeContents (strings and byte arrays).
+     */
+    static void writeAtomic(File file, Object... contents) {
+        File lock = writeLock(file, toBytes(contents));
+        try {
+            install(file);
+        } catch (RuntimeException excp) {
+            lock.delete();
+            throw excp;
+        }
+    }
+
+    /**
+     * Finishes or rolls back the operation that was interrupted by a crash, if any,
+     * and removes the lock files that it left behind.
+     *
+     * @param gitletDir the .gitlet directory of the repository.
+     */
+    static void recover(File gitletDir) {
+        File journalFile = join(gitletDir, JOURNAL_NAME);
+        if (journalFile.isFile()) {
+            // the journal was written, so every lock file it lists is complete.
+            for (String path : readContentsAsString(journalFile).split("\n")) {
+                File file = join(gitletDir, path);
+                if (!path.isEmpty() && lockFile(file).isFile()) {
+                    install(file);
+                }
+            }
+            journalFile.delete();
+        }
+        deleteLocks(gitletDir);
+        deleteLocks(join(gitletDir, "refs"));
+        deleteLocks(join(gitletDir, "objects", "pack"));
+    }
+
+    /**
+     * Deletes the lock files of the given directory and of its subdirectories.
+     *
+     * @param dir the directory.
+     */
+    private static void deleteLocks(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.getName().equals("objects")) {
+                    deleteLocks(file);
+                }
+            } else if (file.getName().endsWith(LOCK_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Creates the lock file of the given file with the given content, and flushes it to the disk.
+     * Fails if the lock file already exists, i.e. if another process is updating the file.
+     *
+     * @param file  the file to update.
+     * @param bytes the new content of the file.
+     * @return the lock file.
+     */
+    private static File writeLock(File file, byte[] bytes) {
+        File lock = lockFile(file);
+        try (FileChannel out = FileChannel.open(lock.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("Unable to create '%s': %s", lock.getPath(), excp.getMessage());
+        }
+        return lock;
+    }
+
+    /**
+     * Flushes the given temporary file to the disk and renames it to the lock file
+     * of the given file. Fails if the lock file already exists.
+     *
+     * @param file    the file to update.
+     * @param content the temporary file holding the new content of the file.
+     * @return the lock file.
+     */
+    private static File moveLock(File file, File content) {
+        File lock = lockFile(file);
+        ObjectStore.sync(content);
+        try {
+            Files.move(content.toPath(), lock.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Unable to create '%s': %s", lock.getPath(), excp.getMessage());
+        }
+        return lock;
+    }
+
+    /**
+     * Renames the lock file of the given file over the file.
+     *
+     * @param file the file to update.
+     */
+    private static void install(File file) {
+        try {
+            Files.move(lockFile(file).toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Returns the lock file of the given file.
+     *
+     * @param file the file.
+     * @return the lock file ([file].lock).
+     */
+    private static File lockFile(File file) {
+        return new File(file.getPath() + LOCK_SUFFIX);
+    }
+
+    /**
+     * Returns the path of the given file relative to the .gitlet directory.
+     *
+     * @param file a file of the .gitlet directory.
+     * @return the relative path, with "/" as separator.
+     */
+    private static String relativePath(File file) {
+        String root = Repository.GITLET_DIR.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("not in the repository: " + path);
+        }
+        return path.substring(root.length()).replace(File.separator, "/");
+    }
+
+    /**
+     * Concatenates the given contents, as Utils.writeContents does.
+     *
+     * @param contents strings and byte arrays.
+     * @return the bytes of the contents.
+     */
+    private static byte[] toBytes(Object... contents) {
+        if (contents.length == 1 && contents[0] instanceof byte[]) {
+            return (byte[]) contents[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object obj : contents) {
+            if (obj instanceof byte[]) {
+                bytes.writeBytes((byte[]) obj);
+            } else {
+                bytes.writeBytes(((String) obj).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
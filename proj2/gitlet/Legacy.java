@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the objects written by the first version of Gitlet,
+ * which stored them with Java serialization.
+ * The classes of these objects have changed since (e.g. a Blob is no longer Serializable),
+ * so the class descriptors of the old classes are mapped to stand-in classes that have
+ * the old fields, and the callers convert the stand-ins to the current objects.
+ * A class descriptor is mapped only when its serialVersionUID is the one of the first version,
+ * the objects written by later versions are read as they are.
+ * The migrate command rewrites the old objects in the current formats.
+ *
+ * @author R7CKB
+ */
+class Legacy {
+
+    /**
+     * The serialVersionUIDs of the classes of the first version, which didn't declare them.
+     */
+    static final long BLOB_UID = -4583996726032287104L;
+    static final long COMMIT_UID = 3110111955763662894L;
+    static final long INDEX_UID = -7298666480072207729L;
+
+    /**
+     * The stand-in class of each class of the first version, by name.
+     */
+    private static final Map<String, Class<?>> STAND_INS = Map.of(
+            "gitlet.Blob", OldBlob.class,
+            "gitlet.Commit", OldCommit.class,
+            "gitlet.Index", OldIndex.class);
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private Legacy() {
+    }
+
+    /**
+     * Reads a Java-serialized object, reading the classes of the first version
+     * as their stand-in classes.
+     *
+     * @param bytes         the bytes of the object.
+     * @param expectedClass the class of the object, or the stand-in of an old class.
+     * @return the object.
+     */
+    static <T> T read(byte[] bytes, Class<T> expectedClass) {
+        long start = Trace.start();
+        try (ObjectInputStream in = new StandInInputStream(new ByteArrayInputStream(bytes))) {
+            T result = expectedClass.cast(in.readObject());
+            Trace.record(Trace.DESERIALIZE, start, bytes.length);
+            return result;
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the blob of the first version with the given id.
+     *
+     * @param id the id of the blob.
+     * @return the stand-in of the blob.
+     */
+    static OldBlob readBlob(String id) {
+        return read(ObjectStore.LOCAL.read(ObjectStore.BLOBS, id), OldBlob.class);
+    }
+
+    /**
+     * An object stream that reads the classes of the first version as their stand-ins.
+     */
+    private static class StandInInputStream extends ObjectInputStream {
+
+        /**
+         * Creates a stream over the given serialized bytes.
+         *
+         * @param in the serialized bytes.
+         */
+        StandInInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> standIn = STAND_INS.get(desc.getName());
+            if (standIn != null) {
+                ObjectStreamClass local = ObjectStreamClass.lookup(standIn);
+                if (local.getSerialVersionUID() == desc.getSerialVersionUID()) {
+                    return local;
+                }
+            }
+            return desc;
+        }
+    }
+
+    /**
+     * A blob of the first version: its content was a string.
+     * The fields have the names and the types of the fields of the old class,
+     * so that they are read from its serialized form.
+     */
+    static class OldBlob implements Serializable {
+        private static final long serialVersionUID = BLOB_UID;
+
+        /**
+         * The filename, the content and the id of the blob.
+         */
+        String filename;
+        String content;
+        String id;
+    }
+
+    /**
+     * A commit of the first version: it held the blobMap of all its files instead of a tree.
+     */
+    static class OldCommit implements Serializable {
+        private static final long serialVersionUID = COMMIT_UID;
+
+        /**
+         * The message, the dateString, the id, the parents and the blobMap of the commit.
+         */
+        String message;
+        String timeStamp;
+        String id;
+        List<String> parents;
+        Map<String, String> blobMap;
+    }
+
+    /**
+     * An index of the first version: it had no stat cache.
+     */
+    static class OldIndex implements Serializable {
+        private static final long serialVersionUID = INDEX_UID;
+
+        /**
+         * The added and the removed entries of the index.
+         */
+        Map<String, String> addEntries;
+        Map<String, String> removeEntries;
+    }
+}
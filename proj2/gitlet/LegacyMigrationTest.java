@@ -0,0 +1,207 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Opens a repository written by the first version of Gitlet, which stored its commits,
+ * blobs and index with Java serialization, and migrates it to the current formats.
+ * The repository has two commits on two branches and a staged file.
+ *
+ * @author R7CKB
+ */
+public class LegacyMigrationTest {
+
+    /**
+     * The files of the .gitlet directory of the repository, by path, encoded in Base64.
+     */
+    private static final Map<String, String> FILES = new TreeMap<>();
+
+    static {
+        FILES.put("HEAD",
+                "bWFzdGVy");
+        FILES.put("index",
+                "rO0ABXNyAAxnaXRsZXQuSW5kZXiate2BoT7SjwIAAkwACmFkZEVudHJpZXN0AA9MamF2YS91dGls" +
+                "L01hcDtMAA1yZW1vdmVFbnRyaWVzcQB+AAF4cHNyABFqYXZhLnV0aWwuVHJlZU1hcAzB9j4tJWrm" +
+                "AwABTAAKY29tcGFyYXRvcnQAFkxqYXZhL3V0aWwvQ29tcGFyYXRvcjt4cHB3BAAAAAF0AAVjLnR4" +
+                "dHQAKGFmZGZkYWY1NTA2MzgzYTkyMDMxMjk0ODIyM2U1ZTUyMjY4NGJhZjF4c3EAfgADcHcEAAAA" +
+                "AHg=");
+        FILES.put("objects/blobs/30a28c0efe98e2fdd74e90e3578ee4b15d73ee02",
+                "rO0ABXNyAAtnaXRsZXQuQmxvYsBiX0PFSrqAAgADTAAHY29udGVudHQAEkxqYXZhL2xhbmcvU3Ry" +
+                "aW5nO0wACGZpbGVuYW1lcQB+AAFMAAJpZHEAfgABeHB0AAZoZWxsbwp0AAVhLnR4dHQAKDMwYTI4" +
+                "YzBlZmU5OGUyZmRkNzRlOTBlMzU3OGVlNGIxNWQ3M2VlMDI=");
+        FILES.put("objects/blobs/6ed523763a8580c9a6882f81e645de20c50d8a5e",
+                "rO0ABXNyAAtnaXRsZXQuQmxvYsBiX0PFSrqAAgADTAAHY29udGVudHQAEkxqYXZhL2xhbmcvU3Ry" +
+                "aW5nO0wACGZpbGVuYW1lcQB+AAFMAAJpZHEAfgABeHB0AAZ3b3JsZAp0AAViLnR4dHQAKDZlZDUy" +
+                "Mzc2M2E4NTgwYzlhNjg4MmY4MWU2NDVkZTIwYzUwZDhhNWU=");
+        FILES.put("objects/blobs/afdfdaf5506383a920312948223e5e522684baf1",
+                "rO0ABXNyAAtnaXRsZXQuQmxvYsBiX0PFSrqAAgADTAAHY29udGVudHQAEkxqYXZhL2xhbmcvU3Ry" +
+                "aW5nO0wACGZpbGVuYW1lcQB+AAFMAAJpZHEAfgABeHB0AAZ0aGlyZAp0AAVjLnR4dHQAKGFmZGZk" +
+                "YWY1NTA2MzgzYTkyMDMxMjk0ODIyM2U1ZTUyMjY4NGJhZjE=");
+        FILES.put("objects/blobs/dec9dbdd50a9f54ff5642b19f8cb6a755942f884",
+                "rO0ABXNyAAtnaXRsZXQuQmxvYsBiX0PFSrqAAgADTAAHY29udGVudHQAEkxqYXZhL2xhbmcvU3Ry" +
+                "aW5nO0wACGZpbGVuYW1lcQB+AAFMAAJpZHEAfgABeHB0AAxoZWxsbyBhZ2Fpbgp0AAVhLnR4dHQA" +
+                "KGRlYzlkYmRkNTBhOWY1NGZmNTY0MmIxOWY4Y2I2YTc1NTk0MmY4ODQ=");
+        FILES.put("objects/commits/3cbfe0db3b5ecf131b4298db06fcf0e6b343df7b",
+                "rO0ABXNyAA1naXRsZXQuQ29tbWl0KylWWH79EC4CAAVMAAdibG9iTWFwdAAPTGphdmEvdXRpbC9N" +
+                "YXA7TAACaWR0ABJMamF2YS9sYW5nL1N0cmluZztMAAdtZXNzYWdlcQB+AAJMAAdwYXJlbnRzdAAQ" +
+                "TGphdmEvdXRpbC9MaXN0O0wACXRpbWVTdGFtcHEAfgACeHBzcgARamF2YS51dGlsLlRyZWVNYXAM" +
+                "wfY+LSVq5gMAAUwACmNvbXBhcmF0b3J0ABZMamF2YS91dGlsL0NvbXBhcmF0b3I7eHBwdwQAAAAB" +
+                "dAAFYS50eHR0AChkZWM5ZGJkZDUwYTlmNTRmZjU2NDJiMTlmOGNiNmE3NTU5NDJmODg0eHQAKDNj" +
+                "YmZlMGRiM2I1ZWNmMTMxYjQyOThkYjA2ZmNmMGU2YjM0M2RmN2J0AAZzZWNvbmRzcgATamF2YS51" +
+                "dGlsLkFycmF5TGlzdHiB0h2Zx2GdAwABSQAEc2l6ZXhwAAAAAXcEAAAAAXQAKGNhOGRlOTg3Njc0" +
+                "YzFjYmU3MDk5YjYzYjE5YTUxZjM4M2I5ZWNmZWN4dAAeRnJpIE9jdCAxNiAxOToxMToxOSAyMDI2" +
+                "IC0wNzAw");
+        FILES.put("objects/commits/ca8de987674c1cbe7099b63b19a51f383b9ecfec",
+                "rO0ABXNyAA1naXRsZXQuQ29tbWl0KylWWH79EC4CAAVMAAdibG9iTWFwdAAPTGphdmEvdXRpbC9N" +
+                "YXA7TAACaWR0ABJMamF2YS9sYW5nL1N0cmluZztMAAdtZXNzYWdlcQB+AAJMAAdwYXJlbnRzdAAQ" +
+                "TGphdmEvdXRpbC9MaXN0O0wACXRpbWVTdGFtcHEAfgACeHBzcgARamF2YS51dGlsLlRyZWVNYXAM" +
+                "wfY+LSVq5gMAAUwACmNvbXBhcmF0b3J0ABZMamF2YS91dGlsL0NvbXBhcmF0b3I7eHBwdwQAAAAC" +
+                "dAAFYS50eHR0ACgzMGEyOGMwZWZlOThlMmZkZDc0ZTkwZTM1NzhlZTRiMTVkNzNlZTAydAAFYi50" +
+                "eHR0ACg2ZWQ1MjM3NjNhODU4MGM5YTY4ODJmODFlNjQ1ZGUyMGM1MGQ4YTVleHQAKGNhOGRlOTg3" +
+                "Njc0YzFjYmU3MDk5YjYzYjE5YTUxZjM4M2I5ZWNmZWN0AAVmaXJzdHNyABNqYXZhLnV0aWwuQXJy" +
+                "YXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAABdwQAAAABdAAoZjcyNDRiMjAxYjVjZGVkNzBk" +
+                "MWNjYzQ0NjFlZjRlNWU3MGZjZjc1ZXh0AB5GcmkgT2N0IDE2IDE5OjExOjE4IDIwMjYgLTA3MDA=");
+        FILES.put("objects/commits/f7244b201b5cded70d1ccc4461ef4e5e70fcf75e",
+                "rO0ABXNyAA1naXRsZXQuQ29tbWl0KylWWH79EC4CAAVMAAdibG9iTWFwdAAPTGphdmEvdXRpbC9N" +
+                "YXA7TAACaWR0ABJMamF2YS9sYW5nL1N0cmluZztMAAdtZXNzYWdlcQB+AAJMAAdwYXJlbnRzdAAQ" +
+                "TGphdmEvdXRpbC9MaXN0O0wACXRpbWVTdGFtcHEAfgACeHBzcgARamF2YS51dGlsLlRyZWVNYXAM" +
+                "wfY+LSVq5gMAAUwACmNvbXBhcmF0b3J0ABZMamF2YS91dGlsL0NvbXBhcmF0b3I7eHBwdwQAAAAA" +
+                "eHQAKGY3MjQ0YjIwMWI1Y2RlZDcwZDFjY2M0NDYxZWY0ZTVlNzBmY2Y3NWV0AA5pbml0aWFsIGNv" +
+                "bW1pdHNyABNqYXZhLnV0aWwuQXJyYXlMaXN0eIHSHZnHYZ0DAAFJAARzaXpleHAAAAAAdwQAAAAA" +
+                "eHQAHldlZCBEZWMgMzEgMTY6MDA6MDAgMTk2OSAtMDgwMA==");
+        FILES.put("refs/heads/master",
+                "M2NiZmUwZGIzYjVlY2YxMzFiNDI5OGRiMDZmY2YwZTZiMzQzZGY3Yg==");
+        FILES.put("refs/heads/other",
+                "M2NiZmUwZGIzYjVlY2YxMzFiNDI5OGRiMDZmY2YwZTZiMzQzZGY3Yg==");
+    }
+
+    /**
+     * The ids of the commits of the repository, from the newest.
+     */
+    private static final String SECOND = "3cbfe0db3b5ecf131b4298db06fcf0e6b343df7b";
+    private static final String FIRST = "ca8de987674c1cbe7099b63b19a51f383b9ecfec";
+    private static final String INITIAL = "f7244b201b5cded70d1ccc4461ef4e5e70fcf75e";
+
+    @Test
+    /**
+     * Test reading the repository before and after migrating it,
+     * and committing to it after.
+     */
+    public void testMigrate() throws Exception {
+        File dir = repository();
+        String status = gitlet(dir, "status");
+        assertTrue(status, status.contains("=== Branches ===\n*master\nother\n"));
+        assertTrue(status, status.contains("=== Staged Files ===\nc.txt\n"));
+        assertEquals(List.of(SECOND, FIRST, INITIAL), logIds(gitlet(dir, "log")));
+        assertEquals(FIRST + "\n", gitlet(dir, "find", "first"));
+        // reading the old commits computes their trees without writing them.
+        File trees = new File(dir, ".gitlet/objects/trees");
+        assertFalse(trees.exists() && trees.list().length > 0);
+
+        assertEquals("Migrated 7 objects.\n", gitlet(dir, "migrate"));
+        assertEquals("Migrated 0 objects.\n", gitlet(dir, "migrate"));
+        assertNoSerializedFiles(new File(dir, ".gitlet"));
+
+        assertEquals(status, gitlet(dir, "status"));
+        assertEquals(List.of(SECOND, FIRST, INITIAL), logIds(gitlet(dir, "log")));
+        assertEquals(FIRST + "\n", gitlet(dir, "find", "first"));
+        assertTrue(new File(dir, "a.txt").delete());
+        assertEquals("", gitlet(dir, "checkout", "--", "a.txt"));
+        assertEquals("hello again\n", Utils.readContentsAsString(new File(dir, "a.txt")));
+        assertEquals("", gitlet(dir, "checkout", FIRST.substring(0, 8), "--", "b.txt"));
+        assertEquals("world\n", Utils.readContentsAsString(new File(dir, "b.txt")));
+
+        assertEquals("", gitlet(dir, "commit", "third"));
+        List<String> ids = logIds(gitlet(dir, "log"));
+        assertEquals(List.of(SECOND, FIRST, INITIAL), ids.subList(1, ids.size()));
+        assertEquals("", gitlet(dir, "checkout", "other"));
+        assertFalse(new File(dir, "c.txt").exists());
+        assertEquals("", gitlet(dir, "checkout", "master"));
+        assertEquals("third\n", Utils.readContentsAsString(new File(dir, "c.txt")));
+    }
+
+    /**
+     * Writes the repository and its working files in a new directory.
+     *
+     * @return the working directory.
+     */
+    private static File repository() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-legacy").toFile();
+        for (Map.Entry<String, String> file : FILES.entrySet()) {
+            File target = new File(dir, ".gitlet/" + file.getKey());
+            target.getParentFile().mkdirs();
+            Utils.writeContents(target, Base64.getDecoder().decode(file.getValue()));
+        }
+        Utils.writeContents(new File(dir, "a.txt"), "hello again\n");
+        Utils.writeContents(new File(dir, "c.txt"), "third\n");
+        return dir;
+    }
+
+    /**
+     * Asserts that no file of the directory is Java-serialized.
+     *
+     * @param dir the .gitlet directory.
+     */
+    private static void assertNoSerializedFiles(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                byte[] bytes = Files.readAllBytes(path);
+                assertFalse(path.toString(), bytes.length >= 2
+                        && bytes[0] == (byte) 0xac && bytes[1] == (byte) 0xed);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the commits of a log, in order.
+     *
+     * @param log the output of the log command.
+     * @return the ids.
+     */
+    private static List<String> logIds(String log) {
+        List<String> result = new ArrayList<>();
+        for (String line : log.split("\n")) {
+            if (line.startsWith("commit ")) {
+                result.add(line.substring("commit ".length()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs a Gitlet command in a new process.
+     *
+     * @param dir  the working directory.
+     * @param args the arguments of the command.
+     * @return the output of the command.
+     */
+    private static String gitlet(File dir, String... args) throws IOException,
+            InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.waitFor());
+        return output;
+    }
+}
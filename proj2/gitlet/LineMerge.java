@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Merges the three versions of a file line by line, for the merge command.
+ * Both versions are compared with their common ancestor (the base, see Diff).
+ * The changes of one side that don't overlap a change of the other side are applied as is,
+ * so only the lines that both sides changed differently end up in a conflict.
+ * The changes of the two sides that overlap or touch form a group, which is either resolved
+ * (one side only, or both sides with the same lines) or written as a conflict:
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ * the lines of the current branch
+ * ||||||| base            (only with the diff3 style)
+ * the lines of the base   (only with the diff3 style)
+ * =======
+ * the lines of the given branch
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ * Without the lines of the base, the lines at the start and at the end of a conflict
+ * that are the same on both sides are moved out of it, so conflicts are as small as possible.
+ * A file that isn't a text file is a conflict as a whole.
+ * The merged file is written line by line as the groups are resolved.
+ *
+ * @author R7CKB
+ */
+class LineMerge {
+
+    /**
+     * The markers of a conflict.
+     */
+    private static final String OURS = "<<<<<<< HEAD\n";
+    private static final String BASE = "||||||| base\n";
+    private static final String SEPARATOR = "=======\n";
+    private static final String THEIRS = ">>>>>>>\n";
+
+    /**
+     * The three versions of the file.
+     */
+    private final Diff.Lines base;
+    private final Diff.Lines ours;
+    private final Diff.Lines theirs;
+
+    /**
+     * Whether the lines of the base are written in the conflicts.
+     */
+    private final boolean diff3;
+
+    /**
+     * The stream of the merged file.
+     */
+    private final OutputStream out;
+
+    /**
+     * Whether a conflict was written.
+     */
+    private boolean conflict;
+
+    /**
+     * Creates the merge of three versions of a file.
+     *
+     * @param base   the common ancestor, or null if the file didn't exist.
+     * @param ours   the version of the current branch, or null if it was deleted.
+     * @param theirs the version of the given branch, or null if it was deleted.
+     * @param diff3  whether to write the lines of the base in the conflicts.
+     * @param out    the stream of the merged file.
+     */
+    private LineMerge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs, boolean diff3,
+                      OutputStream out) {
+        this.base = base == null ? Diff.Lines.EMPTY : base;
+        this.ours = ours == null ? Diff.Lines.EMPTY : ours;
+        this.theirs = theirs == null ? Diff.Lines.EMPTY : theirs;
+        this.diff3 = diff3;
+        this.out = out;
+    }
+
+    /**
+     * Merges three versions of a file into the given file.
+     *
+     * @param baseId   the blob id of the common ancestor, or null if the file didn't exist.
+     * @param oursId   the blob id of the current branch, or null if the file was deleted.
+     * @param theirsId the blob id of the given branch, or null if the file was deleted.
+     * @param file     the file to write.
+     * @param diff3    whether to write the lines of the base in the conflicts.
+     * @return true if the merged file has conflicts.
+     */
+    static boolean merge(String baseId, String oursId, String theirsId, File file,
+                         boolean diff3) {
+        Diff.Interner interner = new Diff.Interner();
+        Diff.Lines base = Diff.Lines.ofBlob(baseId, interner);
+        Diff.Lines ours = Diff.Lines.ofBlob(oursId, interner);
+        Diff.Lines theirs = Diff.Lines.ofBlob(theirsId, interner);
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            return merge(base, ours, theirs, diff3, out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Merges three versions of a file into the given stream.
+     *
+     * @param base   the common ancestor, or null if the file didn't exist.
+     * @param ours   the version of the current branch, or null if it was deleted.
+     * @param theirs the version of the given branch, or null if it was deleted.
+     * @param diff3  whether to write the lines of the base in the conflicts.
+     * @param out    the stream of the merged file.
+     * @return true if the merged file has conflicts.
+     */
+    static boolean merge(Diff.Lines base, Diff.Lines ours, Diff.Lines theirs, boolean diff3,
+                         OutputStream out) throws IOException {
+        LineMerge merge = new LineMerge(base, ours, theirs, diff3, out);
+        if (merge.base.isBinary() || merge.ours.isBinary() || merge.theirs.isBinary()) {
+            merge.conflict(0, merge.base.size(), 0, merge.ours.size(), 0, merge.theirs.size());
+        } else {
+            merge.run();
+        }
+        return merge.conflict;
+    }
+
+    /**
+     * Writes the merged file, group of changes by group of changes.
+     */
+    private void run() throws IOException {
+        List<Diff.Hunk> oursHunks = Diff.diff(base, ours);
+        List<Diff.Hunk> theirsHunks = Diff.diff(base, theirs);
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        // the offsets of the unchanged lines of each side, relatively to the base.
+        int oursShift = 0;
+        int theirsShift = 0;
+        while (i < oursHunks.size() || j < theirsHunks.size()) {
+            int lo = Math.min(i < oursHunks.size() ? oursHunks.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirsHunks.size() ? theirsHunks.get(j).aStart : Integer.MAX_VALUE);
+            base.write(out, position, lo, false);
+            // gather the hunks of both sides that overlap or touch the group.
+            int hi = lo;
+            int oursFirst = i;
+            int theirsFirst = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                while (i < oursHunks.size() && oursHunks.get(i).aStart <= hi) {
+                    hi = Math.max(hi, oursHunks.get(i).aEnd);
+                    i += 1;
+                    grown = true;
+                }
+                while (j < theirsHunks.size() && theirsHunks.get(j).aStart <= hi) {
+                    hi = Math.max(hi, theirsHunks.get(j).aEnd);
+                    j += 1;
+                    grown = true;
+                }
+            }
+            int oursLo = lo + oursShift;
+            int oursHi = hi + oursShift;
+            if (i > oursFirst) {
+                Diff.Hunk first = oursHunks.get(oursFirst);
+                Diff.Hunk last = oursHunks.get(i - 1);
+                oursLo = first.bStart - (first.aStart - lo);
+                oursHi = last.bEnd + (hi - last.aEnd);
+                oursShift = last.bEnd - last.aEnd;
+            }
+            int theirsLo = lo + theirsShift;
+            int theirsHi = hi + theirsShift;
+            if (j > theirsFirst) {
+                Diff.Hunk first = theirsHunks.get(theirsFirst);
+                Diff.Hunk last = theirsHunks.get(j - 1);
+                theirsLo = first.bStart - (first.aStart - lo);
+                theirsHi = last.bEnd + (hi - last.aEnd);
+                theirsShift = last.bEnd - last.aEnd;
+            }
+            if (j == theirsFirst || same(ours, oursLo, oursHi, theirs, theirsLo, theirsHi)) {
+                ours.write(out, oursLo, oursHi, false);
+            } else if (i == oursFirst) {
+                theirs.write(out, theirsLo, theirsHi, false);
+            } else {
+                conflict(lo, hi, oursLo, oursHi, theirsLo, theirsHi);
+            }
+            position = hi;
+        }
+        base.write(out, position, base.size(), false);
+    }
+
+    /**
+     * Writes a conflict between lines of the two sides.
+     *
+     * @param baseLo   the start of the lines of the base.
+     * @param baseHi   the end of the lines of the base.
+     * @param oursLo   the start of the lines of the current branch.
+     * @param oursHi   the end of the lines of the current branch.
+     * @param theirsLo the start of the lines of the given branch.
+     * @param theirsHi the end of the lines of the given branch.
+     */
+    private void conflict(int baseLo, int baseHi, int oursLo, int oursHi,
+                          int theirsLo, int theirsHi) throws IOException {
+        int prefix = 0;
+        int suffix = 0;
+        if (!diff3 && !ours.isBinary() && !theirs.isBinary()) {
+            while (oursLo + prefix < oursHi && theirsLo + prefix < theirsHi
+                    && ours.id(oursLo + prefix) == theirs.id(theirsLo + prefix)) {
+                prefix += 1;
+            }
+            while (oursLo + prefix < oursHi - suffix && theirsLo + prefix < theirsHi - suffix
+                    && ours.id(oursHi - suffix - 1) == theirs.id(theirsHi - suffix - 1)) {
+                suffix += 1;
+            }
+        }
+        ours.write(out, oursLo, oursLo + prefix, false);
+        out.write(OURS.getBytes(StandardCharsets.UTF_8));
+        ours.write(out, oursLo + prefix, oursHi - suffix, true);
+        if (diff3) {
+            out.write(BASE.getBytes(StandardCharsets.UTF_8));
+            base.write(out, baseLo, baseHi, true);
+        }
+        out.write(SEPARATOR.getBytes(StandardCharsets.UTF_8));
+        theirs.write(out, theirsLo + prefix, theirsHi - suffix, true);
+        out.write(THEIRS.getBytes(StandardCharsets.UTF_8));
+        ours.write(out, oursHi - suffix, oursHi, false);
+        conflict = true;
+    }
+
+    /**
+     * Returns true if two ranges of lines are the same.
+     *
+     * @param a    the first lines.
+     * @param aLo  the start of the first range.
+     * @param aHi  the end of the first range.
+     * @param b    the second lines.
+     * @param bLo  the start of the second range.
+     * @param bHi  the end of the second range.
+     * @return true if the ranges have the same lines.
+     */
+    private static boolean same(Diff.Lines a, int aLo, int aHi, Diff.Lines b, int bLo, int bHi) {
+        if (aHi - aLo != bHi - bLo) {
+            return false;
+        }
+        for (int k = 0; k < aHi - aLo; k += 1) {
+            if (a.id(aLo + k) != b.id(bLo + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
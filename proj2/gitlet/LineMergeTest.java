@@ -0,0 +1,216 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the line-level merge of three versions of a file: the grouping of the changes
+ * of both sides, the offsets of the lines of each side, and the conflicts.
+ *
+ * @author R7CKB
+ */
+public class LineMergeTest {
+
+    /**
+     * The base of most tests.
+     */
+    private static final String BASE = "1\n2\n3\n4\n5\n6\n7\n8\n9\n10\n";
+
+    @Test
+    /**
+     * Test that changes of both sides that don't touch are both applied.
+     */
+    public void testNonOverlappingEdits() throws IOException {
+        assertMerge("1\ntwo\n3\n4\n5\n6\n7\neight\n9\n10\n", false,
+                BASE, BASE.replace("\n2\n", "\ntwo\n"), BASE.replace("\n8\n", "\neight\n"),
+                false);
+        // a side that inserts and deletes lines shifts the lines of the later groups.
+        assertMerge("1\nA\nB\n2\n3\n5\n6\n7\n8\nnine\n10\n", false,
+                BASE, BASE.replace("1\n2\n", "1\nA\nB\n2\n").replace("\n4\n", "\n"),
+                BASE.replace("\n9\n", "\nnine\n"), false);
+    }
+
+    @Test
+    /**
+     * Test that the same changes on both sides are applied once.
+     */
+    public void testIdenticalEdits() throws IOException {
+        String changed = BASE.replace("\n3\n4\n", "\nthree\n");
+        assertMerge(changed, false, BASE, changed, changed, false);
+        assertMerge(BASE, false, BASE, BASE, BASE, false);
+    }
+
+    @Test
+    /**
+     * Test that changes of adjacent lines, which touch, are a conflict.
+     */
+    public void testAdjacentEdits() throws IOException {
+        assertMerge("1\n2\n<<<<<<< HEAD\nA\n4\n=======\n3\nB\n>>>>>>>\n5\n6\n7\n8\n9\n10\n", true,
+                BASE, BASE.replace("\n3\n", "\nA\n"), BASE.replace("\n4\n", "\nB\n"), false);
+    }
+
+    @Test
+    /**
+     * Test that changes separated by one unchanged line are both applied.
+     */
+    public void testNearbyEdits() throws IOException {
+        assertMerge("1\n2\nA\n4\nB\n6\n7\n8\n9\n10\n", false,
+                BASE, BASE.replace("\n3\n", "\nA\n"), BASE.replace("\n5\n", "\nB\n"), false);
+    }
+
+    @Test
+    /**
+     * Test insertions at the same position: the same lines are inserted once,
+     * different lines are a conflict.
+     */
+    public void testInsertionsAtSamePosition() throws IOException {
+        assertMerge("1\nX\n2\n", false, "1\n2\n", "1\nX\n2\n", "1\nX\n2\n", false);
+        assertMerge("1\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n2\n", true,
+                "1\n2\n", "1\nX\n2\n", "1\nY\n2\n", false);
+        // an insertion right before a changed line touches it.
+        assertMerge("1\n<<<<<<< HEAD\nX\n2\n=======\ntwo\n>>>>>>>\n", true,
+                "1\n2\n", "1\nX\n2\n", "1\ntwo\n", false);
+    }
+
+    @Test
+    /**
+     * Test a file modified on one side and deleted on the other.
+     */
+    public void testModifyDelete() throws IOException {
+        assertMerge("<<<<<<< HEAD\na\nc\n=======\n>>>>>>>\n", true,
+                "a\nb\n", "a\nc\n", null, false);
+        assertMerge("<<<<<<< HEAD\n=======\na\nc\n>>>>>>>\n", true,
+                "a\nb\n", null, "a\nc\n", false);
+        // a file deleted on one side and unchanged on the other stays deleted.
+        assertMerge("", false, "a\nb\n", null, "a\nb\n", false);
+    }
+
+    @Test
+    /**
+     * Test a file added on both sides, whose common first and last lines
+     * are moved out of the conflict.
+     */
+    public void testAddAdd() throws IOException {
+        assertMerge("a\n<<<<<<< HEAD\nb\n=======\nc\n>>>>>>>\nz\n", true,
+                null, "a\nb\nz\n", "a\nc\nz\n", false);
+        assertMerge("a\nb\n", false, null, "a\nb\n", "a\nb\n", false);
+        // the common lines are only moved out when both sides have them.
+        assertMerge("a\n<<<<<<< HEAD\n=======\nb\n>>>>>>>\n", true,
+                null, "a\n", "a\nb\n", false);
+    }
+
+    @Test
+    /**
+     * Test the diff3 style: the lines of the base are in the conflict,
+     * and the common lines of both sides stay in it.
+     */
+    public void testDiff3() throws IOException {
+        assertMerge("1\n2\n<<<<<<< HEAD\nA\n4\n||||||| base\n3\n4\n=======\n3\nB\n>>>>>>>\n"
+                        + "5\n6\n7\n8\n9\n10\n", true,
+                BASE, BASE.replace("\n3\n", "\nA\n"), BASE.replace("\n4\n", "\nB\n"), true);
+        assertMerge("<<<<<<< HEAD\na\nb\nz\n||||||| base\n=======\na\nc\nz\n>>>>>>>\n", true,
+                null, "a\nb\nz\n", "a\nc\nz\n", true);
+        // the groups without a conflict are merged as without the lines of the base.
+        assertMerge("1\ntwo\n3\n4\n5\n6\n7\neight\n9\n10\n", false,
+                BASE, BASE.replace("\n2\n", "\ntwo\n"), BASE.replace("\n8\n", "\neight\n"),
+                true);
+    }
+
+    @Test
+    /**
+     * Test that a file with a NUL byte is a conflict as a whole.
+     */
+    public void testBinary() throws IOException {
+        assertMerge("<<<<<<< HEAD\na\0\nsame\n=======\nb\0\nsame\n>>>>>>>\n", true,
+                "\0\nsame\n", "a\0\nsame\n", "b\0\nsame\n", false);
+    }
+
+    @Test
+    /**
+     * Test the files without a newline at the end: the lines in a conflict get one,
+     * so that the markers stay on their own lines, the other lines are kept as they are.
+     */
+    public void testNoNewline() throws IOException {
+        assertMerge("a\n<<<<<<< HEAD\nc\n=======\nd\n>>>>>>>\n", true,
+                "a\nb", "a\nc", "a\nd", false);
+        assertMerge("x\nb", false, "a\nb", "x\nb", "a\nb", false);
+        assertMerge("x\nm\ny", false, "a\nm\nb", "x\nm\nb", "a\nm\ny", false);
+    }
+
+    @Test
+    /**
+     * Test random merges where a side is the base or both sides are the same:
+     * the result is then the other side, whatever the offsets of its changes.
+     */
+    public void testRandomOneSided() throws IOException {
+        Random random = new Random(18);
+        for (int round = 0; round < 1000; round += 1) {
+            String base = randomFile(random);
+            String changed = randomFile(random);
+            assertMerge(changed, false, base, changed, base, false);
+            assertMerge(changed, false, base, base, changed, false);
+            assertMerge(changed, false, base, changed, changed, false);
+        }
+    }
+
+    /**
+     * Asserts the result of a merge.
+     *
+     * @param expected the expected merged file.
+     * @param conflict whether a conflict is expected.
+     * @param base     the common ancestor, or null if the file didn't exist.
+     * @param ours     the version of the current branch, or null if it was deleted.
+     * @param theirs   the version of the given branch, or null if it was deleted.
+     * @param diff3    whether to write the lines of the base in the conflicts.
+     */
+    private static void assertMerge(String expected, boolean conflict, String base, String ours,
+                                    String theirs, boolean diff3) throws IOException {
+        Diff.Interner interner = new Diff.Interner();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean result = LineMerge.merge(lines(base, interner), lines(ours, interner),
+                lines(theirs, interner), diff3, out);
+        assertEquals(expected, out.toString(StandardCharsets.ISO_8859_1));
+        assertEquals(conflict, result);
+    }
+
+    /**
+     * Reads the lines of a string.
+     *
+     * @param text     the text, or null.
+     * @param interner the distinct lines.
+     * @return the lines, or null if the text is null.
+     */
+    private static Diff.Lines lines(String text, Diff.Interner interner) {
+        if (text == null) {
+            return null;
+        }
+        return Diff.Lines.read(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.ISO_8859_1)), interner);
+    }
+
+    /**
+     * Returns a random file of a few lines out of a few distinct ones,
+     * sometimes without a newline at the end.
+     *
+     * @param random the random generator.
+     * @return the content of the file.
+     */
+    private static String randomFile(Random random) {
+        StringBuilder result = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i += 1) {
+            result.append((char) ('a' + random.nextInt(4))).append('\n');
+        }
+        if (length > 0 && random.nextInt(4) == 0) {
+            result.setLength(result.length() - 1);
+        }
+        return result.toString();
+    }
+}
@@ -1,6 +1,12 @@
 package gitlet;
 
 import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import static gitlet.Utils.*;
 
@@ -17,10 +23,54 @@ public class Main {
      * we've separated the code into different methods for each command.
      */
     public static void main(String[] args) {
+        if (System.getenv("GITLET_CACHE_STATS") != null) {
+            // a daemon serves many commands, so the statistics are printed when it exits.
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> System.err.print(ObjectCache.stats())));
+        }
+        try {
+            run(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the command with the given arguments.
+     * The errors of the command are thrown as GitletExceptions whose message is to be printed,
+     * so that a daemon can run many commands in the same process.
+     * With GITLET_TRACE set, the command is traced (see Trace).
+     *
+     * @param args the command line arguments.
+     */
+    static void run(String[] args) {
         if (args.length == 0) {
-            message("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
+        String firstArg = args[0];
+        if (firstArg.equals("daemon")) {
+            // the daemon traces each of the commands it serves instead.
+            dispatch(args);
+            return;
+        }
+        try (Trace.Span command = Trace.command(firstArg)) {
+            if (firstArg.equals("init") || !Repository.GITLET_DIR.isDirectory()) {
+                dispatch(args);
+                return;
+            }
+            // the commands of concurrent processes run one after the other.
+            try (RepositoryLock lock = RepositoryLock.acquire(Repository.GITLET_DIR)) {
+                dispatch(args);
+            }
+        }
+    }
+
+    /**
+     * Runs the command with the given arguments, as for run.
+     *
+     * @param args the command line arguments.
+     */
+    private static void dispatch(String[] args) {
         String firstArg = args[0];
         switch (firstArg) {
             case "init":
@@ -77,11 +127,28 @@ public class Main {
             case "pull":
                 pull(args);
                 break;
+            case "diff":
+                diff(args);
+                break;
+            case "sparse-checkout":
+                sparseCheckout(args);
+                break;
+            case "repack":
+                repack(args);
+                break;
+            case "gc":
+                gc(args);
+                break;
+            case "migrate":
+                migrate(args);
+                break;
+            case "daemon":
+                daemon(args);
+                break;
             default:
                 // not precise enough, but it's a start
                 // firstly I think it not precise enough, but it's enough.
-                message("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
         }
     }
 
@@ -101,10 +168,12 @@ public class Main {
      * @param args The command line arguments for the add command
      */
     private static void add(String[] args) {
-        validateNumArgsAndFormat("add", args, 2);
+        // add PATH... (files, directories or glob patterns)
+        if (args.length < 2) {
+            throw error("Incorrect operands.");
+        }
         validateGitletDirectory(new File(".gitlet"));
-        String filename = args[1];   // the second argument is the filename
-        Repository.add(filename);
+        Repository.add(Arrays.asList(args).subList(1, args.length));
     }
 
     /**
@@ -125,10 +194,12 @@ public class Main {
      * @param args The command line arguments for the rm command
      */
     private static void rm(String[] args) {
-        validateNumArgsAndFormat("rm", args, 2);
+        // rm PATH... (files, directories or glob patterns)
+        if (args.length < 2) {
+            throw error("Incorrect operands.");
+        }
         validateGitletDirectory(new File(".gitlet"));
-        String rmFilename = args[1];   // the second argument is the filename
-        Repository.rm(rmFilename);
+        Repository.rm(Arrays.asList(args).subList(1, args.length));
     }
 
     /**
@@ -148,9 +219,33 @@ public class Main {
      * @param args The command line arguments for the global-log command
      */
     private static void globalLog(String[] args) {
-        validateNumArgsAndFormat("global-log", args, 1);
+        // global-log [--limit N] [--since yyyy-MM-dd]
+        if (args.length % 2 == 0) {
+            throw error("Incorrect operands.");
+        }
         validateGitletDirectory(new File(".gitlet"));
-        Repository.globalLog();
+        int limit = Repository.NO_LIMIT;
+        long since = Long.MIN_VALUE;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (args[i].equals("--limit")) {
+                    limit = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--since")) {
+                    // the dates of the commits are in the Pacific time zone.
+                    since = LocalDate.parse(args[i + 1])
+                            .atStartOfDay(TimeZone.getTimeZone("PST").toZoneId())
+                            .toInstant().toEpochMilli();
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw error("Incorrect operands.");
+        }
+        if (limit < 0) {
+            throw error("Incorrect operands.");
+        }
+        Repository.globalLog(limit, since);
     }
 
     /**
@@ -159,10 +254,17 @@ public class Main {
      * @param args The command line arguments for the find command
      */
     private static void find(String[] args) {
+        if (args.length == 3) {
+            // find [--exact | --prefix | --contains | --word] [commit message]
+            validateNumArgsAndFormat("find", args, 3);
+            validateGitletDirectory(new File(".gitlet"));
+            Repository.find(args[1], args[2]);
+            return;
+        }
         validateNumArgsAndFormat("find", args, 2);
         validateGitletDirectory(new File(".gitlet"));
         String commitMessage = args[1];   // the second argument is the commit message
-        Repository.find(commitMessage);
+        Repository.find("--exact", commitMessage);
     }
 
     /**
@@ -218,6 +320,12 @@ public class Main {
      * @param args The command line arguments for the merge command
      */
     private static void merge(String[] args) {
+        // merge [--diff3] BRANCH
+        if (args.length == 3 && args[1].equals("--diff3")) {
+            validateGitletDirectory(new File(".gitlet"));
+            Repository.merge(args[2], true);
+            return;
+        }
         validateNumArgsAndFormat("merge", args, 2);
         validateGitletDirectory(new File(".gitlet"));
         String mergeBranch = args[1];   // the second argument is the branch name
@@ -288,6 +396,100 @@ public class Main {
         Repository.pull(remoteNameToPull, branchToPull);
     }
 
+    /**
+     * Handles the repack command.
+     *
+     * @param args The command line arguments for the repack command
+     */
+    private static void repack(String[] args) {
+        validateNumArgsAndFormat("repack", args, 1);
+        validateGitletDirectory(new File(".gitlet"));
+        Repository.repack();
+    }
+
+    /**
+     * Handles the gc command.
+     *
+     * @param args The command line arguments for the gc command
+     */
+    private static void gc(String[] args) {
+        // gc [--grace DAYS]
+        long grace = GarbageCollector.DEFAULT_GRACE;
+        if (args.length == 3 && args[1].equals("--grace")) {
+            try {
+                grace = TimeUnit.DAYS.toMillis(Long.parseLong(args[2]));
+            } catch (NumberFormatException e) {
+                throw error("Incorrect operands.");
+            }
+            if (grace < 0) {
+                throw error("Incorrect operands.");
+            }
+        } else if (args.length != 1) {
+            throw error("Incorrect operands.");
+        }
+        validateGitletDirectory(new File(".gitlet"));
+        Repository.gc(grace);
+    }
+
+    /**
+     * Handles the diff command.
+     *
+     * @param args The command line arguments for the diff command
+     */
+    private static void diff(String[] args) {
+        // diff [COMMIT [COMMIT]]
+        if (args.length > 3) {
+            throw error("Incorrect operands.");
+        }
+        validateGitletDirectory(new File(".gitlet"));
+        Repository.diff(args.length > 1 ? args[1] : null, args.length > 2 ? args[2] : null);
+    }
+
+    /**
+     * Handles the sparse-checkout command.
+     *
+     * @param args The command line arguments for the sparse-checkout command
+     */
+    private static void sparseCheckout(String[] args) {
+        // sparse-checkout set PATTERN... | sparse-checkout list | sparse-checkout disable
+        validateGitletDirectory(new File(".gitlet"));
+        if (args.length >= 3 && args[1].equals("set")) {
+            Repository.sparseCheckout(Arrays.asList(args).subList(2, args.length));
+        } else if (args.length == 2 && args[1].equals("disable")) {
+            Repository.sparseCheckout(List.of());
+        } else if (args.length == 2 && args[1].equals("list")) {
+            Repository.sparseCheckoutList();
+        } else {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Handles the migrate command.
+     *
+     * @param args The command line arguments for the migrate command
+     */
+    private static void migrate(String[] args) {
+        validateNumArgsAndFormat("migrate", args, 1);
+        validateGitletDirectory(new File(".gitlet"));
+        Repository.migrate();
+    }
+
+    /**
+     * Handles the daemon command.
+     * "daemon stop" only reaches this method when no daemon is running
+     * (a running daemon handles it itself).
+     *
+     * @param args The command line arguments for the daemon command
+     */
+    private static void daemon(String[] args) {
+        if (args.length == 2 && args[1].equals("stop")) {
+            throw error("No daemon is running.");
+        }
+        validateNumArgsAndFormat("daemon", args, 1);
+        validateGitletDirectory(new File(".gitlet"));
+        Daemon.serve();
+    }
 
     /**
      * Handles the checkout command.
@@ -317,7 +519,7 @@ public class Main {
     /**
      * Checks the number of arguments versus the expected number,
      * if the number is correct, validates the format of the operands.
-     * If not, print an error message and exits.
+     * If not, throws the error message.
      *
      * @param cmd  Name of command you're validating
      * @param args Argument array from command line
@@ -327,32 +529,33 @@ public class Main {
         // validate the format of the operands
         if (cmd.equals("commit")) {
             if (args[1].isEmpty()) {
-                message("Please enter a commit message.");
-                System.exit(0);
+                throw error("Please enter a commit message.");
+            }
+        }
+        if (cmd.equals("find") && n == 3) {
+            if (!List.of("--exact", "--prefix", "--contains", "--word").contains(args[1])) {
+                throw error("Incorrect operands.");
             }
         }
         if (cmd.equals("checkout") && n == 4) {
             if (!args[2].equals("--")) {
-                message("Incorrect operands.");
-                System.exit(0);
+                throw error("Incorrect operands.");
             }
         }
         if (args.length != n) {
-            message("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
     /**
      * Checks if the current directory is a Gitlet directory.
-     * If not, print an error message and exits.
+     * If not, throws the error message.
      *
      * @param gitletDir The Gitlet directory to check
      */
     public static void validateGitletDirectory(File gitletDir) {
         if (!gitletDir.exists()) {
-            message("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
 }
@@ -0,0 +1,766 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit-message index of a repository, used by the find command.
+ * It is made of two files in the .gitlet directory:
+ * - message-index: the index of the commits it was last compacted with, memory-mapped,
+ * so a query only reads the few entries it looks up instead of decoding the whole index.
+ * - message-index-log: the commits added since, appended one record per commit
+ * (20-byte raw id, length and UTF-8 bytes of the message), which a query scans.
+ * The index file is laid out as:
+ * - a header: magic number, version and the numbers of commits, messages, words and trigrams,
+ * - the 20-byte raw ids of the commits, in sorted order,
+ * - three tables of offsets, one per dictionary, then the entries of the dictionaries.
+ * The dictionaries are sorted by the UTF-8 bytes of their keys, so a key is found
+ * by a binary search over its table, and the keys starting with a prefix are contiguous:
+ * - messages: each message and the positions of its commits, for exact and prefix queries.
+ * - words: each word (lower case) and the positions of the commits whose message contains it,
+ * for word queries.
+ * - trigrams: each 3-character substring and the positions of the messages that contain it,
+ * to find the candidates of a substring query.
+ * Saving a commit appends it to the log, and the log is merged into the index file
+ * by repack and gc, and when it reaches LOG_LIMIT commits.
+ * The commit-graph holds every commit, so when its size differs from the number of commits
+ * of the index (e.g. commits pushed by another repository), load indexes the missing ones,
+ * without listing the commit objects.
+ *
+ * @author R7CKB
+ */
+class MessageIndex {
+
+    /**
+     * The file where the compacted message index is stored.
+     */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "message-index");
+
+    /**
+     * The file where the commits added since the last compaction are appended.
+     */
+    static final File LOG_FILE = join(Repository.GITLET_DIR, "message-index-log");
+
+    /**
+     * The magic number at the start of the index file ("GMSG").
+     * Index files written by older versions (Java-serialized or encoded by Codec)
+     * don't start with it, they are ignored and the commits are indexed again.
+     */
+    private static final int MAGIC = 0x474d5347;
+
+    /**
+     * The version of the index file format.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the header of the index file.
+     */
+    private static final int HEADER = 24;
+
+    /**
+     * The magic number at the start of the log ("GMSL").
+     */
+    private static final int LOG_MAGIC = 0x474d534c;
+
+    /**
+     * The version of the log format.
+     */
+    private static final int LOG_VERSION = 1;
+
+    /**
+     * The size of the header of the log: magic number, version and number of commits
+     * of the index file it extends.
+     */
+    private static final int LOG_HEADER = 12;
+
+    /**
+     * The number of commits of the log above which it is merged into the index file.
+     */
+    static final int LOG_LIMIT = 1024;
+
+    /**
+     * The dictionaries of the index file, in the order of their tables.
+     */
+    private static final int MESSAGES = 0;
+    private static final int WORDS = 1;
+    private static final int TRIGRAMS = 2;
+
+    /**
+     * The length of the substrings indexed for substring queries.
+     */
+    private static final int GRAM = 3;
+
+    /**
+     * The mapped index file, or null if there is none.
+     */
+    private ByteBuffer index;
+
+    /**
+     * The number of commits of the index file.
+     */
+    private int count;
+
+    /**
+     * The positions of the tables of offsets and the numbers of entries of the dictionaries.
+     */
+    private final int[] tables = new int[3];
+    private final int[] sizes = new int[3];
+
+    /**
+     * The ids and the messages of the commits of the log, in the order they were appended.
+     */
+    private final List<String> logIds = new ArrayList<>();
+    private final List<String> logMessages = new ArrayList<>();
+
+    /**
+     * The ids of the commits of the log.
+     */
+    private final Set<String> logged = new HashSet<>();
+
+    /**
+     * The end of the last complete record of the log, or 0 if there is no valid log.
+     */
+    private long logEnd;
+
+    /**
+     * Loads the message index of the current repository,
+     * and indexes the commits of the commit-graph that it doesn't contain yet.
+     *
+     * @return the message index.
+     */
+    static MessageIndex load() {
+        MessageIndex index = open();
+        CommitGraph graph = CommitGraph.LOCAL;
+        int total = graph.size();
+        if (total != index.size()) {
+            List<Commit> missing = new ArrayList<>();
+            for (int i = 0; i < total; i += 1) {
+                String id = graph.idAt(i);
+                if (!index.isIndexed(id)) {
+                    missing.add(Commit.fromFile(id));
+                }
+            }
+            index.append(missing);
+        }
+        return index;
+    }
+
+    /**
+     * Indexes again all the commits of the object store, after the gc command deleted some
+     * (or to replace an index written by an older version).
+     */
+    static void rebuild() {
+        TreeMap<String, String> commits = new TreeMap<>();
+        for (String id : ObjectStore.LOCAL.ids(ObjectStore.COMMITS)) {
+            commits.put(id, Commit.fromFile(id).getMessage());
+        }
+        write(commits);
+    }
+
+    /**
+     * Merges the log into the index file, if there is one.
+     */
+    static void compact() {
+        MessageIndex index = open();
+        if (index.index != null && index.logIds.isEmpty()) {
+            return;
+        }
+        index.compactAll();
+    }
+
+    /**
+     * Adds the given commit to the message index of the current repository.
+     *
+     * @param commit the new commit.
+     */
+    static void update(Commit commit) {
+        updateAll(List.of(commit));
+    }
+
+    /**
+     * Adds the given commits (e.g. fetched from a remote) to the message index
+     * of the current repository, appending them to the log in one write.
+     *
+     * @param commits the new commits.
+     */
+    static void updateAll(List<Commit> commits) {
+        open().append(commits);
+    }
+
+    /**
+     * Returns the number of commits in the index.
+     *
+     * @return the number of commits of the index file and of the log.
+     */
+    int size() {
+        return count + logIds.size();
+    }
+
+    /**
+     * Returns the ids of the commits whose message is exactly the given one.
+     *
+     * @param message the message.
+     * @return the sorted ids of the commits.
+     */
+    SortedSet<String> exact(String message) {
+        TreeSet<String> result = new TreeSet<>();
+        int i = find(MESSAGES, utf8(message));
+        if (i >= 0) {
+            addCommits(entry(MESSAGES, i), result);
+        }
+        for (int k = 0; k < logIds.size(); k += 1) {
+            if (logMessages.get(k).equals(message)) {
+                result.add(logIds.get(k));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the commits whose message starts with the given prefix.
+     *
+     * @param prefix the prefix.
+     * @return the sorted ids of the commits.
+     */
+    SortedSet<String> prefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        byte[] key = utf8(prefix);
+        // the messages starting with the prefix are a contiguous range of the sorted messages.
+        for (int i = lowerBound(MESSAGES, key); i < sizes[MESSAGES]; i += 1) {
+            int entry = entry(MESSAGES, i);
+            if (!startsWith(entry, key)) {
+                break;
+            }
+            addCommits(entry, result);
+        }
+        for (int k = 0; k < logIds.size(); k += 1) {
+            if (logMessages.get(k).startsWith(prefix)) {
+                result.add(logIds.get(k));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the commits whose message contains the given substring.
+     * The candidates are the messages that contain the rarest trigram of the substring,
+     * each of them is then checked.
+     *
+     * @param substring the substring.
+     * @return the sorted ids of the commits.
+     */
+    SortedSet<String> contains(String substring) {
+        TreeSet<String> result = new TreeSet<>();
+        int rarest = -1;
+        boolean missing = false;
+        for (int i = 0; i + GRAM <= substring.length() && !missing; i += 1) {
+            int gram = find(TRIGRAMS, utf8(substring.substring(i, i + GRAM)));
+            if (gram < 0) {
+                missing = true;
+            } else if (rarest < 0 || postingSize(entry(TRIGRAMS, gram))
+                    < postingSize(entry(TRIGRAMS, rarest))) {
+                rarest = gram;
+            }
+        }
+        if (!missing && rarest < 0) {
+            for (int i = 0; i < sizes[MESSAGES]; i += 1) {
+                addIfContains(entry(MESSAGES, i), substring, result);
+            }
+        } else if (!missing) {
+            int entry = entry(TRIGRAMS, rarest);
+            int posting = postingOffset(entry);
+            for (int j = 0; j < index.getInt(posting); j += 1) {
+                int message = index.getInt(posting + 4 + 4 * j);
+                addIfContains(entry(MESSAGES, message), substring, result);
+            }
+        }
+        for (int k = 0; k < logIds.size(); k += 1) {
+            if (logMessages.get(k).contains(substring)) {
+                result.add(logIds.get(k));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the commits whose message contains all the words of the given query.
+     * Words are compared case-insensitively.
+     *
+     * @param query the words to search for.
+     * @return the sorted ids of the commits.
+     */
+    SortedSet<String> words(String query) {
+        Set<String> tokens = tokenize(query);
+        TreeSet<String> result = null;
+        for (String token : tokens) {
+            TreeSet<String> ids = new TreeSet<>();
+            int i = find(WORDS, utf8(token));
+            if (i >= 0) {
+                addCommits(entry(WORDS, i), ids);
+            }
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+        }
+        if (result == null) {
+            return new TreeSet<>();
+        }
+        for (int k = 0; k < logIds.size(); k += 1) {
+            if (tokenize(logMessages.get(k)).containsAll(tokens)) {
+                result.add(logIds.get(k));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps the index file and reads the log of the current repository.
+     *
+     * @return the message index.
+     */
+    private static MessageIndex open() {
+        MessageIndex result = new MessageIndex();
+        result.mapIndex();
+        result.readLog();
+        return result;
+    }
+
+    /**
+     * Maps the index file, unless it is missing or was written by an older version.
+     */
+    private void mapIndex() {
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+        ByteBuffer mapped;
+        try (RandomAccessFile in = new RandomAccessFile(INDEX_FILE, "r")) {
+            FileChannel channel = in.getChannel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (mapped.limit() < HEADER || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            return;
+        }
+        count = mapped.getInt(8);
+        int table = HEADER + count * Pack.RAW_ID_LENGTH;
+        for (int d = 0; d < 3; d += 1) {
+            sizes[d] = mapped.getInt(12 + 4 * d);
+            tables[d] = table;
+            table += 4 * sizes[d];
+        }
+        index = mapped;
+    }
+
+    /**
+     * Reads the log, ignoring a log that extends another index file (left by a crash,
+     * see write) and a partial record at its end.
+     */
+    private void readLog() {
+        if (!LOG_FILE.isFile()) {
+            return;
+        }
+        ByteBuffer log = ByteBuffer.wrap(readContents(LOG_FILE));
+        if (log.limit() < LOG_HEADER || log.getInt(0) != LOG_MAGIC
+                || log.getInt(4) != LOG_VERSION || log.getInt(8) != count) {
+            return;
+        }
+        log.position(LOG_HEADER);
+        logEnd = LOG_HEADER;
+        byte[] raw = new byte[Pack.RAW_ID_LENGTH];
+        while (log.remaining() >= Pack.RAW_ID_LENGTH + 4) {
+            log.get(raw);
+            int length = log.getInt();
+            if (length < 0 || log.remaining() < length) {
+                break;
+            }
+            String id = toHex(raw);
+            logIds.add(id);
+            logged.add(id);
+            logMessages.add(new String(log.array(), log.position(), length,
+                    StandardCharsets.UTF_8));
+            log.position(log.position() + length);
+            logEnd = log.position();
+        }
+    }
+
+    /**
+     * Appends the given commits that are not indexed yet to the log, creating it (or replacing
+     * a log that doesn't extend the current index file) if needed, and merges the log into
+     * the index file once it reaches LOG_LIMIT commits.
+     * A partial record left by an interrupted append is overwritten.
+     *
+     * @param commits the commits.
+     */
+    private void append(List<Commit> commits) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Commit commit : commits) {
+                String id = commit.getId();
+                if (isIndexed(id)) {
+                    continue;
+                }
+                byte[] message = utf8(commit.getMessage());
+                out.write(Pack.toRaw(id));
+                out.writeInt(message.length);
+                out.write(message);
+                logIds.add(id);
+                logged.add(id);
+                logMessages.add(commit.getMessage());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (bytes.size() == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (logEnd == 0) {
+                ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+                header.putInt(LOG_MAGIC).putInt(LOG_VERSION).putInt(count).flip();
+                channel.write(header, 0);
+                logEnd = LOG_HEADER;
+            }
+            channel.truncate(logEnd);
+            ByteBuffer records = ByteBuffer.wrap(bytes.toByteArray());
+            while (records.hasRemaining()) {
+                logEnd += channel.write(records, logEnd);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (logIds.size() >= LOG_LIMIT) {
+            compactAll();
+        }
+    }
+
+    /**
+     * Writes the commits of the index file and of the log as a new index file.
+     */
+    private void compactAll() {
+        TreeMap<String, String> commits = new TreeMap<>();
+        for (int i = 0; i < sizes[MESSAGES]; i += 1) {
+            int entry = entry(MESSAGES, i);
+            String message = keyString(entry);
+            Set<String> ids = new TreeSet<>();
+            addCommits(entry, ids);
+            for (String id : ids) {
+                commits.put(id, message);
+            }
+        }
+        for (int k = 0; k < logIds.size(); k += 1) {
+            commits.put(logIds.get(k), logMessages.get(k));
+        }
+        write(commits);
+    }
+
+    /**
+     * Writes the given commits as the new index file.
+     * The log is deleted before the new file is installed: a crash in between loses
+     * the commits of the log from the index, and load indexes them again.
+     *
+     * @param commits the messages of the commits, by id.
+     */
+    private static void write(TreeMap<String, String> commits) {
+        Map<String, Integer> idPositions = new HashMap<>();
+        TreeMap<byte[], TreeSet<Integer>> messages = new TreeMap<>(Arrays::compareUnsigned);
+        TreeMap<byte[], TreeSet<Integer>> words = new TreeMap<>(Arrays::compareUnsigned);
+        for (Map.Entry<String, String> commit : commits.entrySet()) {
+            int position = idPositions.size();
+            idPositions.put(commit.getKey(), position);
+            String message = commit.getValue();
+            messages.computeIfAbsent(utf8(message), k -> new TreeSet<>()).add(position);
+            for (String token : tokenize(message)) {
+                words.computeIfAbsent(utf8(token), k -> new TreeSet<>()).add(position);
+            }
+        }
+        TreeMap<byte[], TreeSet<Integer>> trigrams = new TreeMap<>(Arrays::compareUnsigned);
+        int messagePosition = 0;
+        for (byte[] key : messages.keySet()) {
+            String message = new String(key, StandardCharsets.UTF_8);
+            for (int i = 0; i + GRAM <= message.length(); i += 1) {
+                trigrams.computeIfAbsent(utf8(message.substring(i, i + GRAM)),
+                        k -> new TreeSet<>()).add(messagePosition);
+            }
+            messagePosition += 1;
+        }
+        List<TreeMap<byte[], TreeSet<Integer>>> dictionaries = List.of(messages, words, trigrams);
+        int tables = HEADER + commits.size() * Pack.RAW_ID_LENGTH;
+        int data = tables + 4 * (messages.size() + words.size() + trigrams.size());
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes);
+             DataOutputStream entryOut = new DataOutputStream(entries)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commits.size());
+            for (TreeMap<byte[], TreeSet<Integer>> dictionary : dictionaries) {
+                out.writeInt(dictionary.size());
+            }
+            for (String id : commits.keySet()) {
+                out.write(Pack.toRaw(id));
+            }
+            for (TreeMap<byte[], TreeSet<Integer>> dictionary : dictionaries) {
+                for (Map.Entry<byte[], TreeSet<Integer>> entry : dictionary.entrySet()) {
+                    out.writeInt(data + entryOut.size());
+                    entryOut.writeInt(entry.getKey().length);
+                    entryOut.write(entry.getKey());
+                    entryOut.writeInt(entry.getValue().size());
+                    for (int position : entry.getValue()) {
+                        entryOut.writeInt(position);
+                    }
+                }
+            }
+            entryOut.flush();
+            entries.writeTo(out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        LOG_FILE.delete();
+        Journal.writeAtomic(INDEX_FILE, bytes.toByteArray());
+    }
+
+    /**
+     * Returns true if the commit with the given id is in the index.
+     *
+     * @param id the id of the commit.
+     * @return true if the commit is in the index file or in the log.
+     */
+    private boolean isIndexed(String id) {
+        if (logged.contains(id)) {
+            return true;
+        }
+        byte[] target = Pack.toRaw(id);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareRaw(HEADER + mid * Pack.RAW_ID_LENGTH, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compares the raw id stored at the given position of the index file with the target.
+     *
+     * @param position the position of the raw id.
+     * @param target   the raw id to compare with.
+     * @return a negative number, zero or a positive number, as for Comparable.
+     */
+    private int compareRaw(int position, byte[] target) {
+        for (int k = 0; k < target.length; k += 1) {
+            int a = index.get(position + k) & 0xff;
+            int b = target[k] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the position in the index file of the i-th entry of the given dictionary.
+     *
+     * @param dictionary MESSAGES, WORDS or TRIGRAMS.
+     * @param i          the position of the entry in the dictionary.
+     * @return the offset of the entry.
+     */
+    private int entry(int dictionary, int i) {
+        return index.getInt(tables[dictionary] + 4 * i);
+    }
+
+    /**
+     * Returns the position of the first key of the given dictionary that is not smaller
+     * than the given key, comparing their UTF-8 bytes.
+     *
+     * @param dictionary MESSAGES, WORDS or TRIGRAMS.
+     * @param key        the UTF-8 bytes of the key.
+     * @return the position of the key, or the size of the dictionary if all keys are smaller.
+     */
+    private int lowerBound(int dictionary, byte[] key) {
+        int low = 0;
+        int high = sizes[dictionary];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareKey(entry(dictionary, mid), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Binary searches the given dictionary for the given key.
+     *
+     * @param dictionary MESSAGES, WORDS or TRIGRAMS.
+     * @param key        the UTF-8 bytes of the key.
+     * @return the position of the key in the dictionary, or -1 if it is not found.
+     */
+    private int find(int dictionary, byte[] key) {
+        int i = lowerBound(dictionary, key);
+        if (i < sizes[dictionary] && compareKey(entry(dictionary, i), key) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the key of the entry at the given position with the given key.
+     *
+     * @param entry the offset of the entry.
+     * @param key   the UTF-8 bytes of the key.
+     * @return a negative number, zero or a positive number, as for Comparable.
+     */
+    private int compareKey(int entry, byte[] key) {
+        int length = index.getInt(entry);
+        for (int k = 0; k < length && k < key.length; k += 1) {
+            int a = index.get(entry + 4 + k) & 0xff;
+            int b = key[k] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Returns true if the key of the entry at the given position starts with the given bytes.
+     *
+     * @param entry  the offset of the entry.
+     * @param prefix the UTF-8 bytes of the prefix.
+     * @return true if the key starts with the prefix.
+     */
+    private boolean startsWith(int entry, byte[] prefix) {
+        if (index.getInt(entry) < prefix.length) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length; k += 1) {
+            if (index.get(entry + 4 + k) != prefix[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of the entry at the given position.
+     *
+     * @param entry the offset of the entry.
+     * @return the key.
+     */
+    private String keyString(int entry) {
+        byte[] key = new byte[index.getInt(entry)];
+        index.get(entry + 4, key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the position of the posting list of the entry at the given position.
+     *
+     * @param entry the offset of the entry.
+     * @return the offset of its posting list (its size followed by the positions).
+     */
+    private int postingOffset(int entry) {
+        return entry + 4 + index.getInt(entry);
+    }
+
+    /**
+     * Returns the number of positions of the posting list of the entry at the given position.
+     *
+     * @param entry the offset of the entry.
+     * @return the size of its posting list.
+     */
+    private int postingSize(int entry) {
+        return index.getInt(postingOffset(entry));
+    }
+
+    /**
+     * Adds the ids of the commits of the posting list of the given message or word entry.
+     *
+     * @param entry  the offset of the entry.
+     * @param result the set to add the ids to.
+     */
+    private void addCommits(int entry, Set<String> result) {
+        int posting = postingOffset(entry);
+        int size = index.getInt(posting);
+        byte[] raw = new byte[Pack.RAW_ID_LENGTH];
+        for (int j = 0; j < size; j += 1) {
+            int commit = index.getInt(posting + 4 + 4 * j);
+            index.get(HEADER + commit * Pack.RAW_ID_LENGTH, raw);
+            result.add(toHex(raw));
+        }
+    }
+
+    /**
+     * Adds the ids of the commits of the given message entry if the message contains
+     * the given substring.
+     *
+     * @param entry     the offset of the message entry.
+     * @param substring the substring.
+     * @param result    the set to add the ids to.
+     */
+    private void addIfContains(int entry, String substring, Set<String> result) {
+        if (keyString(entry).contains(substring)) {
+            addCommits(entry, result);
+        }
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the given string.
+     *
+     * @param s the string.
+     * @return its UTF-8 bytes.
+     */
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits the given text into lower-case words (runs of letters and digits).
+     *
+     * @param text the text to split.
+     * @return the set of words.
+     */
+    private static Set<String> tokenize(String text) {
+        Set<String> result = new HashSet<>();
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded cache of the objects read from the local object store, keyed by object id.
+ * A command fills the caches as it reads, and the daemon keeps them between commands.
+ * Objects are content-addressed, so an id always denotes the same object
+ * and a cached object is never stale. It may have been deleted by gc though,
+ * so the caches are emptied after a gc: by gc itself, and by the daemon
+ * when another process rewrote a pack, which a gc that deletes objects always does
+ * (see ObjectStore.prune). Otherwise a command could still read a pruned object,
+ * e.g. reset a branch to a pruned commit.
+ * Each object has a weight (an estimate of its size in bytes),
+ * and the least recently used objects are evicted when the total weight exceeds the capacity.
+ * The cached objects are shared, so they must never be modified by the callers.
+ * The caches count their hits, misses and evictions;
+ * set the environment variable GITLET_CACHE_STATS to print them when the command ends.
+ *
+ * @param <V> the type of the cached objects.
+ * @author R7CKB
+ */
+class ObjectCache<V> {
+
+    /**
+     * All the caches that were created, for the statistics.
+     */
+    private static final List<ObjectCache<?>> CACHES = new ArrayList<>();
+
+    /**
+     * The name of this cache, used in the statistics.
+     */
+    private final String name;
+
+    /**
+     * The maximum total weight of the cached objects.
+     */
+    private final long capacity;
+
+    /**
+     * Computes the weight of an object.
+     */
+    private final ToLongFunction<V> weigher;
+
+    /**
+     * The cached objects, from the least to the most recently used.
+     */
+    private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The weights of the cached objects when they were put, by id,
+     * so that an object that grew since (e.g. a commit whose blobMap was read) is put again
+     * and weighed anew without breaking the total weight.
+     */
+    private final Map<String, Long> weights = new HashMap<>();
+
+    /**
+     * The total weight of the cached objects.
+     */
+    private long weight;
+
+    /**
+     * The numbers of hits, misses and evictions.
+     */
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param name     the name of the cache.
+     * @param capacity the maximum total weight of the cached objects.
+     * @param weigher  computes the weight of an object.
+     */
+    ObjectCache(String name, long capacity, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.capacity = capacity;
+        this.weigher = weigher;
+        synchronized (CACHES) {
+            CACHES.add(this);
+        }
+    }
+
+    /**
+     * Returns the object with the given id, loading it if it isn't cached.
+     * The object is loaded without holding the lock of the cache,
+     * so that the workers of a parallel command don't wait for each other's reads;
+     * two workers missing the same id at the same time may both load it.
+     *
+     * @param id     the id of the object.
+     * @param loader loads the object with the given id.
+     * @return the object.
+     */
+    V get(String id, Function<String, V> loader) {
+        synchronized (this) {
+            V value = entries.get(id);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+        }
+        misses.increment();
+        V value = loader.apply(id);
+        put(id, value);
+        return value;
+    }
+
+    /**
+     * Adds the given object to the cache (e.g. an object that was just written),
+     * then evicts the least recently used objects until the cache fits its capacity.
+     * Putting an object again weighs it anew, e.g. after it grew.
+     * An object heavier than the whole capacity is not cached.
+     *
+     * @param id    the id of the object.
+     * @param value the object.
+     */
+    synchronized void put(String id, V value) {
+        long w = weigher.applyAsLong(value);
+        Long old = weights.remove(id);
+        if (old != null) {
+            entries.remove(id);
+            weight -= old;
+        }
+        if (w > capacity) {
+            return;
+        }
+        entries.put(id, value);
+        weights.put(id, w);
+        weight += w;
+        Iterator<String> it = entries.keySet().iterator();
+        while (weight > capacity && it.hasNext()) {
+            weight -= weights.remove(it.next());
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Removes all the objects from this cache.
+     */
+    private synchronized void clear() {
+        entries.clear();
+        weights.clear();
+        weight = 0;
+    }
+
+    /**
+     * Removes all the objects from all the caches.
+     */
+    static void clearAll() {
+        synchronized (CACHES) {
+            for (ObjectCache<?> cache : CACHES) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the statistics of this cache.
+     *
+     * @return a line with the hits, misses, evictions and size of the cache.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d hits, %d misses, %d evictions, %d objects (%d/%d bytes)",
+                name, hits.sum(), misses.sum(), evictions.sum(), entries.size(),
+                weight, capacity);
+    }
+
+    /**
+     * Returns the statistics of all the caches.
+     *
+     * @return one line per cache.
+     */
+    static String stats() {
+        StringBuilder result = new StringBuilder();
+        synchronized (CACHES) {
+            for (ObjectCache<?> cache : CACHES) {
+                result.append(cache).append(System.lineSeparator());
+            }
+        }
+        return result.toString();
+    }
+}
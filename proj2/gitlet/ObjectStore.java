@@ -0,0 +1,497 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the object database of a repository.
+ * An object (commit, tree or blob) is either a loose file under objects/[type]/[id],
+ * or an entry of the pack of its type under objects/pack/.
+ * New objects are always written as loose files,
+ * and the repack command moves all loose objects into the packs.
+ * The gc command deletes the objects that no ref reaches (see GarbageCollector and prune).
+ * Reading an object looks at the loose file first and then at the pack.
+ *
+ * @author R7CKB
+ */
+class ObjectStore {
+
+    /**
+     * The type (and directory name) of commit objects.
+     */
+    static final String COMMITS = "commits";
+
+    /**
+     * The type (and directory name) of tree objects.
+     */
+    static final String TREES = "trees";
+
+    /**
+     * The type (and directory name) of blob objects.
+     */
+    static final String BLOBS = "blobs";
+
+    /**
+     * All the types of objects, in the order they are packed.
+     */
+    static final String[] TYPES = {COMMITS, TREES, BLOBS};
+
+    /**
+     * The object store of the current repository.
+     */
+    static final ObjectStore LOCAL = new ObjectStore(Repository.OBJECTS_DIR);
+
+    /**
+     * The objects' directory of this store.
+     */
+    private final File objectsDir;
+
+    /**
+     * The packs of this store, one per type (same order as TYPES).
+     */
+    private final Pack[] packs;
+
+    /**
+     * Creates an object store over the given objects' directory.
+     *
+     * @param objectsDir the objects' directory (e.g. .gitlet/objects).
+     */
+    ObjectStore(File objectsDir) {
+        this.objectsDir = objectsDir;
+        this.packs = new Pack[TYPES.length];
+        for (int i = 0; i < TYPES.length; i += 1) {
+            packs[i] = new Pack(join(objectsDir, "pack"), TYPES[i]);
+        }
+    }
+
+    /**
+     * Returns the raw bytes of the object with the given type and id.
+     * Throws IllegalArgumentException if there is no such object.
+     *
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @return the bytes of the object.
+     */
+    byte[] read(String type, String id) {
+        long start = Trace.start();
+        File loose = looseFile(type, id);
+        byte[] bytes = loose.isFile() ? readContents(loose) : pack(type).read(id);
+        if (bytes == null) {
+            throw new IllegalArgumentException(loose.getPath() + " (No such file or directory)");
+        }
+        Trace.record(Trace.READ_OBJECT, start, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Returns a stream over the raw bytes of the object with the given type and id,
+     * so that large objects don't have to be read in memory.
+     * Throws IllegalArgumentException if there is no such object.
+     *
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @return the stream over the object.
+     */
+    InputStream open(String type, String id) {
+        File loose = looseFile(type, id);
+        try {
+            return new FileInputStream(loose);
+        } catch (FileNotFoundException excp) {
+            InputStream packed = pack(type).open(id);
+            if (packed == null) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return packed;
+        }
+    }
+
+    /**
+     * Copies the raw bytes of the object with the given type and id from another store
+     * into a new temporary file of this store, without decoding them or even copying them
+     * through the Java heap: a loose object is sent with FileChannel.transferTo,
+     * and a packed object is written from the mapped pack (see Pack.transferTo).
+     * The temporary file is not synced, see install.
+     *
+     * @param from the object store to copy from.
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @return the temporary file holding the bytes of the object.
+     */
+    File receive(ObjectStore from, String type, String id) {
+        File temp = tempFile();
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+            from.transferTo(type, id, out);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return temp;
+    }
+
+    /**
+     * Writes the raw bytes of the object with the given type and id to the given channel.
+     *
+     * @param type   the type of the object.
+     * @param id     the id of the object.
+     * @param target the channel to write to.
+     */
+    private void transferTo(String type, String id, WritableByteChannel target)
+            throws IOException {
+        File loose = looseFile(type, id);
+        if (loose.isFile()) {
+            try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, target);
+                }
+            }
+            return;
+        }
+        if (!pack(type).transferTo(id, target)) {
+            throw new IllegalArgumentException(loose.getPath() + " (No such file or directory)");
+        }
+    }
+
+    /**
+     * Flushes the given file (or directory) to the disk.
+     * Syncing a directory is not supported everywhere, so failing to do it is ignored.
+     *
+     * @param file the file to sync.
+     */
+    static void sync(File file) {
+        boolean isDirectory = file.isDirectory();
+        try (FileChannel channel = FileChannel.open(file.toPath(), isDirectory
+                ? StandardOpenOption.READ : StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!isDirectory) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Flushes the directories of the loose objects of every type to the disk,
+     * so that the objects moved into them survive a crash.
+     */
+    void syncDirectories() {
+        for (String type : TYPES) {
+            sync(looseDir(type));
+        }
+    }
+
+    /**
+     * Returns a new temporary file in the objects' directory,
+     * where a large object can be written before its id is known.
+     *
+     * @return the temporary file.
+     */
+    File tempFile() {
+        try {
+            return File.createTempFile("tmp_obj_", null, objectsDir);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Moves the given temporary file into the store as the object with the given type and id.
+     * The temporary file is simply deleted if the store already contains the object.
+     *
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @param temp the temporary file holding the bytes of the object.
+     */
+    void install(String type, String id, File temp) {
+        if (contains(type, id)) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), new File(looseDir(type), id).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the object with the given type and id as a loose file,
+     * unless the store already contains it.
+     *
+     * @param type  the type of the object.
+     * @param id    the id of the object.
+     * @param bytes the bytes of the object.
+     */
+    void write(String type, String id, byte[] bytes) {
+        long start = Trace.start();
+        if (!contains(type, id)) {
+            // written to a temporary file first, so a crash never leaves a truncated object.
+            File temp = tempFile();
+            writeContents(temp, bytes);
+            install(type, id, temp);
+        }
+        Trace.record(Trace.WRITE_OBJECT, start, bytes.length);
+    }
+
+    /**
+     * Writes the object with the given type and id as a loose file, even if the store
+     * already contains it (e.g. to change its format). The loose file takes precedence
+     * over the packed copy, and replaces it at the next repack.
+     *
+     * @param type  the type of the object.
+     * @param id    the id of the object.
+     * @param bytes the new bytes of the object.
+     * @return true if the object was packed, false otherwise.
+     */
+    boolean replace(String type, String id, byte[] bytes) {
+        boolean packed = !looseFile(type, id).isFile() && pack(type).contains(id);
+        File temp = tempFile();
+        writeContents(temp, bytes);
+        try {
+            Files.move(temp.toPath(), new File(looseDir(type), id).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return packed;
+    }
+
+    /**
+     * Returns true if the store contains the object with the given type and id.
+     *
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @return true if the object exists, false otherwise.
+     */
+    boolean contains(String type, String id) {
+        return looseFile(type, id).isFile() || pack(type).contains(id);
+    }
+
+    /**
+     * Returns the ids of all the objects of the given type, loose and packed, in sorted order.
+     *
+     * @param type the type of the objects.
+     * @return the sorted list of ids.
+     */
+    List<String> ids(String type) {
+        TreeSet<String> result = new TreeSet<>(pack(type).ids());
+        List<String> loose = plainFilenamesIn(join(objectsDir, type));
+        if (loose != null) {
+            result.addAll(loose);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Moves every loose object into the pack of its type.
+     * The loose files are deleted once the pack and its index are safely written.
+     *
+     * @return the number of objects that were packed.
+     */
+    int repack() {
+        int packed = 0;
+        for (String type : TYPES) {
+            List<String> names = plainFilenamesIn(join(objectsDir, type));
+            if (names == null || names.isEmpty()) {
+                continue;
+            }
+            List<File> looseFiles = new ArrayList<>();
+            for (String name : names) {
+                looseFiles.add(looseFile(type, name));
+            }
+            pack(type).append(looseFiles);
+            for (File file : looseFiles) {
+                file.delete();
+            }
+            packed += looseFiles.size();
+        }
+        return packed;
+    }
+
+    /**
+     * Deletes the objects that are not live and are older than the given time.
+     * The packs are rewritten with their live objects and the live loose objects,
+     * which drops the dead objects and the old bytes of the replaced ones.
+     * A dead object that is newer than the given time is kept: it may belong to a command
+     * that is still running, or be the staged content of a file. A packed object is as old as
+     * its pack, so the recent dead objects of an old pack are kept as loose files instead.
+     * The new packs are installed together by a journal, and the loose files are deleted
+     * only once they are safely packed, so a crash never loses a live object.
+     * The reclaimed bytes are those of the deleted objects: the repacking of the live objects
+     * changes the size of the packs as well, but it isn't counted.
+     *
+     * @param live   tells whether the object with the given type and id is reachable.
+     * @param cutoff the time (in milliseconds) before which a dead object is deleted.
+     * @return the number of bytes taken by the deleted objects and temporary files.
+     */
+    long prune(BiPredicate<String, String> live, long cutoff) {
+        Journal journal = new Journal();
+        List<File> obsolete = new ArrayList<>();
+        long reclaimed = 0;
+        for (String type : TYPES) {
+            Pack pack = pack(type);
+            pack.deleteRewrite();
+            List<String> names = plainFilenamesIn(join(objectsDir, type));
+            Set<String> loose = new HashSet<>();
+            List<File> looseFiles = new ArrayList<>();
+            if (names != null) {
+                for (String name : names) {
+                    File file = looseFile(type, name);
+                    loose.add(name);
+                    if (live.test(type, name)) {
+                        looseFiles.add(file);
+                        obsolete.add(file);
+                    } else if (file.lastModified() < cutoff) {
+                        obsolete.add(file);
+                        reclaimed += file.length() + pack.length(name);
+                    }
+                }
+            }
+            List<String> keep = new ArrayList<>();
+            long packTime = pack.lastModified();
+            for (String id : pack.ids()) {
+                // a loose copy replaces the packed one.
+                if (loose.contains(id)) {
+                    continue;
+                }
+                if (live.test(type, id)) {
+                    keep.add(id);
+                } else if (packTime < cutoff) {
+                    reclaimed += pack.length(id);
+                } else {
+                    File temp = tempFile();
+                    writeContents(temp, pack.read(id));
+                    temp.setLastModified(packTime);
+                    try {
+                        Files.move(temp.toPath(), new File(looseDir(type), id).toPath(),
+                                StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException excp) {
+                        temp.delete();
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+            }
+            if (pack.exists() || !looseFiles.isEmpty()) {
+                pack.rewrite(keep, looseFiles, journal);
+            }
+        }
+        syncDirectories();
+        journal.commit();
+        for (Pack pack : packs) {
+            pack.unload();
+        }
+        for (File file : obsolete) {
+            file.delete();
+        }
+        List<String> temps = plainFilenamesIn(objectsDir);
+        if (temps != null) {
+            for (String name : temps) {
+                File temp = join(objectsDir, name);
+                if (name.startsWith("tmp_obj_") && temp.lastModified() < cutoff) {
+                    reclaimed += temp.length();
+                    temp.delete();
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Returns the space taken by the objects on the disk: the loose files and the packs.
+     *
+     * @return the total size of the files, in bytes.
+     */
+    long diskUsage() {
+        return diskUsage(objectsDir);
+    }
+
+    /**
+     * As a helper method to sum the sizes of the files of the given directory.
+     *
+     * @param dir the directory.
+     * @return the total size of its files and of those of its subdirectories.
+     */
+    private static long diskUsage(File dir) {
+        long total = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                total += file.isDirectory() ? diskUsage(file) : file.length();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Forgets the packs that another process changed since this process last saw them.
+     *
+     * @return true if another process changed a pack, false otherwise.
+     */
+    boolean refresh() {
+        boolean changed = false;
+        for (Pack pack : packs) {
+            changed |= pack.refresh();
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the loose file of the object with the given type and id.
+     *
+     * @param type the type of the object.
+     * @param id   the id of the object.
+     * @return the loose file of the object.
+     */
+    private File looseFile(String type, String id) {
+        return join(objectsDir, type, id);
+    }
+
+    /**
+     * Returns the directory of the loose objects of the given type,
+     * creating it if needed (repositories created by older versions may lack some types).
+     *
+     * @param type the type of the objects.
+     * @return the directory of the loose objects.
+     */
+    private File looseDir(String type) {
+        File dir = join(objectsDir, type);
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    /**
+     * Returns the pack of the given type.
+     *
+     * @param type the type of the objects.
+     * @return the pack of the type.
+     */
+    private Pack pack(String type) {
+        for (int i = 0; i < TYPES.length; i += 1) {
+            if (TYPES[i].equals(type)) {
+                return packs[i];
+            }
+        }
+        throw new IllegalArgumentException("unknown object type: " + type);
+    }
+}
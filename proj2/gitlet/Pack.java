@@ -0,0 +1,733 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a packfile of one kind of object (commits or blobs) in Gitlet.
+ * A pack is made of two files:
+ * - [type].pack: the raw bytes of every packed object, appended one after another.
+ * - [type].idx: a sorted table of (20-byte id, offset, length) entries
+ * that locates each object inside the pack.
+ * The pack file is append-only, only the (small) index file is rewritten when objects are added;
+ * the gc command rewrites both files to drop the objects that are no longer needed.
+ * Both files are memory-mapped, so a lookup is a binary search over the index
+ * followed by a single copy out of the pack, without opening any file.
+ * Offsets and lengths are 64-bit, and the pack is mapped in windows of WINDOW_SIZE bytes
+ * (each window also maps the next one, so that an object no larger than a window always
+ * lies in the window of its offset): a mapping is limited to 2 GB, a pack is not.
+ * An object larger than a window (a large streamed blob) is never mapped,
+ * it is read with positional reads of the pack file instead.
+ *
+ * @author R7CKB
+ */
+class Pack {
+
+    /**
+     * The magic number at the start of a pack file ("GPAK").
+     */
+    private static final int PACK_MAGIC = 0x47504b41;
+
+    /**
+     * The magic number at the start of an index file ("GIDX").
+     */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /**
+     * The version of the pack format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The version of the index format: version 1 stored the lengths as ints,
+     * version 2 stores them as longs. Version 1 indexes are still read.
+     */
+    private static final int INDEX_VERSION = 2;
+
+    /**
+     * The header of both files: magic number and version (and entry count for the index).
+     */
+    private static final int PACK_HEADER = 8;
+    private static final int INDEX_HEADER = 12;
+
+    /**
+     * The length of a raw SHA-1 id.
+     */
+    static final int RAW_ID_LENGTH = 20;
+
+    /**
+     * The size of one index entry: raw id, offset (long) and length (long).
+     */
+    private static final int ENTRY_SIZE = RAW_ID_LENGTH + 8 + 8;
+
+    /**
+     * The size of one entry of a version 1 index: raw id, offset (long) and length (int).
+     */
+    private static final int V1_ENTRY_SIZE = RAW_ID_LENGTH + 8 + 4;
+
+    /**
+     * The size of the windows the pack is mapped in (a window maps twice as many bytes).
+     */
+    static final long WINDOW_SIZE = 1L << 29;
+
+    /**
+     * The suffix of the files of a pack being rewritten.
+     */
+    private static final String NEW_SUFFIX = ".new";
+
+    /**
+     * The pack file, which stores the objects.
+     */
+    private final File packFile;
+
+    /**
+     * The index file, which stores the sorted offsets of the objects.
+     */
+    private final File indexFile;
+
+    /**
+     * The size of the windows of this pack.
+     */
+    private final long windowSize;
+
+    /**
+     * The windows of the pack file mapped so far (null until they are used).
+     */
+    private ByteBuffer[] windows;
+
+    /**
+     * The length of the pack file when it was loaded.
+     */
+    private long packLength;
+
+    /**
+     * The mapped index file, or null if it is not loaded yet.
+     */
+    private ByteBuffer indexBuffer;
+
+    /**
+     * The number of objects in the pack.
+     */
+    private int count;
+
+    /**
+     * The size of the entries of the mapped index (depends on its version).
+     */
+    private int entrySize;
+
+    /**
+     * The modification time and the length of the index file when this process last saw it:
+     * when it mapped it, or unloaded it after writing it, or refreshed it.
+     */
+    private long seenTime;
+    private long seenLength;
+
+    /**
+     * Creates a pack of the given type in the given directory.
+     * The files are created only when objects are appended to the pack.
+     *
+     * @param packDir the directory of the pack files.
+     * @param type    the type of the objects (e.g. "commits").
+     */
+    Pack(File packDir, String type) {
+        this(packDir, type, WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a pack of the given type in the given directory, mapped in windows
+     * of the given size (the tests use small windows to cover the objects larger than one).
+     *
+     * @param packDir    the directory of the pack files.
+     * @param type       the type of the objects (e.g. "commits").
+     * @param windowSize the size of the windows, at most WINDOW_SIZE.
+     */
+    Pack(File packDir, String type, long windowSize) {
+        this.packFile = join(packDir, type + ".pack");
+        this.indexFile = join(packDir, type + ".idx");
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Returns true if the pack exists on disk.
+     *
+     * @return true if the pack exists on disk, false otherwise.
+     */
+    boolean exists() {
+        return packFile.isFile() && indexFile.isFile();
+    }
+
+    /**
+     * Returns the time the pack file was last modified, i.e. when objects were last added to it.
+     *
+     * @return the modification time in milliseconds, or 0 if the pack doesn't exist.
+     */
+    long lastModified() {
+        return packFile.lastModified();
+    }
+
+    /**
+     * Returns the number of objects in the pack.
+     *
+     * @return the number of objects in the pack.
+     */
+    int size() {
+        return load() ? count : 0;
+    }
+
+    /**
+     * Returns true if the pack contains the object with the given id.
+     *
+     * @param id the id of the object.
+     * @return true if the pack contains the object, false otherwise.
+     */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Returns the number of bytes the object with the given id takes in the pack.
+     *
+     * @param id the id of the object.
+     * @return the length of the object, or 0 if the pack doesn't contain it.
+     */
+    long length(String id) {
+        long[] entry = entry(id);
+        return entry == null ? 0 : entry[1];
+    }
+
+    /**
+     * Returns the raw bytes of the object with the given id.
+     *
+     * @param id the id of the object.
+     * @return the bytes of the object, or null if the pack doesn't contain it.
+     */
+    byte[] read(String id) {
+        long[] entry = entry(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry[1] > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("object too large to read in memory: " + id);
+        }
+        byte[] result = new byte[(int) entry[1]];
+        ByteBuffer slice = slice(entry);
+        if (slice != null) {
+            slice.get(result);
+            return result;
+        }
+        try (FileChannel channel = FileChannel.open(packFile.toPath())) {
+            ByteBuffer buffer = ByteBuffer.wrap(result);
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, entry[0] + buffer.position());
+                if (n < 0) {
+                    throw error("Corrupted pack: %s", packFile.getPath());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a stream over the raw bytes of the object with the given id,
+     * read straight from the mapped pack, or from the pack file if the object
+     * is larger than a window.
+     *
+     * @param id the id of the object.
+     * @return the stream over the object, or null if the pack doesn't contain it.
+     */
+    InputStream open(String id) {
+        long[] entry = entry(id);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer slice = slice(entry);
+        if (slice == null) {
+            return new RangeInputStream(entry[0], entry[1]);
+        }
+        return new InputStream() {
+            @Override
+            public int read() {
+                return slice.hasRemaining() ? slice.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!slice.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(len, slice.remaining());
+                slice.get(b, off, n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Writes the raw bytes of the object with the given id to the given channel,
+     * from the mapped pack, or with FileChannel.transferTo if the object is larger than a window,
+     * so that they are not copied through the Java heap.
+     *
+     * @param id     the id of the object.
+     * @param target the channel to write to.
+     * @return true if the object was written, false if the pack doesn't contain it.
+     */
+    boolean transferTo(String id, WritableByteChannel target) throws IOException {
+        long[] entry = entry(id);
+        if (entry == null) {
+            return false;
+        }
+        ByteBuffer slice = slice(entry);
+        if (slice != null) {
+            while (slice.hasRemaining()) {
+                target.write(slice);
+            }
+            return true;
+        }
+        try (FileChannel in = FileChannel.open(packFile.toPath())) {
+            long copied = 0;
+            while (copied < entry[1]) {
+                long n = in.transferTo(entry[0] + copied, entry[1] - copied, target);
+                if (n <= 0) {
+                    throw error("Corrupted pack: %s", packFile.getPath());
+                }
+                copied += n;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the offset and the length of the object with the given id.
+     *
+     * @param id the id of the object.
+     * @return the {offset, length} of the object, or null if the pack doesn't contain it.
+     */
+    private long[] entry(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        return entryAt(i);
+    }
+
+    /**
+     * Returns the offset and the length stored in the given entry of the index.
+     *
+     * @param i the position of the entry.
+     * @return the {offset, length} of the object.
+     */
+    private long[] entryAt(int i) {
+        int position = INDEX_HEADER + i * entrySize + RAW_ID_LENGTH;
+        long length = entrySize == ENTRY_SIZE ? indexBuffer.getLong(position + 8)
+                : indexBuffer.getInt(position + 8) & 0xffffffffL;
+        return new long[]{indexBuffer.getLong(position), length};
+    }
+
+    /**
+     * Returns the bytes of the given object as a slice of the window of the pack it lies in.
+     *
+     * @param entry the {offset, length} of the object.
+     * @return the read-only buffer over the object, or null if it is larger than a window.
+     */
+    private synchronized ByteBuffer slice(long[] entry) {
+        long offset = entry[0];
+        long length = entry[1];
+        if (length > windowSize) {
+            return null;
+        }
+        if (offset < PACK_HEADER || offset + length > packLength) {
+            throw error("Corrupted pack: %s", packFile.getPath());
+        }
+        if (windows == null && !load()) {
+            throw error("Corrupted pack: %s", packFile.getPath());
+        }
+        int w = (int) (offset / windowSize);
+        if (windows[w] == null) {
+            long start = w * windowSize;
+            windows[w] = map(packFile, start, Math.min(packLength - start, 2 * windowSize));
+        }
+        ByteBuffer slice = windows[w].asReadOnlyBuffer();
+        int position = (int) (offset - w * windowSize);
+        slice.position(position);
+        slice.limit(position + (int) length);
+        return slice;
+    }
+
+    /**
+     * Returns the ids of all the objects in the pack, in sorted order.
+     *
+     * @return the sorted list of ids.
+     */
+    List<String> ids() {
+        List<String> result = new ArrayList<>();
+        if (!load()) {
+            return result;
+        }
+        byte[] raw = new byte[RAW_ID_LENGTH];
+        for (int i = 0; i < count; i += 1) {
+            ByteBuffer entry = indexBuffer.duplicate();
+            entry.position(INDEX_HEADER + i * entrySize);
+            entry.get(raw);
+            result.add(toHex(raw));
+        }
+        return result;
+    }
+
+    /**
+     * Appends the given loose object files to the end of the pack,
+     * then rewrites the index so that it stays sorted.
+     * An object that is already in the pack is replaced by the new copy
+     * (see ObjectStore.replace), its old bytes are left unreferenced in the pack.
+     *
+     * @param looseFiles the loose object files, named by their ids.
+     */
+    void append(List<File> looseFiles) {
+        TreeMap<String, long[]> entries = readEntries();
+        File parent = packFile.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        try (RandomAccessFile out = new RandomAccessFile(packFile, "rw")) {
+            FileChannel channel = out.getChannel();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+                header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+                channel.write(header);
+            }
+            long offset = channel.size();
+            channel.position(offset);
+            for (File file : looseFiles) {
+                long length = copy(file, channel);
+                entries.put(file.getName(), new long[]{offset, length});
+                offset += length;
+            }
+            channel.force(true);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        File temp = new File(indexFile.getPath() + ".tmp");
+        writeContents(temp, encodeIndex(entries));
+        try {
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        unload();
+    }
+
+    /**
+     * Writes a new pack holding only the given packed objects and loose object files,
+     * which drops the objects that are left out and the old bytes of the replaced objects.
+     * The new pack and index are written next to the current ones, and the journal renames
+     * them over the current ones when it is committed; the caller then calls unload.
+     *
+     * @param keep       the ids of the packed objects to keep.
+     * @param looseFiles the loose object files to add, named by their ids.
+     * @param journal    the journal that installs the new files.
+     */
+    void rewrite(Collection<String> keep, List<File> looseFiles, Journal journal) {
+        TreeMap<String, long[]> entries = new TreeMap<>();
+        File newPack = new File(packFile.getPath() + NEW_SUFFIX);
+        File newIndex = new File(indexFile.getPath() + NEW_SUFFIX);
+        packFile.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(newPack.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(PACK_HEADER);
+            header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+            channel.write(header);
+            long offset = PACK_HEADER;
+            for (String id : keep) {
+                long length = entry(id)[1];
+                transferTo(id, channel);
+                entries.put(id, new long[]{offset, length});
+                offset += length;
+            }
+            for (File file : looseFiles) {
+                long length = copy(file, channel);
+                entries.put(file.getName(), new long[]{offset, length});
+                offset += length;
+            }
+        } catch (IOException excp) {
+            newPack.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeContents(newIndex, encodeIndex(entries));
+        journal.move(packFile, newPack);
+        journal.move(indexFile, newIndex);
+    }
+
+    /**
+     * Deletes the new files left by a rewrite that was interrupted before it was installed.
+     */
+    void deleteRewrite() {
+        new File(packFile.getPath() + NEW_SUFFIX).delete();
+        new File(indexFile.getPath() + NEW_SUFFIX).delete();
+    }
+
+    /**
+     * Copies the given loose object file at the current position of the channel,
+     * without reading it in memory.
+     *
+     * @param file    the loose object file.
+     * @param channel the channel of the pack.
+     * @return the length of the object.
+     */
+    private static long copy(File file, FileChannel channel) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath())) {
+            long length = in.size();
+            long copied = 0;
+            while (copied < length) {
+                copied += in.transferTo(copied, length - copied, channel);
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Reads all the entries of the index into a sorted map.
+     *
+     * @return the map from id to {offset, length}.
+     */
+    private TreeMap<String, long[]> readEntries() {
+        TreeMap<String, long[]> entries = new TreeMap<>();
+        if (!load()) {
+            return entries;
+        }
+        List<String> ids = ids();
+        for (int i = 0; i < count; i += 1) {
+            entries.put(ids.get(i), entryAt(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Encodes the given entries as an index file.
+     *
+     * @param entries the sorted map from id to {offset, length}.
+     * @return the bytes of the index file.
+     */
+    private static byte[] encodeIndex(TreeMap<String, long[]> entries) {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_HEADER + entries.size() * ENTRY_SIZE);
+        buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(entries.size());
+        for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+            buffer.put(toRaw(entry.getKey()));
+            buffer.putLong(entry.getValue()[0]);
+            buffer.putLong(entry.getValue()[1]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Binary searches the index for the given id.
+     *
+     * @param id the id of the object.
+     * @return the position of the entry in the index, or -1 if it is not found.
+     */
+    private int find(String id) {
+        if (id == null || id.length() != UID_LENGTH || !load()) {
+            return -1;
+        }
+        byte[] target = toRaw(id);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareAt(INDEX_HEADER + mid * entrySize, target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares the raw id stored at the given position of the index with the target.
+     *
+     * @param position the position of the raw id in the index.
+     * @param target   the raw id to compare with.
+     * @return a negative number, zero or a positive number, as for Comparable.
+     */
+    private int compareAt(int position, byte[] target) {
+        for (int i = 0; i < RAW_ID_LENGTH; i += 1) {
+            int a = indexBuffer.get(position + i) & 0xff;
+            int b = target[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Maps the index file into memory and checks the header of the pack file
+     * if they are not loaded yet. The windows of the pack are mapped when they are used.
+     *
+     * @return true if the pack exists, false otherwise.
+     */
+    private synchronized boolean load() {
+        if (indexBuffer != null) {
+            return true;
+        }
+        if (!exists()) {
+            return false;
+        }
+        seenTime = indexFile.lastModified();
+        seenLength = indexFile.length();
+        ByteBuffer index = map(indexFile, 0, seenLength);
+        int version = index.getInt(4);
+        if (index.getInt(0) != INDEX_MAGIC || (version != 1 && version != INDEX_VERSION)) {
+            throw error("Corrupted pack index: %s", indexFile.getPath());
+        }
+        try (RandomAccessFile in = new RandomAccessFile(packFile, "r")) {
+            if (in.readInt() != PACK_MAGIC || in.readInt() != VERSION) {
+                throw error("Corrupted pack: %s", packFile.getPath());
+            }
+            packLength = in.length();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        count = index.getInt(8);
+        entrySize = version == 1 ? V1_ENTRY_SIZE : ENTRY_SIZE;
+        windows = new ByteBuffer[(int) ((packLength + windowSize - 1) / windowSize)];
+        indexBuffer = index;
+        return true;
+    }
+
+    /**
+     * Forgets the mapped files if another process changed the pack since this process
+     * last saw it, so that a long-running process (the daemon) sees the new objects.
+     *
+     * @return true if another process changed the pack, false otherwise.
+     */
+    synchronized boolean refresh() {
+        if (indexFile.lastModified() == seenTime && indexFile.length() == seenLength) {
+            return false;
+        }
+        unload();
+        return true;
+    }
+
+    /**
+     * Forgets the mapped files, so that they are mapped again on the next access.
+     * It is called after this process changed the pack, which it has thus seen.
+     */
+    synchronized void unload() {
+        indexBuffer = null;
+        windows = null;
+        count = 0;
+        seenTime = indexFile.lastModified();
+        seenLength = indexFile.length();
+    }
+
+    /**
+     * Maps the given range of the given file into memory (read only).
+     *
+     * @param file   the file to map.
+     * @param start  the start of the range.
+     * @param length the length of the range, at most 2 GB.
+     * @return the mapped buffer.
+     */
+    private static MappedByteBuffer map(File file, long start, long length) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, start, length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * A stream over a range of the pack file, read with positional reads,
+     * for the objects that are larger than a window.
+     */
+    private class RangeInputStream extends InputStream {
+
+        /**
+         * The channel of the pack file, opened on the first read.
+         */
+        private FileChannel channel;
+
+        /**
+         * The position of the next byte to read, and the end of the range.
+         */
+        private long position;
+        private final long end;
+
+        /**
+         * Creates a stream over the given range of the pack file.
+         *
+         * @param offset the start of the range.
+         * @param length the length of the range.
+         */
+        RangeInputStream(long offset, long length) {
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            if (channel == null) {
+                channel = FileChannel.open(packFile.toPath());
+            }
+            int n = (int) Math.min(len, end - position);
+            n = channel.read(ByteBuffer.wrap(b, off, n), position);
+            if (n < 0) {
+                throw new IOException("Corrupted pack: " + packFile.getPath());
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts a 40-character hexadecimal id to its 20 raw bytes.
+     *
+     * @param id the hexadecimal id.
+     * @return the raw bytes of the id.
+     */
+    static byte[] toRaw(String id) {
+        byte[] raw = new byte[RAW_ID_LENGTH];
+        for (int i = 0; i < RAW_ID_LENGTH; i += 1) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+}
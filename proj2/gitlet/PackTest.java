@@ -0,0 +1,193 @@
+package gitlet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the packs with windows of a few bytes, so that the objects larger than a window
+ * (which are larger than 2 GB with the real window size) go through the same paths
+ * as they do in a pack of several gigabytes: positional reads, streams and transfers
+ * instead of mapped slices, and 64-bit lengths in the index.
+ *
+ * @author R7CKB
+ */
+public class PackTest {
+
+    /**
+     * The size of the windows of the packs of the tests.
+     */
+    private static final long WINDOW = 64;
+
+    /**
+     * The sizes of the objects of the tests: smaller than a window, exactly one window,
+     * crossing the end of a window, and several windows long.
+     */
+    private static final int[] SIZES = {1, 10, 63, 64, 65, 100, 200, 1000, 5000};
+
+    @Test
+    /**
+     * Test reading objects smaller and larger than a window in every way.
+     */
+    public void testObjectsLargerThanWindow() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-pack").toFile();
+        Map<String, byte[]> objects = objects(SIZES, 1);
+        Pack pack = new Pack(dir, "blobs", WINDOW);
+        pack.append(looseFiles(dir, objects));
+        assertObjects(pack, objects);
+        assertObjects(new Pack(dir, "blobs", WINDOW), objects);
+    }
+
+    @Test
+    /**
+     * Test that appending to a pack and rewriting it keep the objects larger than a window.
+     */
+    public void testAppendAndRewrite() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-pack").toFile();
+        Map<String, byte[]> objects = objects(SIZES, 2);
+        Pack pack = new Pack(dir, "blobs", WINDOW);
+        pack.append(looseFiles(dir, objects));
+        Map<String, byte[]> more = objects(new int[]{70, 3000}, 3);
+        pack.append(looseFiles(dir, more));
+        objects.putAll(more);
+        assertObjects(pack, objects);
+
+        List<String> keep = new ArrayList<>();
+        for (String id : pack.ids()) {
+            if (objects.get(id).length > WINDOW) {
+                keep.add(id);
+            }
+        }
+        Map<String, byte[]> last = objects(new int[]{4000}, 4);
+        pack.rewrite(keep, looseFiles(dir, last), new Journal());
+        File packFile = new File(dir, "blobs.pack");
+        File indexFile = new File(dir, "blobs.idx");
+        assertTrue(new File(dir, "blobs.pack.new").renameTo(packFile));
+        assertTrue(new File(dir, "blobs.idx.new").renameTo(indexFile));
+        pack.unload();
+        Map<String, byte[]> kept = new LinkedHashMap<>(last);
+        for (String id : keep) {
+            kept.put(id, objects.get(id));
+        }
+        assertEquals(kept.size(), pack.size());
+        assertObjects(pack, kept);
+    }
+
+    @Test
+    /**
+     * Test reading a pack whose index was written by the version with 32-bit lengths,
+     * and appending to it.
+     */
+    public void testVersionOneIndex() throws IOException {
+        File dir = Files.createTempDirectory("gitlet-pack").toFile();
+        Map<String, byte[]> objects = objects(new int[]{30, 300}, 5);
+        ByteArrayOutputStream pack = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(pack);
+        out.writeInt(0x47504b41);
+        out.writeInt(1);
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream entries = new DataOutputStream(index);
+        entries.writeInt(0x47494458);
+        entries.writeInt(1);
+        entries.writeInt(objects.size());
+        for (String id : new TreeSet<>(objects.keySet())) {
+            entries.write(Pack.toRaw(id));
+            entries.writeLong(out.size());
+            entries.writeInt(objects.get(id).length);
+            out.write(objects.get(id));
+        }
+        Files.write(new File(dir, "blobs.pack").toPath(), pack.toByteArray());
+        Files.write(new File(dir, "blobs.idx").toPath(), index.toByteArray());
+
+        Pack packed = new Pack(dir, "blobs", WINDOW);
+        assertObjects(packed, objects);
+        Map<String, byte[]> more = objects(new int[]{700}, 6);
+        packed.append(looseFiles(dir, more));
+        objects.putAll(more);
+        assertObjects(packed, objects);
+    }
+
+    /**
+     * Asserts that the pack holds exactly the given objects,
+     * read as byte arrays, as streams and through a channel.
+     *
+     * @param pack    the pack.
+     * @param objects the expected objects, by id.
+     */
+    private static void assertObjects(Pack pack, Map<String, byte[]> objects)
+            throws IOException {
+        assertEquals(new TreeSet<>(objects.keySet()), new TreeSet<>(pack.ids()));
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            String id = object.getKey();
+            byte[] expected = object.getValue();
+            assertArrayEquals(expected, pack.read(id));
+            try (InputStream in = pack.open(id)) {
+                assertArrayEquals(expected, in.readAllBytes());
+            }
+            try (InputStream in = pack.open(id)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                int b;
+                while ((b = in.read()) >= 0) {
+                    bytes.write(b);
+                }
+                assertArrayEquals(expected, bytes.toByteArray());
+            }
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            assertTrue(pack.transferTo(id, Channels.newChannel(sent)));
+            assertArrayEquals(expected, sent.toByteArray());
+        }
+        assertNull(pack.read(Utils.sha1("missing")));
+        assertNull(pack.open(Utils.sha1("missing")));
+    }
+
+    /**
+     * Creates random objects of the given sizes.
+     *
+     * @param sizes the sizes of the objects.
+     * @param seed  the seed of the random contents.
+     * @return the objects, by id.
+     */
+    private static Map<String, byte[]> objects(int[] sizes, long seed) {
+        Random random = new Random(seed);
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for (int size : sizes) {
+            byte[] content = new byte[size];
+            random.nextBytes(content);
+            result.put(Utils.sha1(content), content);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the given objects as loose files, named by their ids.
+     *
+     * @param dir     the directory of the pack.
+     * @param objects the objects, by id.
+     * @return the loose files.
+     */
+    private static List<File> looseFiles(File dir, Map<String, byte[]> objects) {
+        File looseDir = new File(dir, "loose");
+        looseDir.mkdirs();
+        List<File> result = new ArrayList<>();
+        for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+            File file = new File(looseDir, object.getKey());
+            Utils.writeContents(file, object.getValue());
+            result.add(file);
+        }
+        return result;
+    }
+}
@@ -8,6 +8,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 import static gitlet.Utils.*;
@@ -27,11 +31,24 @@ public class Repository {
     // the default File structure like the following:
     //.gitlet/
     // ├── HEAD (store the current branch name)
+    // ├── daemon.sock (the socket of the daemon, while it is running)
+    // ├── LOCK (locked by the process running a command, see RepositoryLock)
+    // ├── journal (the files being updated by an unfinished commit, merge or reset)
     // ├── index (the index for staging area)
+    // ├── message-index (the index of the commit messages, for the find command)
+    // ├── sparse-checkout (the patterns of the files to check out, see Checkout)
     // ├── objects/
+    // │   ├── commit-graph (the parents, generation and time of every commit)
+    // │   ├── pack/
+    // │   │   ├── commits.pack, commits.idx (the packed commits and their sorted index)
+    // │   │   ├── trees.pack, trees.idx (the packed trees and their sorted index)
+    // │   │   └── blobs.pack, blobs.idx (the packed blobs and their sorted index)
     // │   ├── blobs/
     // │   │   ├── 0123456789abcdef (the name of a blob)
     // │   │   └── other blob (the name of other blobs)
+    // │   ├── trees/
+    // │   │   ├── 0123456789abcdef (the name of a tree, one per directory of a commit)
+    // │   │   └── other tree (the name of other trees)
     // │   └── commits/
     // │       ├── 0123456789abcdef (the name of a commit)
     // │       └── other commit (the name of other commits)
@@ -93,6 +110,16 @@ public class Repository {
 
     public static final int SHA1_LENGTH = 40;
 
+    /**
+     * The number of commits decoded by a worker at once in global-log.
+     */
+    private static final int GLOBAL_LOG_CHUNK = 256;
+
+    /**
+     * The limit of global-log when none is given: every commit is displayed.
+     */
+    static final int NO_LIMIT = Integer.MAX_VALUE;
+
     /**
      * As a helper method to help initialize the repository.
      */
@@ -106,6 +133,8 @@ public class Repository {
         boolean objectsDirExists = OBJECTS_DIR.mkdir();
         // create commits directory if it doesn't exist
         boolean commitsDirExist = Commit.COMMITS_DIR.mkdir();
+        // create trees directory if it doesn't exist
+        boolean treesDirExist = Tree.TREES_DIR.mkdir();
         // create blobs directory if it doesn't exist
         boolean blobsDirExist = Blob.BLOBS_DIR.mkdir();
 
@@ -116,12 +145,11 @@ public class Repository {
         // check if the master branch file exists
         boolean masterExists = BRANCH_FILE.exists();
         if (!gitletDirExists) {
-            Utils.message("A Gitlet version-control system already "
+            throw error("A Gitlet version-control system already "
                     + "exists in the current directory.");
-            System.exit(0);
         }
         if (!indexFileExists && !headFileExists && !masterExists && branchDirExists
-                && objectsDirExists && commitsDirExist && blobsDirExist) {
+                && objectsDirExists && commitsDirExist && treesDirExist && blobsDirExist) {
             try {
                 // create HEAD file if it doesn't exist
                 boolean headExists = HEAD_FILE.createNewFile();
@@ -155,26 +183,81 @@ public class Repository {
 
 
     /**
-     * Adds a file to the repository's index (add entry of the index).
+     * Adds files to the repository's index (add entry of the index).
+     * Each path is a file, a directory (all the files under it), "." (all the files of
+     * the working directory) or a glob pattern such as "src/*.java" (see Checkout.Patterns).
+     * HEAD, the current commit and the index are read once, and the index is written once,
+     * however many files are added. Nothing is staged if a path matches no file.
      *
-     * @param filename the name of the file to add into the index.
+     * @param paths the paths of the files to add into the index.
      */
-    public static void add(String filename) {
+    public static void add(List<String> paths) {
         String branch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, branch))), Commit.class);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
-        File file = new File(join(CWD), filename);
-        //  If the file doesn't exist (neither in the working directory nor in the index)
-        if (!file.exists()) {
-            Utils.message("File does not exist.");
-            System.exit(0);
-        }
-        // create a blob object for the file and serialize it to disk.
-        String content = readContentsAsString(file);
-        Blob blob = new Blob(filename, content);
-        addJudge(index, blob, filename, blob.getId(), currentCommit);
-        index.saveFile();
+        Commit currentCommit = Commit.fromFile(readContentsAsString(new File(BRANCH_DIR, branch)));
+        Index index = Index.fromFile();
+        TreeSet<String> filenames = new TreeSet<>();
+        List<String> workingFiles = null;
+        for (String path : paths) {
+            File file = new File(CWD, path);
+            if (!path.equals(".") && !Checkout.Patterns.isGlob(path) && !file.isDirectory()) {
+                //  If the file doesn't exist (neither in the working directory nor in the index)
+                if (!file.isFile()) {
+                    throw error("File does not exist.");
+                }
+                filenames.add(path);
+                continue;
+            }
+            if (workingFiles == null) {
+                workingFiles = WorkingTree.files();
+            }
+            int size = filenames.size();
+            Checkout.Patterns patterns = Checkout.Patterns.of(List.of(path));
+            for (String filename : workingFiles) {
+                if (path.equals(".") || patterns.includes(filename)) {
+                    filenames.add(filename);
+                }
+            }
+            if (filenames.size() == size && !path.equals(".")) {
+                throw error("File does not exist.");
+            }
+        }
+        addFiles(index, currentCommit, new ArrayList<>(filenames));
+        try (Trace.Span phase = Trace.phase("add: write the index")) {
+            index.saveFile();
+        }
+    }
+
+    /**
+     * Adds the given working files to the index.
+     * The files are hashed in parallel (skipping those whose stat data didn't change),
+     * then the blobs of the new versions are created in parallel,
+     * as deltas against the versions of the current commit if possible,
+     * and finally the index is updated in filename order.
+     *
+     * @param index         the index to add the files to.
+     * @param currentCommit the current commit of the current head.
+     * @param workingFiles  the names of the files to add.
+     */
+    private static void addFiles(Index index, Commit currentCommit, List<String> workingFiles) {
+        Map<String, Index.StatEntry> stats;
+        try (Trace.Span phase = Trace.phase("add: hash the files")) {
+            stats = WorkingTree.hash(index, workingFiles);
+        }
+        Map<String, String> blobs = currentCommit.getBlobMap();
+        List<String> changed = new ArrayList<>();
+        for (String filename : workingFiles) {
+            String id = stats.get(filename).getId();
+            if (!currentCommit.containsFile(filename, id) && !index.addContainsFile(filename, id)) {
+                changed.add(filename);
+            }
+        }
+        try (Trace.Span phase = Trace.phase("add: write the blobs")) {
+            WorkingTree.map(changed, filename -> Blob.fromWorkingFile(filename,
+                    new File(CWD, filename), blobs.get(filename)));
+        }
+        for (String filename : workingFiles) {
+            addJudge(index, filename, stats.get(filename).getId(), currentCommit);
+        }
     }
 
 
@@ -182,23 +265,21 @@ public class Repository {
      * as a helper method to add a blob to the index.
      *
      * @param index    the index to add the blob to.
-     * @param blob     the blob to add to the index.
      * @param filename the name of the file.
      * @param id       the id of the file.
      * @param commit   the current commit of the current head.
      */
-    private static void addJudge(Index index, Blob blob, String filename,
-                                 String id, Commit commit) {
+    private static void addJudge(Index index, String filename, String id, Commit commit) {
         // add the blob to the index, including overwriting existing blob.
-        index.addAdd(blob);
+        index.addAdd(filename, id);
         //  If the current working version of the file
         //  is identical to the version in the current commit,
         //  don't stage it to be added, and remove it from the staging area if it's already there
-        if (commit.containsId(id)) {
+        if (commit.containsFile(filename, id)) {
             // don't add the file to index if it's as same as the current commit.
             index.addRemove(filename);
         }
-        if (index.removeContainsId(id)) {
+        if (index.removeContainsFile(filename, id)) {
             // The file will no longer be staged for removal (see gitlet rm)
             // if it was at the time of the command.
             index.removeRemove(filename);
@@ -215,101 +296,103 @@ public class Repository {
     public static void commit(String message) {
         String branch = readContentsAsString(HEAD_FILE);
         File branchFile = new File(BRANCH_DIR, branch);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(branchFile)), Commit.class);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        Commit currentCommit = Commit.fromFile(readContentsAsString(branchFile));
+        Index index = Index.fromFile();
         // Failure case: no files have been staged 
         // including added and removed files?
         // YES
         if (index.addIsEmpty() && index.removeIsEmpty()) {
-            Utils.message("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
         ArrayList<String> parents = new ArrayList<>();
         parents.add(currentCommit.getId());
-        Map<String, String> finalBlobs = dealWithStageAndCommitBlobs(index, currentCommit);
+        String tree;
+        try (Trace.Span phase = Trace.phase("commit: write the trees")) {
+            tree = commitTree(index, currentCommit);
+        }
         // create a new commit object with the current index and message.
-        Commit newCommit = new Commit(message, new Date(), parents, finalBlobs);
-        // Update the master branch to point to the new commit.
-        writeContents(branchFile, newCommit.getId());
-        // update the index to be empty.
-        index.clearFile();
-    }
-
-    /**
-     * As a helper method to deal with the removed entries of the index and the new commit blobs.
-     *
-     * @param removeStageBlobs the blobs in the index.
-     * @param commitBlobs      the blobs in the current commit.
-     */
-    private static Map<String, String> handleRemoveBlobs(Map<String, String> removeStageBlobs,
-                                                         Map<String, String> commitBlobs) {
-        for (String filename : removeStageBlobs.keySet()) {
-            commitBlobs.remove(filename);
+        Commit newCommit = new Commit(message, new Date(), parents, tree);
+        // Update the master branch to point to the new commit,
+        // and the index to be empty, as one atomic operation.
+        try (Trace.Span phase = Trace.phase("commit: update the branch")) {
+            Journal journal = new Journal();
+            journal.write(branchFile, newCommit.getId());
+            index.clearFile(journal);
+            journal.commit();
         }
-        return commitBlobs;
     }
 
     /**
-     * As a helper method to handle the added entries of the index and the new commit blobs.
+     * remove the files from the working directory and the index.
+     * Each path is a file, or a directory or a glob pattern such as "src/*.java",
+     * which matches the files that are tracked or staged for addition.
+     * HEAD, the current commit and the index are read once, and the index is written once,
+     * however many files are removed. Nothing is removed if a path has no reason to be.
      *
-     * @param addStageBlobs the blobs in the added entries of the index.
-     * @param commitBlobs   the blobs in the current commit.
-     * @return the new blobs of the new commit.
+     * @param paths the paths of the files to remove.
      */
-    private static Map<String, String> handleBlobs(Map<String, String> addStageBlobs,
-                                                   Map<String, String> commitBlobs) {
-        // if the current commit is initial commit, return the current blobs(index files).
-        if (commitBlobs.isEmpty()) {
-            return addStageBlobs;
-        } else {
-            for (Map.Entry<String, String> entry : addStageBlobs.entrySet()) {
-                String filename = entry.getKey();
-                String id = entry.getValue();
-                if (!commitBlobs.containsKey(filename) || !commitBlobs.containsValue(id)) {
-                    // if the blob is already in the current commit,
-                    // don't add it to the new commit.
-                    commitBlobs.put(filename, id);
+    public static void rm(List<String> paths) {
+        String branch = readContentsAsString(HEAD_FILE);
+        Index index = Index.fromFile();
+        Commit currentCommit = Commit.fromFile(readContentsAsString(new File(BRANCH_DIR, branch)));
+        TreeSet<String> filenames = new TreeSet<>();
+        for (String path : paths) {
+            if (!Checkout.Patterns.isGlob(path) && !new File(CWD, path).isDirectory()) {
+                // The head commit neither stages nor tracks the file
+                if (!index.addContainsFile(path) && !index.removeContainsFile(path)
+                        && !currentCommit.containsFile(path)) {
+                    throw error("No reason to remove the file.");
+                }
+                filenames.add(path);
+                continue;
+            }
+            // a pattern matches the files that are tracked or staged for addition.
+            int size = filenames.size();
+            Checkout.Patterns patterns = Checkout.Patterns.of(List.of(path));
+            for (String filename : currentCommit.getBlobMap().keySet()) {
+                if (patterns.includes(filename)) {
+                    filenames.add(filename);
+                }
+            }
+            for (String filename : index.getAddBlobs().keySet()) {
+                if (patterns.includes(filename)) {
+                    filenames.add(filename);
                 }
             }
+            if (filenames.size() == size) {
+                throw error("No reason to remove the file.");
+            }
         }
-        return commitBlobs;
+        for (String filename : filenames) {
+            rmFile(index, currentCommit, filename);
+        }
+        // update the index file.
+        index.saveFile();
     }
 
     /**
-     * remove the file from the working directory and the index.
+     * As a helper method to unstage a file, or to stage it for removal and delete it.
      *
-     * @param filename the name of the file to remove.
+     * @param index         the index to update.
+     * @param currentCommit the current commit of the current head.
+     * @param filename      the name of the file, which is staged or tracked.
      */
-    public static void rm(String filename) {
-        String branch = readContentsAsString(HEAD_FILE);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, branch))), Commit.class);
+    private static void rmFile(Index index, Commit currentCommit, String filename) {
         File removedFile = new File(join(CWD), filename);
         String id = currentCommit.getBlobMap().get(filename);
-        // The head commit neither stages nor tracks the file
-        if (!index.addContainsFile(filename) && !index.removeContainsFile(filename)
-                && !currentCommit.containsFile(filename)) {
-            Utils.message("No reason to remove the file.");
-            System.exit(0);
-        } else if (index.addContainsFile(filename)) {
+        if (index.addContainsFile(filename)) {
             // Unstage the file if it is currently staged for addition
             index.addRemove(filename);
         } else if (currentCommit.containsFile(filename) && removedFile.exists()) {
             // If the file is tracked in the current commit, stage it for removal
             // and remove the file from the working directory
             // if the user hasn't already done so
-            Blob blob = Blob.fromFile(id);
-            index.removeAdd(blob);
-            restrictedDelete(removedFile);
+            index.removeAdd(filename, id);
+            WorkingTree.delete(removedFile);
         } else {
             // the user deleted the file before rm command, so we don't need to delete it.
-            Blob blob = Blob.fromFile(id);
-            index.removeAdd(blob);
+            index.removeAdd(filename, id);
         }
-        // update the index file.
-        index.saveFile();
     }
 
 
@@ -318,65 +401,117 @@ public class Repository {
      * The concrete format is implemented in the Commit.dump() method.
      */
     public static void log() {
-        //  we'll deal merge commit later.
         String branch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, branch))), Commit.class);
-        List<String> listOfParents = currentCommit.getParents();
+        String headId = readContentsAsString(new File(BRANCH_DIR, branch));
         // In the dump method, we handle the case that the current commit has two parents.
-        // All we need to do is make sure the first parent is the parent of the current branch.
-        while (!listOfParents.isEmpty()) {
-            currentCommit.dump();
-            String parentId = listOfParents.get(0);
-            Commit parentCommit = readObject(new File(Commit.COMMITS_DIR, parentId),
-                    Commit.class);
-            currentCommit = parentCommit;
-            listOfParents = parentCommit.getParents();
-        }
-        // At last, print the initial commit.
-        currentCommit.dump();
+        // All we need to do is make sure the first parent is the parent of the current branch,
+        // which the commit-graph gives us without reading the commit objects.
+        CommitGraph graph = CommitGraph.LOCAL;
+        for (int i = graph.indexOf(headId); i != CommitGraph.NONE; i = graph.parent(i, 0)) {
+            Commit.fromFile(graph.idAt(i)).dump();
+        }
     }
 
 
     /**
      * Like log, except displays information about all commits ever made.
      * The order of the commits doesn't matter.
+     * The commits are decoded by worker threads in chunks of GLOBAL_LOG_CHUNK commits,
+     * and the chunks are printed in order as soon as they are ready, one write per chunk.
+     * At most two chunks per worker are in flight, so the memory used doesn't depend
+     * on the number of commits and the first chunk is printed right away.
+     *
+     * @param limit the maximum number of commits to display (the newest ones), or NO_LIMIT.
+     * @param since only display the commits made at or after this time (in milliseconds).
      */
-    public static void globalLog() {
-        List<String> commitList = plainFilenamesIn(Commit.COMMITS_DIR);
-        if (commitList != null && !commitList.isEmpty()) {
+    public static void globalLog(int limit, long since) {
+        List<String> commitList = ObjectStore.LOCAL.ids(ObjectStore.COMMITS);
+        if (since != Long.MIN_VALUE) {
+            // the commit-graph knows the time of every commit, so no commit is read here.
+            CommitGraph graph = CommitGraph.LOCAL;
+            List<String> recent = new ArrayList<>();
             for (String commitId : commitList) {
-                Commit commit = readObject(new File(Commit.COMMITS_DIR, commitId), Commit.class);
-                commit.dump();
+                if (graph.time(graph.indexOf(commitId)) >= since) {
+                    recent.add(commitId);
+                }
             }
+            commitList = recent;
         }
+        if (commitList.size() > limit) {
+            // keep the newest commits, by the times the commit-graph holds.
+            CommitGraph graph = CommitGraph.LOCAL;
+            Map<String, Long> times = new HashMap<>();
+            for (String commitId : commitList) {
+                times.put(commitId, graph.time(graph.indexOf(commitId)));
+            }
+            commitList = new ArrayList<>(commitList);
+            commitList.sort(Comparator.comparing(times::get, Comparator.reverseOrder()));
+            commitList = commitList.subList(0, limit);
+        }
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        Deque<Future<String>> inFlight = new ArrayDeque<>();
+        try {
+            for (int start = 0; start < commitList.size(); start += GLOBAL_LOG_CHUNK) {
+                List<String> chunk = commitList.subList(start,
+                        Math.min(start + GLOBAL_LOG_CHUNK, commitList.size()));
+                inFlight.add(pool.submit(() -> {
+                    StringBuilder logs = new StringBuilder();
+                    for (String commitId : chunk) {
+                        logs.append(Commit.fromFile(commitId).toLog());
+                    }
+                    return logs.toString();
+                }));
+                if (inFlight.size() >= 2 * workers) {
+                    System.out.print(inFlight.poll().get());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                System.out.print(inFlight.poll().get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.flush();
     }
 
 
     /**
      * Prints out the ids of all commits that have the given commit message, one per line.
      * If there are multiple such commits, it prints the ids out on separate lines.
+     * The commits are looked up in the message index, so no commit object is read.
      *
+     * @param mode          how to match the messages: "--exact" (the default),
+     *                      "--prefix", "--contains" (substring) or "--word" (all the words).
      * @param commitMessage the message to search for.
      */
-    public static void find(String commitMessage) {
-        // use a flag to judge if you find command found any commit with the given message.
-        List<String> commitsList = plainFilenamesIn(Commit.COMMITS_DIR);
-        boolean found = false;
-        if (commitsList != null && !commitsList.isEmpty()) {
-            for (String commitId : commitsList) {
-                Commit commit = readObject(new File(Commit.COMMITS_DIR, commitId), Commit.class);
-                String message = commit.getMessage();
-                if (message.equals(commitMessage)) {
-                    found = true;
-                    System.out.println(commit.getId());
-                }
-            }
-            if (!found) {
-                message("Found no commit with that message.");
-                System.exit(0);
-            }
+    public static void find(String mode, String commitMessage) {
+        MessageIndex messageIndex = MessageIndex.load();
+        SortedSet<String> found;
+        switch (mode) {
+            case "--prefix":
+                found = messageIndex.prefix(commitMessage);
+                break;
+            case "--contains":
+                found = messageIndex.contains(commitMessage);
+                break;
+            case "--word":
+                found = messageIndex.words(commitMessage);
+                break;
+            default:
+                found = messageIndex.exact(commitMessage);
+                break;
         }
+        if (found.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        StringBuilder out = new StringBuilder();
+        for (String commitId : found) {
+            out.append(commitId).append(System.lineSeparator());
+        }
+        System.out.print(out);
     }
 
 
@@ -385,10 +520,18 @@ public class Repository {
      * Also displays what files have been staged for addition or removal.
      */
     public static void status() {
-        printBranches();
-        printIndex();
-        printModifiedFiles();
-        printUntrackedFiles();
+        try (Trace.Span phase = Trace.phase("status: branches")) {
+            printBranches();
+        }
+        try (Trace.Span phase = Trace.phase("status: staged files")) {
+            printIndex();
+        }
+        try (Trace.Span phase = Trace.phase("status: modified files")) {
+            printModifiedFiles();
+        }
+        try (Trace.Span phase = Trace.phase("status: untracked files")) {
+            printUntrackedFiles();
+        }
     }
 
 
@@ -416,7 +559,7 @@ public class Repository {
      * As a helper method to print the index(stage area).
      */
     private static void printIndex() {
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        Index index = Index.fromFile();
         Map<String, String> stageBlobs = index.getAddBlobs();
         Map<String, String> removeStageBlobs = index.getRemoveBlobs();
         System.out.println("=== Staged Files ===");
@@ -438,11 +581,12 @@ public class Repository {
      */
     private static void printModifiedFiles() {
         String branch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, branch))), Commit.class);
+        Commit currentCommit = Commit.fromFile(readContentsAsString(new File(BRANCH_DIR, branch)));
         Map<String, String> currentBlob = currentCommit.getBlobMap();
-        Index index = readObject(Index.INDEX_FILE, Index.class);
-        List<String> workingFiles = plainFilenamesIn(CWD);
+        Index index = Index.fromFile();
+        List<String> workingFiles = WorkingTree.files();
+        // only the files whose stat data changed since the last status are read (in parallel).
+        Map<String, Index.StatEntry> stats = WorkingTree.hash(index, workingFiles);
         System.out.println("=== Modifications Not Staged For Commit ===");
         // There have 4 cases that a file "is modified but not staged".
         // 1. Tracked in the current commit, changed in the working directory,
@@ -455,21 +599,20 @@ public class Repository {
         if (workingFiles != null) {
             for (String filename : workingFiles) {
                 File file = new File(CWD, filename);
-                String content = readContentsAsString(file);
-                String fileId = sha1(filename, content);
+                Index.StatEntry stat = stats.get(filename);
+                String fileId = stat.getId();
                 // neglect the case that the conflicted files.
-                if (content.contains("<<<<<<< HEAD") && content.contains("=======\n")
-                        && content.contains(">>>>>>>")) {
+                if (stat.isConflicted()) {
                     continue;
                 }
                 // case 1
                 if (!index.addContainsFile(filename) && !index.removeContainsFile(filename)
                         && currentCommit.containsFile(filename)
-                        && !currentCommit.containsId(fileId)) {
+                        && !currentCommit.containsFile(filename, fileId)) {
                     System.out.println(filename + " (modified)");
                 } else if (index.addContainsFile(filename)) {
                     // case 2
-                    if (!index.addContainsId(fileId) && file.exists()) {
+                    if (!index.addContainsFile(filename, fileId) && file.exists()) {
                         System.out.println(filename + " (modified)");
                     } else if (!file.exists()) {
                         // case 3
@@ -477,15 +620,21 @@ public class Repository {
                     }
                 }
             }
+            // the files left out by a sparse checkout are not deleted.
+            Checkout.Patterns sparse = Checkout.Patterns.read();
             for (Map.Entry<String, String> entry : currentBlob.entrySet()) {
                 String filename = entry.getKey();
                 File file = new File(join(CWD), filename);
                 // case 4
-                if (!index.removeContainsFile(filename)
+                if (!index.removeContainsFile(filename) && sparse.includes(filename)
                         && currentCommit.containsFile(filename) && !file.exists()) {
                     System.out.println(filename + " (deleted)");
                 }
             }
+            index.retainStats(workingFiles);
+        }
+        if (index.statChanged()) {
+            index.saveFile();
         }
         System.out.println();
     }
@@ -497,16 +646,16 @@ public class Repository {
     private static void printUntrackedFiles() {
         // files present in the working directory but neither staged for addition nor tracked.
         String branch = readContentsAsString(HEAD_FILE);
-        List<String> workingFiles = plainFilenamesIn(CWD);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        List<String> workingFiles = WorkingTree.files();
+        Index index = Index.fromFile();
         // "Untracked Files” is for files present in the working directory
         // but neither staged for addition nor tracked
         // (only tracked by the parent commit (single))
         System.out.println("=== Untracked Files ===");
         if (workingFiles != null && !workingFiles.isEmpty()) {
+            Commit currentCommit = Commit.fromFile(
+                    readContentsAsString(new File(BRANCH_DIR, branch)));
             for (String filename : workingFiles) {
-                Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                        readContentsAsString(new File(BRANCH_DIR, branch))), Commit.class);
                 if (!index.addContainsFile(filename) && !index.removeContainsFile(filename)
                         && !currentCommit.containsFile(filename)) {
                     System.out.println(filename);
@@ -525,15 +674,14 @@ public class Repository {
      */
     public static void checkout(String arg, boolean isBranch) {
         String currentBranch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, currentBranch))), Commit.class);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        Commit currentCommit = Commit.fromFile(
+                readContentsAsString(new File(BRANCH_DIR, currentBranch)));
+        Index index = Index.fromFile();
         if (!isBranch) {
             // arg is filename
             boolean containsFile = currentCommit.containsFile(arg);
             if (!containsFile) {
-                message("File does not exist in that commit.");
-                System.exit(0);
+                throw error("File does not exist in that commit.");
             } else {
                 Map<String, String> currentBlobs = currentCommit.getBlobMap();
                 writeFileContent(arg, currentBlobs);
@@ -547,94 +695,28 @@ public class Repository {
             File branchFile = new File(BRANCH_DIR, arg);
             boolean containsBranchFile = branchFile.exists();
             if (!containsBranchFile) {
-                message("No such branch exists.");
-                System.exit(0);
+                throw error("No such branch exists.");
             } else if (currentBranch.equals(arg)) {
-                message("No need to checkout the current branch.");
-                System.exit(0);
+                throw error("No need to checkout the current branch.");
             }
-            Commit newCommit = readObject(new File(Commit.COMMITS_DIR,
-                    readContentsAsString(branchFile)), Commit.class);
-            // update the index to match the new commit.
-            Map<String, String> oldBlobs = currentCommit.getBlobMap();
-            Map<String, String> newBLobs = newCommit.getBlobMap();
-            fileOperation(oldBlobs, newBLobs);
-            // update the HEAD file to point to the new branch.
-            writeContents(HEAD_FILE, arg);
-        }
-    }
-
-
-    /**
-     * As a helper method to handle the file operation.
-     *
-     * @param oldBlobs the map of blobs in the old commit.
-     * @param newBLobs the map of blobs in the new commit.
-     */
-    private static void fileOperation(Map<String, String> oldBlobs,
-                                      Map<String, String> newBLobs) {
-        // Three cases:
-        // 1. The file is in both commits, but with different contents or same contents.
-        // 2. The file is in the current commit but not in the new commit.
-        // 3. The file is in the new commit but not in the current commit.
-        // Use single loop to optimize the performance.
-        Index index = readObject(Index.INDEX_FILE, Index.class);
-        if (!newBLobs.isEmpty()) {
-            for (Map.Entry<String, String> newEntry : newBLobs.entrySet()) {
-                String newFilename = newEntry.getKey();
-                String newId = newEntry.getValue();
-                File file = new File(join(CWD), newFilename);
-                Blob blob = Blob.fromFile(newId);
-                String content = blob.getContent();
-                String id = oldBlobs.get(newFilename);
-                // case 3
-                if (id == null) {
-                    if (!file.exists()) {
-                        try {
-                            boolean fileExists = file.createNewFile();
-                            writeContents(file, content);
-                        } catch (IOException e) {
-                            System.err.println("Error: Could not create file.");
-                        }
-                    } else {
-                        message("There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-                        System.exit(0);
-                    }
-                    // Only case 3 (checkout of a full branch) modifies the staging area:
-                    // otherwise files scheduled for addition or removal remain so.
-                    index.clearFile();
-                } else {
-                    // case 1
-                    if (!id.equals(newId)) {
-                        // update the file with the new content.
-                        writeContents(file, content);
-                    }
-                    // if the file is as same as the old commit, do nothing.
-                }
+            Commit newCommit = Commit.fromFile(readContentsAsString(branchFile));
+            // only the files that differ between the two commits are written.
+            boolean added;
+            try (Trace.Span phase = Trace.phase("checkout: switch the trees")) {
+                added = new Checkout(index).switchTrees(currentCommit.getTree(),
+                        newCommit.getTree());
             }
-            removeRedundantFiles(oldBlobs, newBLobs);
-        } else {
-            removeRedundantFiles(oldBlobs, newBLobs);
-        }
-    }
-
-    /**
-     * As a helper method to remove redundant files.
-     *
-     * @param oldBlobs the map of blobs in the old commit.
-     * @param newBLobs the map of blobs in the new commit.
-     */
-    private static void removeRedundantFiles(Map<String, String> oldBlobs,
-                                             Map<String, String> newBLobs) {
-        for (Map.Entry<String, String> entry : oldBlobs.entrySet()) {
-            String filename = entry.getKey();
-            String newId = newBLobs.get(filename);
-            if (newId == null) {
-                // case 2
-                // remove the files in the current commit but not in the new commit.
-                boolean fileDeleted = new File(join(CWD), filename).delete();
+            // update the HEAD file to point to the new branch.
+            Journal journal = new Journal();
+            journal.write(HEAD_FILE, arg);
+            if (added) {
+                // Only a checkout adding files modifies the staging area:
+                // otherwise files scheduled for addition or removal remain so.
+                index.clearFile(journal);
+            } else {
+                index.saveFile(journal);
             }
+            journal.commit();
         }
     }
 
@@ -648,11 +730,10 @@ public class Repository {
     public static void checkout(String commitId, String filename) {
         // Abbreviate commits with a unique prefix
         commitId = getCommitId(commitId);
-        Commit commitObject = readObject(new File(Commit.COMMITS_DIR, commitId), Commit.class);
+        Commit commitObject = Commit.fromFile(commitId);
         Map<String, String> currentBlobs = commitObject.getBlobMap();
         if (!commitObject.containsFile(filename)) {
-            message("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         } else {
             writeFileContent(filename, currentBlobs);
 
@@ -661,28 +742,21 @@ public class Repository {
 
     /**
      * As a helper method to get the commit id.
+     * The abbreviated id is looked up in the commit-graph (see CommitGraph.withPrefix),
+     * so it costs a binary search whatever the number of commits.
      *
      * @param commitId the abbreviated id of the commit to use.
      * @return the full commit id.
      */
     private static String getCommitId(String commitId) {
-        boolean isAbbreviated = commitId.length() < SHA1_LENGTH;
-        List<String> commitsList = plainFilenamesIn(Commit.COMMITS_DIR);
-        if (commitsList != null && !commitsList.isEmpty()) {
-            for (String commit : commitsList) {
-                if (commit.startsWith(commitId)) {
-                    isAbbreviated = true;
-                    commitId = commit;
-                    break;
-                }
-                isAbbreviated = false;
-            }
-            if (!isAbbreviated) {
-                message("No commit with that id exists.");
-                System.exit(0);
-            }
+        List<String> matches = CommitGraph.LOCAL.withPrefix(commitId);
+        if (matches.isEmpty()) {
+            throw error("No commit with that id exists.");
+        }
+        if (matches.size() > 1) {
+            throw error("Ambiguous commit id: %s.", commitId);
         }
-        return commitId;
+        return matches.get(0);
     }
 
 
@@ -696,14 +770,14 @@ public class Repository {
         String id = currentBlobs.get(filename);
         File file = new File(join(CWD), filename);
         Blob blob = Blob.fromFile(id);
-        String content = blob.getContent();
         if (file.exists()) {
             // overwriting the version of the file that’s already there if there's one.
-            writeContents(file, content);
+            blob.writeTo(file);
         } else {
             try {
+                file.getParentFile().mkdirs();
                 boolean fileExist = file.createNewFile();
-                writeContents(file, content);
+                blob.writeTo(file);
             } catch (IOException e) {
                 System.err.println("Error: Could not create file.");
             }
@@ -718,20 +792,19 @@ public class Repository {
      */
     public static void branch(String branchName) {
         String currentBranch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, currentBranch))), Commit.class);
+        Commit currentCommit = Commit.fromFile(
+                readContentsAsString(new File(BRANCH_DIR, currentBranch)));
         // create a new branch if it doesn't exist.
         File branchFile = new File(BRANCH_DIR, branchName);
         if (!branchFile.exists() && BRANCH_DIR.exists()) {
             try {
                 boolean branchExist = branchFile.createNewFile();
-                writeContents(branchFile, currentCommit.getId());
+                Journal.writeAtomic(branchFile, currentCommit.getId());
             } catch (IOException e) {
                 System.err.println("Error: Could not create branch.");
             }
         } else {
-            message("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
     }
 
@@ -746,13 +819,11 @@ public class Repository {
         File branchFile = new File(BRANCH_DIR, branchName);
         if (branchFile.exists() && BRANCH_DIR.exists()) {
             if (currentBranch.equals(branchName)) {
-                message("Cannot remove the current branch.");
-                System.exit(0);
+                throw error("Cannot remove the current branch.");
             }
             boolean branchExist = branchFile.delete();
         } else {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
     }
 
@@ -767,27 +838,27 @@ public class Repository {
      */
     public static void reset(String commitId) {
         String currentBranch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, currentBranch))), Commit.class);
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        Commit currentCommit = Commit.fromFile(
+                readContentsAsString(new File(BRANCH_DIR, currentBranch)));
+        Index index = Index.fromFile();
         commitId = getCommitId(commitId);
-        Commit newCommit = readObject(new File(Commit.COMMITS_DIR, commitId), Commit.class);
-        Map<String, String> oldBlobs = currentCommit.getBlobMap();
-        Map<String, String> newBlobs = newCommit.getBlobMap();
-        // checkout arbitrary commit.
-        fileOperation(oldBlobs, newBlobs);
+        Commit newCommit = Commit.fromFile(commitId);
+        // checkout arbitrary commit, writing only the files that differ.
+        new Checkout(index).switchTrees(currentCommit.getTree(), newCommit.getTree());
         // update the HEAD file to point to the new commit.
+        Journal journal = new Journal();
         List<String> branchList = plainFilenamesIn(BRANCH_DIR);
         if (branchList != null) {
             for (String branch : branchList) {
                 if (currentBranch.equals(branch)) {
                     File branchFile = join(BRANCH_DIR, branch);
-                    writeContents(branchFile, commitId);
-                    writeContents(HEAD_FILE, branch);
+                    journal.write(branchFile, commitId);
+                    journal.write(HEAD_FILE, branch);
                 }
             }
         }
-        index.clearFile();
+        index.clearFile(journal);
+        journal.commit();
     }
 
     /**
@@ -796,48 +867,62 @@ public class Repository {
      * @param branchName the name of the branch to merge.
      */
     public static void merge(String branchName) {
+        merge(branchName, false);
+    }
+
+    /**
+     * Merges files from the given branch into the current branch.
+     * The files changed by both branches are merged line by line (see LineMerge).
+     *
+     * @param branchName the name of the branch to merge.
+     * @param diff3      whether to write the lines of the split point in the conflicts.
+     */
+    public static void merge(String branchName, boolean diff3) {
         // step1:find the split point
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+        Index index = Index.fromFile();
         // If there are staged additions or removals present
         if (!index.addIsEmpty() || !index.removeIsEmpty()) {
-            message("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
         String currentBranch = readContentsAsString(HEAD_FILE);
         File branchFile = new File(BRANCH_DIR, currentBranch);
         File mergeBranchFile = new File(BRANCH_DIR, branchName);
         //  If a branch with the given name doesn't exist
         if (!mergeBranchFile.exists()) {
-            message("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
         // If attempting to merge a branch with itself
         if (currentBranch.equals(branchName)) {
-            message("Cannot merge a branch with itself.");
-            System.exit(0);
-        }
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(branchFile)), Commit.class);
-        Commit mergeCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(mergeBranchFile)), Commit.class);
-        Commit mutualParentCommit = findMergeBase(currentCommit, mergeCommit);
+            throw error("Cannot merge a branch with itself.");
+        }
+        Commit currentCommit = Commit.fromFile(readContentsAsString(branchFile));
+        Commit mergeCommit = Commit.fromFile(readContentsAsString(mergeBranchFile));
+        Commit mutualParentCommit;
+        try (Trace.Span phase = Trace.phase("merge: find the split point")) {
+            mutualParentCommit = findMergeBase(currentCommit, mergeCommit);
+        }
         //  If the split point is the same commit as the given branch, then we do nothing;
         //  the merge is complete
         if (mutualParentCommit.getId().equals(mergeCommit.getId())) {
             message("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            return;
         } else if (mutualParentCommit.getId().equals(currentCommit.getId())) {
             // If the split point is the current branch,
             // then the effect is to check out the given branch
             checkout(branchName, true);
             message("Current branch fast-forwarded.");
-            System.exit(0);
+            return;
         } else {
             // step2: merge the files
-            fileOperation(mutualParentCommit, currentCommit, mergeCommit);
+            try (Trace.Span phase = Trace.phase("merge: merge the files")) {
+                fileOperation(mutualParentCommit, currentCommit, mergeCommit, diff3);
+            }
             // step3: create a new commit
-            index = readObject(Index.INDEX_FILE, Index.class);
-            Map<String, String> finalBlobs = dealWithStageAndCommitBlobs(index, currentCommit);
+            index = Index.fromFile();
+            String tree;
+            try (Trace.Span phase = Trace.phase("merge: write the trees")) {
+                tree = commitTree(index, currentCommit);
+            }
             List<String> parents = new ArrayList<>();
             parents.add(currentCommit.getId());
             parents.add(mergeCommit.getId());
@@ -851,37 +936,43 @@ public class Repository {
                         Commit newCommit = new Commit("Merged " + remoteBranch
                                 + "/" + branchName.replace(remoteBranch, "")
                                 + " into " + currentBranch + ".",
-                                new Date(), parents, finalBlobs);
+                                new Date(), parents, tree);
                         // step4: update the HEAD file to point to the new commit.
-                        writeContents(branchFile, newCommit.getId());
-                        index.clearFile();
+                        Journal journal = new Journal();
+                        journal.write(branchFile, newCommit.getId());
+                        index.clearFile(journal);
+                        journal.commit();
                         break;
                     }
                 }
             } else {
                 Commit newCommit = new Commit("Merged " + branchName
                         + " into " + currentBranch + ".",
-                        new Date(), parents, finalBlobs);
+                        new Date(), parents, tree);
                 // step4: update the HEAD file to point to the new commit.
-                writeContents(branchFile, newCommit.getId());
-                index.clearFile();
+                Journal journal = new Journal();
+                journal.write(branchFile, newCommit.getId());
+                index.clearFile(journal);
+                journal.commit();
             }
         }
     }
 
     /**
-     * As a helper method to add or remove the bobs in the current commit.
+     * As a helper method to build the tree of a new commit
+     * from the tree of the current commit and the added and removed entries of the index.
+     * Only the trees of the directories that contain a staged change are rewritten.
      *
      * @param index         the index object which contains the add and remove blobs.
-     * @param currentCommit the map of blobs in the current commit.
-     * @return the final map of blobs.
+     * @param currentCommit the current commit.
+     * @return the id of the tree of the new commit.
      */
-    private static Map<String, String> dealWithStageAndCommitBlobs(Index index,
-                                                                   Commit currentCommit) {
-        Map<String, String> stageBlobs = index.getAddBlobs();
-        Map<String, String> removeBlobs = index.getRemoveBlobs();
-        Map<String, String> newBlobs = handleBlobs(stageBlobs, currentCommit.getBlobMap());
-        return handleRemoveBlobs(removeBlobs, newBlobs);
+    private static String commitTree(Index index, Commit currentCommit) {
+        Map<String, String> changes = new TreeMap<>(index.getAddBlobs());
+        for (String filename : index.getRemoveBlobs().keySet()) {
+            changes.put(filename, null);
+        }
+        return Tree.update(currentCommit.getTree(), changes);
     }
 
     /**
@@ -890,6 +981,7 @@ public class Repository {
      * @param mutualCommit  the common ancestor commit.
      * @param currentCommit the current commit.
      * @param mergeCommit   the merge commit.
+     * @param diff3         whether to write the lines of the split point in the conflicts.
      * @source from <a href="https://zhuanlan.zhihu.com/p/533852291">...</a> and
      * <a href="https://www.youtube.com/watch?v=JR3OYCMv9b4&t=929s">...</a> ,
      * which use the ideology of using a <value(id),key(filename)> map
@@ -897,8 +989,9 @@ public class Repository {
      */
     private static void fileOperation(Commit mutualCommit,
                                       Commit currentCommit,
-                                      Commit mergeCommit) {
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+                                      Commit mergeCommit,
+                                      boolean diff3) {
+        Index index = Index.fromFile();
         Map<String, String> mutualBlobs = new TreeMap<>(mutualCommit.getBlobMap());
         Map<String, String> currentBlobs = new TreeMap<>(currentCommit.getBlobMap());
         Map<String, String> mergeBlobs = new TreeMap<>(mergeCommit.getBlobMap());
@@ -916,8 +1009,7 @@ public class Repository {
                     && !modified(currentCommit, filename, id)
                     && !mergeCommit.containsFile(filename)) {
                 checkFiles(currentCommit, mergeCommit);
-                File file = new File(CWD, filename);
-                file.delete();
+                WorkingTree.delete(new File(CWD, filename));
                 Blob blob = Blob.fromFile(id);
                 index.removeAdd(blob);
                 continue;
@@ -934,10 +1026,10 @@ public class Repository {
                     (mergeCommit.getBlobMap().get(filename))) {
                 try {
                     Blob blob = Blob.fromFile(id);
-                    String content = blob.getContent();
                     File file = new File(CWD, filename);
+                    file.getParentFile().mkdirs();
                     file.createNewFile();
-                    writeContents(file, content);
+                    blob.writeTo(file);
                     continue;
                 } catch (IOException e) {
                     System.err.println("Error: Could not merge file.");
@@ -951,21 +1043,22 @@ public class Repository {
             if (!modified(currentCommit, filename, id) && !modified(mergeCommit, filename, id)) {
                 continue;
             }
+            // a file deleted by one branch is missing from its blobMap.
             if (modified(currentCommit, filename, id) && modified(mergeCommit, filename, id)
-                    && currentCommit.getBlobMap().get(filename).equals
-                    (mergeCommit.getBlobMap().get(filename))) {
+                    && Objects.equals(currentCommit.getBlobMap().get(filename),
+                    mergeCommit.getBlobMap().get(filename))) {
                 continue;
             }
-            if (encounterConflicts(mutualCommit, currentCommit, mergeCommit, filename, id)) {
+            if (encounterConflicts(mutualCommit, currentCommit, mergeCommit, filename, id,
+                    index, diff3)) {
                 continue;
             }
             if (modified(mergeCommit, filename, id) && !modified(currentCommit, filename, id)) {
                 checkFiles(currentCommit, mergeCommit);
                 String newId = mergeCommit.getBlobMap().get(filename);
                 Blob blob = Blob.fromFile(newId);
-                String content = blob.getContent();
                 File file = new File(CWD, filename);
-                writeContents(file, content);
+                blob.writeTo(file);
                 index.addAdd(blob);
                 continue;
             }
@@ -996,11 +1089,11 @@ public class Repository {
                 && containSameFile(mergeCommit, filename, id)) {
             checkFiles(currentCommit, mergeCommit);
             Blob blob = Blob.fromFile(id);
-            String content = blob.getContent();
             File file = new File(CWD, filename);
             try {
+                file.getParentFile().mkdirs();
                 file.createNewFile();
-                writeContents(file, content);
+                blob.writeTo(file);
                 index.addAdd(blob);
                 return true;
             } catch (IOException e) {
@@ -1039,26 +1132,35 @@ public class Repository {
      * @param mergeCommit   the merge commit.
      * @param filename      the filename of the conflicted file.
      * @param id            the id of the conflicted file.
-     * @return true if there's a conflict, false otherwise.
+     * @param index         the index, where the merged file is staged.
+     * @param diff3         whether to write the lines of the split point in the conflicts.
+     * @return true if both branches changed the file, false otherwise.
      */
     private static boolean encounterConflicts(Commit mutualCommit, Commit currentCommit,
-                                              Commit mergeCommit, String filename, String id) {
+                                              Commit mergeCommit, String filename, String id,
+                                              Index index, boolean diff3) {
         if (containSameFile(mutualCommit, filename, id) && !currentCommit.containsFile(filename)
                 && modified(mergeCommit, filename, id)) {
-            message("Encountered a merge conflict.");
-            handleConflicts(currentCommit, mergeCommit, filename);
+            if (handleConflicts(mutualCommit, currentCommit, mergeCommit, filename, index,
+                    diff3)) {
+                message("Encountered a merge conflict.");
+            }
             return true;
         }
         if (containSameFile(mutualCommit, filename, id) && !mergeCommit.containsFile(filename)
                 && modified(currentCommit, filename, id)) {
-            message("Encountered a merge conflict.");
-            handleConflicts(currentCommit, mergeCommit, filename);
+            if (handleConflicts(mutualCommit, currentCommit, mergeCommit, filename, index,
+                    diff3)) {
+                message("Encountered a merge conflict.");
+            }
             return true;
         }
         if (containSameFile(mutualCommit, filename, id) && modified(currentCommit, filename, id)
                 && modified(mergeCommit, filename, id)) {
-            message("Encountered a merge conflict.");
-            handleConflicts(currentCommit, mergeCommit, filename);
+            if (handleConflicts(mutualCommit, currentCommit, mergeCommit, filename, index,
+                    diff3)) {
+                message("Encountered a merge conflict.");
+            }
             return true;
         }
         return false;
@@ -1072,7 +1174,7 @@ public class Repository {
      * @return true if the commit has modified files, false otherwise.
      */
     private static boolean modified(Commit commit, String filename, String id) {
-        return !commit.containsFile(filename) || !commit.containsId(id);
+        return !commit.containsFile(filename, id);
     }
 
     /**
@@ -1084,52 +1186,31 @@ public class Repository {
      * @param id       the id to check.
      */
     private static boolean containSameFile(Commit commit, String filename, String id) {
-        return commit.containsId(id) && commit.containsFile(filename);
+        return commit.containsFile(filename, id);
     }
 
     /**
      * As a helper method to handle the conflicts.
+     * The three versions of the file are merged line by line, and the result is staged:
+     * only the lines changed differently by both branches are left between conflict markers.
      *
+     * @param mutualCommit  the common ancestor commit.
      * @param currentCommit the current commit.
      * @param mergeCommit   the merge commit.
      * @param filename      the filename of the conflicted file.
+     * @param index         the index, where the merged file is staged.
+     * @param diff3         whether to write the lines of the split point in the conflicts.
+     * @return true if the merged file has conflicts, false if the merge resolved all of them.
      */
-    private static void handleConflicts(Commit currentCommit, Commit mergeCommit,
-                                        String filename) {
-        Index index = readObject(Index.INDEX_FILE, Index.class);
+    private static boolean handleConflicts(Commit mutualCommit, Commit currentCommit,
+                                           Commit mergeCommit, String filename, Index index,
+                                           boolean diff3) {
         String currentId = currentCommit.getBlobMap().get(filename);
-        String mergeId = mergeCommit.getBlobMap().get(filename);
-        if (currentId == null) {
-            Blob mergeBlob = Blob.fromFile(mergeId);
-            String mergeContent = mergeBlob.getContent();
-            File file = new File(CWD, filename);
-            String content = "<<<<<<< HEAD" + "\n" + "=======\n"
-                    + mergeContent + ">>>>>>>" + "\n";
-            writeContents(file, content);
-            Blob newBlob = new Blob(filename, content);
-            index.addAdd(newBlob);
-        } else if (mergeId == null) {
-            Blob currentBlob = Blob.fromFile(currentId);
-            String currentContent = currentBlob.getContent();
-            File file = new File(CWD, filename);
-            String content = "<<<<<<< HEAD" + "\n" + currentContent + "=======\n"
-                    + ">>>>>>>" + "\n";
-            writeContents(file, content);
-            Blob newBlob = new Blob(filename, content);
-            index.addAdd(newBlob);
-        } else {
-            Blob currentBlob = Blob.fromFile(currentId);
-            Blob mergeBlob = Blob.fromFile(mergeId);
-            String currentContent = currentBlob.getContent();
-            String mergeContent = mergeBlob.getContent();
-            File file = new File(CWD, filename);
-            String content = "<<<<<<< HEAD" + "\n" + currentContent + "=======\n"
-                    + mergeContent + ">>>>>>>" + "\n";
-            writeContents(file, content);
-            Blob newBlob = new Blob(filename, content);
-            index.addAdd(newBlob);
-        }
-        index.saveFile();
+        File file = new File(CWD, filename);
+        boolean conflicted = LineMerge.merge(mutualCommit.getBlobMap().get(filename),
+                currentId, mergeCommit.getBlobMap().get(filename), file, diff3);
+        index.addAdd(Blob.fromWorkingFile(filename, file, currentId));
+        return conflicted;
     }
 
     /**
@@ -1157,14 +1238,13 @@ public class Repository {
      */
     private static void checkFiles(Commit currentCommit, Commit mergeCommit) {
         // If the merge overwrites or deletes an untracked file in the current commit
-        List<String> workingFiles = plainFilenamesIn(CWD);
+        List<String> workingFiles = WorkingTree.files();
         if (workingFiles != null && !workingFiles.isEmpty()) {
             for (String filename : workingFiles) {
                 if (mergeCommit.containsFile(filename) && !currentCommit.containsFile(filename)) {
                     // If the file is modified in the current commit,
-                    message("There is an untracked file in the way; delete it, "
+                    throw error("There is an untracked file in the way; delete it, "
                             + "or add and commit it first.");
-                    System.exit(0);
                 }
             }
         }
@@ -1173,70 +1253,202 @@ public class Repository {
 
     /**
      * As a helper method to find the split point for the merge.
+     * The common ancestors are searched in the commit-graph, newest generation first,
+     * so no commit object is read except the split point itself.
+     * When there are several best common ancestors (criss-cross merges),
+     * the one with the highest generation number (then the latest one) is used.
      *
-     * @return the commit that is the split point for the merge.
-     * from CHATGPT, use an algorithm called "Bidirectional Breadth-First Search, BiBFS"
-     * to find the split point for the merge.
+     * @param commit1 the first commit, or null.
+     * @param commit2 the second commit, or null.
+     * @return the commit that is the split point for the merge, or null if there is none.
      */
-    private static Commit findMergeBase(Commit commit1, Commit commit2) {
+    static Commit findMergeBase(Commit commit1, Commit commit2) {
         if (commit1 == null || commit2 == null) {
             return null;
         }
-        // initialize two iterators
-        // Used to record nodes that iterator 1 has visited
-        HashSet<String> visited1 = new HashSet<>();
-        //Used to record nodes that iterator 2 has visited
-        HashSet<String> visited2 = new HashSet<>();
-        Queue<String> q1 = new LinkedList<>(); // Queue for iterator 1
-        Queue<String> q2 = new LinkedList<>(); // Queue for iterator 2
-
-        // Add the two commits to their respective queues
-        q1.add(commit1.getId());
-        q2.add(commit2.getId());
-
-        // mark the two commits as visited
-        visited1.add(commit1.getId());
-        visited2.add(commit2.getId());
-
-        // Alternate traversal
-        while (!q1.isEmpty() || !q2.isEmpty()) {
-            // Iterator 1 takes one step in traversal
-            if (!q1.isEmpty()) {
-                Commit currentCommit = readObject(new File(Commit.COMMITS_DIR, q1.poll()),
-                        Commit.class);
-                List<String> parents = currentCommit.getParents();
-                // Iterator 1 traverses along the parent commits
-                for (String parent : parents) {
-                    // If the parent commit is already in the visited nodes of iterator 2.
-                    if (visited2.contains(parent)) {
-                        return readObject(new File(Commit.COMMITS_DIR, parent), Commit.class);
-                    } else if (!visited1.contains(parent)) {
-                        // Otherwise continue traversing
-                        q1.add(parent);
-                        visited1.add(parent);
-                    }
+        CommitGraph graph = CommitGraph.LOCAL;
+        List<Integer> bases = graph.mergeBases(graph.indexOf(commit1.getId()),
+                graph.indexOf(commit2.getId()));
+        if (bases.isEmpty()) {
+            return null;
+        }
+        return Commit.fromFile(graph.idAt(bases.get(0)));
+    }
+
+    /**
+     * Prints the differences between two commits, or between a commit and the working directory,
+     * in the unified format (see Diff).
+     * In the working directory, the files tracked by the commit or staged for addition are
+     * compared, and only those whose stat data changed are hashed again.
+     *
+     * @param oldCommitId the id of the old commit, or null for the current commit.
+     * @param newCommitId the id of the new commit, or null for the working directory.
+     */
+    public static void diff(String oldCommitId, String newCommitId) {
+        if (oldCommitId == null) {
+            String branch = readContentsAsString(HEAD_FILE);
+            oldCommitId = readContentsAsString(new File(BRANCH_DIR, branch));
+        }
+        Commit oldCommit = Commit.fromFile(getCommitId(oldCommitId));
+        Map<String, String[]> changes;
+        if (newCommitId != null) {
+            Commit newCommit = Commit.fromFile(getCommitId(newCommitId));
+            changes = Tree.diff(ObjectStore.LOCAL, oldCommit.getTree(), newCommit.getTree());
+        } else {
+            Index index = Index.fromFile();
+            Checkout.Patterns sparse = Checkout.Patterns.read();
+            Set<String> paths = new TreeSet<>(oldCommit.getBlobMap().keySet());
+            paths.addAll(index.getAddBlobs().keySet());
+            List<String> existing = new ArrayList<>();
+            for (String path : paths) {
+                if (new File(CWD, path).isFile()) {
+                    existing.add(path);
                 }
             }
-            // Iterator 2 takes one step in traversal
-            if (!q2.isEmpty()) {
-                Commit currentCommit = readObject(new File(Commit.COMMITS_DIR, q2.poll()),
-                        Commit.class);
-                List<String> parents = currentCommit.getParents();
-                // Iterator 2 traverses along the parent commits
-                for (String parent : parents) {
-                    // If the parent commit is already in the visited nodes of iterator 1
-                    if (visited1.contains(parent)) {
-                        return readObject(new File(Commit.COMMITS_DIR, parent), Commit.class);
-                    } else if (!visited2.contains(parent)) {
-                        q2.add(parent);
-                        visited2.add(parent);
-                    }
+            Map<String, Index.StatEntry> stats = WorkingTree.hash(index, existing);
+            changes = new TreeMap<>();
+            for (String path : paths) {
+                String oldId = oldCommit.getBlobMap().get(path);
+                Index.StatEntry stat = stats.get(path);
+                if (stat == null && oldId != null && sparse.includes(path)) {
+                    changes.put(path, new String[]{oldId, null});
+                } else if (stat != null && !stat.getId().equals(oldId)) {
+                    changes.put(path, new String[]{oldId, stat.getId()});
                 }
+            }
+            if (index.statChanged()) {
+                index.saveFile();
+            }
+        }
+        for (Map.Entry<String, String[]> change : changes.entrySet()) {
+            String path = change.getKey();
+            String[] ids = change.getValue();
+            Diff.Interner interner = new Diff.Interner();
+            Diff.Lines oldLines = Diff.Lines.ofBlob(ids[0], interner);
+            Diff.Lines newLines = newCommitId != null ? Diff.Lines.ofBlob(ids[1], interner)
+                    : Diff.Lines.ofFile(new File(CWD, path), interner);
+            Diff.printUnified(path, oldLines, newLines, System.out);
+        }
+        System.out.flush();
+    }
 
+    /**
+     * Sets the patterns of the sparse checkout and updates the working directory:
+     * only the files of the current commit matching a pattern are checked out.
+     * With no pattern, the sparse checkout is disabled and all the files are checked out.
+     *
+     * @param patterns the patterns of the files to check out (see Checkout.Patterns).
+     */
+    public static void sparseCheckout(List<String> patterns) {
+        String branch = readContentsAsString(HEAD_FILE);
+        Commit currentCommit = Commit.fromFile(readContentsAsString(new File(BRANCH_DIR, branch)));
+        Index index = Index.fromFile();
+        new Checkout(index).setPatterns(currentCommit.getTree(), patterns);
+        index.saveFile();
+    }
+
+    /**
+     * Prints the patterns of the sparse checkout, one per line.
+     */
+    public static void sparseCheckoutList() {
+        if (Checkout.SPARSE_FILE.isFile()) {
+            System.out.print(readContentsAsString(Checkout.SPARSE_FILE));
+        }
+    }
+
+    /**
+     * Moves all the loose objects of the repository into packfiles.
+     * A large repository then needs only a few files instead of one file per object.
+     * The commits appended to the layer of the commit graph and to the log of the message index
+     * are merged into them as well.
+     */
+    public static void repack() {
+        int packed = ObjectStore.LOCAL.repack();
+        CommitGraph.LOCAL.compact();
+        MessageIndex.compact();
+        message("Packed %d objects.", packed);
+    }
+
+    /**
+     * Deletes the objects that no branch and no staged file reaches, and repacks the others.
+     * The bytes of the deleted objects and the change of size of the repacked ones
+     * are reported apart, since repacking may grow the packs.
+     * The unreachable objects younger than the grace period are kept, since they may belong
+     * to a command that is still running or to a branch that was just removed.
+     * The commit graph and the message index are rebuilt if commits were deleted,
+     * otherwise their layer and log are merged into them.
+     *
+     * @param grace the grace period, in milliseconds.
+     */
+    public static void gc(long grace) {
+        List<String> commits = new ArrayList<>();
+        List<String> branchList = plainFilenamesIn(BRANCH_DIR);
+        if (branchList != null) {
+            for (String branch : branchList) {
+                commits.add(readContentsAsString(new File(BRANCH_DIR, branch)));
+            }
+        }
+        List<String> blobs = new ArrayList<>(Index.fromFile().getAddBlobs().values());
+        long usage = ObjectStore.LOCAL.diskUsage();
+        int commitCount = ObjectStore.LOCAL.ids(ObjectStore.COMMITS).size();
+        GarbageCollector collector = new GarbageCollector(ObjectStore.LOCAL);
+        int removed = collector.collect(commits, blobs, grace);
+        // the rest of the change is the repacking of the live objects, which may grow the packs.
+        long repacked = ObjectStore.LOCAL.diskUsage() - (usage - collector.reclaimed());
+        // the caches may hold pruned objects (see ObjectCache).
+        ObjectCache.clearAll();
+        if (ObjectStore.LOCAL.ids(ObjectStore.COMMITS).size() != commitCount) {
+            CommitGraph.LOCAL.rebuild();
+            MessageIndex.rebuild();
+        } else {
+            CommitGraph.LOCAL.compact();
+            MessageIndex.compact();
+        }
+        message("Removed %d objects, reclaimed %d bytes.", removed, collector.reclaimed());
+        message("Repacking changed the size of the objects by %+d bytes.", repacked);
+    }
+
+    /**
+     * Rewrites the objects and the indexes written with Java serialization
+     * by older versions of Gitlet in the binary format of Codec.
+     * The commits of the first version get trees (computed while they are decoded),
+     * and its blobs are compressed (see Legacy).
+     * The rewritten objects that were packed are packed again.
+     */
+    public static void migrate() {
+        int migrated = 0;
+        boolean packed = false;
+        for (String id : ObjectStore.LOCAL.ids(ObjectStore.BLOBS)) {
+            byte[] encoded = Blob.reencode(id);
+            if (encoded != null) {
+                packed |= ObjectStore.LOCAL.replace(ObjectStore.BLOBS, id, encoded);
+                migrated += 1;
             }
         }
-        // If no common ancestor is found, return null
-        return null;
+        for (String type : new String[]{ObjectStore.COMMITS, ObjectStore.TREES}) {
+            for (String id : ObjectStore.LOCAL.ids(type)) {
+                byte[] bytes = ObjectStore.LOCAL.read(type, id);
+                if (!Codec.isJavaSerialized(bytes)) {
+                    continue;
+                }
+                byte[] encoded;
+                if (type.equals(ObjectStore.COMMITS)) {
+                    Commit commit = Commit.decode(bytes);
+                    Tree.saveComputed(commit.getTree());
+                    encoded = commit.encode();
+                } else {
+                    encoded = Tree.decode(bytes).encode();
+                }
+                packed |= ObjectStore.LOCAL.replace(type, id, encoded);
+                migrated += 1;
+            }
+        }
+        if (packed) {
+            ObjectStore.LOCAL.repack();
+        }
+        Index.fromFile().saveFile();
+        MessageIndex.rebuild();
+        message("Migrated %d objects.", migrated);
     }
 
     /**
@@ -1248,13 +1460,12 @@ public class Repository {
     public static void addRemote(String name, String directoryPath) {
         File remoteFile = new File(REMOTE_DIR, name);
         if (remoteFile.exists()) {
-            message("A remote with that name already exists.");
-            System.exit(0);
+            throw error("A remote with that name already exists.");
         } else {
             try {
                 remoteFile.createNewFile();
                 String path = directoryPath.replace("/", java.io.File.separator);
-                writeContents(remoteFile, path);
+                Journal.writeAtomic(remoteFile, path);
             } catch (IOException e) {
                 message("Error: Could not add remote.");
             }
@@ -1271,8 +1482,7 @@ public class Repository {
         if (remoteFile.exists()) {
             remoteFile.delete();
         } else {
-            message("A remote with that name does not exist.");
-            System.exit(0);
+            throw error("A remote with that name does not exist.");
         }
     }
 
@@ -1288,41 +1498,37 @@ public class Repository {
         String remotePath = readContentsAsString(new File(REMOTE_DIR, remoteName));
         File remoteGitletDir = join(remotePath);
         if (!remoteGitletDir.exists()) {
-            message("Remote directory not found.");
-            System.exit(0);
+            throw error("Remote directory not found.");
         }
-        File remoteBranchFile = new File(remoteGitletDir, "refs/heads/" + remoteBranchName);
-        if (!remoteBranchFile.exists()) {
-            try {
-                remoteBranchFile.createNewFile();
-            } catch (IOException e) {
-                System.err.println("Error: Could not create remote branch file.");
+        // the remote repository is locked too, while its refs and objects are used.
+        try (RepositoryLock remoteLock = RepositoryLock.acquire(remoteGitletDir)) {
+            File remoteBranchFile = new File(remoteGitletDir, "refs/heads/" + remoteBranchName);
+            if (!remoteBranchFile.exists()) {
+                try {
+                    remoteBranchFile.createNewFile();
+                } catch (IOException e) {
+                    System.err.println("Error: Could not create remote branch file.");
+                }
             }
-        }
-        String remoteCommitId = readContentsAsString(remoteBranchFile);
-        List<String> commitHistory = plainFilenamesIn(Commit.COMMITS_DIR);
-        if (commitHistory != null && !commitHistory.contains(remoteCommitId)) {
-            message("Please pull down remote changes before pushing.");
-            System.exit(0);
-        }
-        String currentBranch = readContentsAsString(HEAD_FILE);
-        Commit currentCommit = readObject(new File(Commit.COMMITS_DIR,
-                readContentsAsString(new File(BRANCH_DIR, currentBranch))), Commit.class);
-        File remoteCommitDir = join(remoteGitletDir, "objects", "commits");
-        File remoteCommitFile = new File(remoteCommitDir, currentCommit.getId());
-        writeObject(remoteCommitFile, currentCommit);
-        List<String> listOfParents = currentCommit.getParents();
-        while (!listOfParents.isEmpty()) {
-            Commit parentCommit = readObject(new File(Commit.COMMITS_DIR,
-                    listOfParents.get(0)), Commit.class);
-            if (parentCommit.getId().equals(remoteCommitId)) {
-                break;
+            String remoteCommitId = readContentsAsString(remoteBranchFile);
+            if (!ObjectStore.LOCAL.contains(ObjectStore.COMMITS, remoteCommitId)) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+            String currentBranch = readContentsAsString(HEAD_FILE);
+            String currentCommitId = readContentsAsString(new File(BRANCH_DIR, currentBranch));
+            // copy the commits that the remote is missing, with all their parents.
+            ObjectStore remoteStore = new ObjectStore(join(remoteGitletDir, "objects"));
+            Transfer transfer = new Transfer(ObjectStore.LOCAL, remoteStore);
+            List<Commit> newCommits;
+            try (Trace.Span phase = Trace.phase("push: find the missing commits")) {
+                newCommits = transfer.negotiate(currentCommitId);
             }
-            File parentCommitFile = new File(remoteCommitDir, parentCommit.getId());
-            writeObject(parentCommitFile, parentCommit);
-            listOfParents = parentCommit.getParents();
+            try (Trace.Span phase = Trace.phase("push: copy the objects")) {
+                transfer.copy(newCommits, new CommitGraph(
+                        join(remoteGitletDir, "objects", "commit-graph"), remoteStore));
+            }
+            Journal.writeAtomic(remoteBranchFile, currentCommitId);
         }
-        writeContents(remoteBranchFile, currentCommit.getId());
     }
 
     /**
@@ -1336,65 +1542,39 @@ public class Repository {
         String remotePath = readContentsAsString(new File(REMOTE_DIR, remoteName));
         File remoteGitletDir = join(remotePath);
         if (!remoteGitletDir.exists()) {
-            message("Remote directory not found.");
-            System.exit(0);
-        }
-        File remoteBranchFile = new File(remoteGitletDir, "refs/heads/" + remoteBranchName);
-        if (!remoteBranchFile.exists()) {
-            message("That remote does not have that branch.");
-            System.exit(0);
-        }
-        // because windows can't create a file with a colon in the name,
-        // we use the remote name and branch name as the branch name,
-        // so we also need to modify in the checkout method
-        String newBranchName = remoteName + remoteBranchName;
-        File fetchBranchFile = new File(BRANCH_DIR, newBranchName);
-        if (!fetchBranchFile.exists()) {
-            try {
-                fetchBranchFile.createNewFile();
-            } catch (IOException e) {
-                System.err.println("Error: Could not create branch file.");
-            }
+            throw error("Remote directory not found.");
         }
-        List<String> allCommits = plainFilenamesIn(Commit.COMMITS_DIR);
-        List<String> allBlobs = plainFilenamesIn(Blob.BLOBS_DIR);
-        File remoteCommitDir = join(remoteGitletDir, "objects", "commits");
-        File remoteBlobDir = join(remoteGitletDir, "objects", "blobs");
-        Commit remoteCommit = readObject(new File(remoteCommitDir,
-                readContentsAsString(remoteBranchFile)), Commit.class);
-        // first, write the remote commit and its corresponding blobs to the local repository
-        // if it doesn't already exist
-        writeCommitsAndBlobs(allCommits, allBlobs, remoteBlobDir, remoteCommit);
-        List<String> listOfParents = remoteCommit.getParents();
-        while (listOfParents != null && !listOfParents.isEmpty()) {
-            Commit parentCommit = readObject(new File(Commit.COMMITS_DIR,
-                    listOfParents.get(0)), Commit.class);
-            writeCommitsAndBlobs(allCommits, allBlobs, remoteBlobDir, remoteCommit);
-            listOfParents = parentCommit.getParents();
-        }
-        writeContents(fetchBranchFile, remoteCommit.getId());
-    }
-
-    /**
-     * Helper method to write commits and blobs to the local repository.
-     *
-     * @param allCommits    the list of all commit ids in the local repository.
-     * @param allBlobs      the list of all blob ids in the local repository.
-     * @param remoteBlobDir the directory of the remote blobs.
-     * @param remoteCommit  the remote commit to write.
-     */
-    private static void writeCommitsAndBlobs(List<String> allCommits, List<String> allBlobs,
-                                             File remoteBlobDir, Commit remoteCommit) {
-        if (allCommits != null && !allCommits.contains(remoteCommit.getId())) {
-            File commitFile = new File(Commit.COMMITS_DIR, remoteCommit.getId());
-            writeObject(commitFile, remoteCommit);
-        }
-        for (Map.Entry<String, String> entry : remoteCommit.getBlobMap().entrySet()) {
-            Blob blob = readObject(new File(remoteBlobDir, entry.getValue()), Blob.class);
-            if (allBlobs != null && !allBlobs.contains(entry.getValue())) {
-                File blobFile = new File(Blob.BLOBS_DIR, entry.getValue());
-                writeObject(blobFile, blob);
+        // the remote repository is locked too, while its refs and objects are used.
+        try (RepositoryLock remoteLock = RepositoryLock.acquire(remoteGitletDir)) {
+            File remoteBranchFile = new File(remoteGitletDir, "refs/heads/" + remoteBranchName);
+            if (!remoteBranchFile.exists()) {
+                throw error("That remote does not have that branch.");
+            }
+            // because windows can't create a file with a colon in the name,
+            // we use the remote name and branch name as the branch name,
+            // so we also need to modify in the checkout method
+            String newBranchName = remoteName + remoteBranchName;
+            File fetchBranchFile = new File(BRANCH_DIR, newBranchName);
+            if (!fetchBranchFile.exists()) {
+                try {
+                    fetchBranchFile.createNewFile();
+                } catch (IOException e) {
+                    System.err.println("Error: Could not create branch file.");
+                }
+            }
+            // the remote objects may be loose or packed, so read them through its object store.
+            ObjectStore remoteStore = new ObjectStore(join(remoteGitletDir, "objects"));
+            String remoteCommitId = readContentsAsString(remoteBranchFile);
+            Transfer transfer = new Transfer(remoteStore, ObjectStore.LOCAL);
+            List<Commit> newCommits;
+            try (Trace.Span phase = Trace.phase("fetch: find the missing commits")) {
+                newCommits = transfer.negotiate(remoteCommitId);
+            }
+            try (Trace.Span phase = Trace.phase("fetch: copy the objects")) {
+                transfer.copy(newCommits, CommitGraph.LOCAL);
             }
+            MessageIndex.updateAll(newCommits);
+            Journal.writeAtomic(fetchBranchFile, remoteCommitId);
         }
     }
 
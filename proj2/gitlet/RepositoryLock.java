@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * The lock of a repository, held for the whole duration of a command,
+ * so that concurrent Gitlet processes run their commands one after the other
+ * instead of overwriting each other's refs and index.
+ * It is an operating system lock on the file .gitlet/LOCK: a process waits until the lock
+ * is released, and the lock is released by the system if the process dies.
+ * Once the lock is acquired, the operation interrupted by a crash (if any) is recovered
+ * (see Journal.recover).
+ *
+ * @author R7CKB
+ */
+class RepositoryLock implements AutoCloseable {
+
+    /**
+     * The name of the lock file, in the .gitlet directory.
+     */
+    private static final String LOCK_NAME = "LOCK";
+
+    /**
+     * The .gitlet directories of the repositories locked by this process.
+     * A process must not lock a file twice: closing the second channel would release
+     * the first lock on some systems.
+     */
+    private static final Set<File> HELD = new HashSet<>();
+
+    /**
+     * The .gitlet directory of the locked repository.
+     */
+    private final File gitletDir;
+
+    /**
+     * The channel of the lock file, or null if this process already held the lock
+     * (e.g. when pushing to the repository itself).
+     */
+    private final FileChannel channel;
+
+    /**
+     * The lock.
+     */
+    private final FileLock lock;
+
+    /**
+     * Creates the lock of a repository.
+     *
+     * @param gitletDir the .gitlet directory of the repository.
+     * @param channel   the channel of the lock file.
+     * @param lock      the lock.
+     */
+    private RepositoryLock(File gitletDir, FileChannel channel, FileLock lock) {
+        this.gitletDir = gitletDir;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Acquires the lock of the repository with the given .gitlet directory,
+     * waiting for the other processes to release it.
+     *
+     * @param gitletDir the .gitlet directory of the repository.
+     * @return the lock, to be closed when the command ends.
+     */
+    static RepositoryLock acquire(File gitletDir) {
+        File dir;
+        try {
+            dir = gitletDir.getCanonicalFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        synchronized (HELD) {
+            if (!HELD.add(dir)) {
+                return new RepositoryLock(dir, null, null);
+            }
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(join(dir, LOCK_NAME).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock();
+            Journal.recover(dir);
+            return new RepositoryLock(dir, channel, lock);
+        } catch (IOException | RuntimeException excp) {
+            closeQuietly(channel);
+            synchronized (HELD) {
+                HELD.remove(dir);
+            }
+            if (excp instanceof RuntimeException) {
+                throw (RuntimeException) excp;
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Releases the lock.
+     */
+    @Override
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            closeQuietly(channel);
+            synchronized (HELD) {
+                HELD.remove(gitletDir);
+            }
+        }
+    }
+
+    /**
+     * Closes the given channel, ignoring the errors.
+     *
+     * @param channel the channel, or null.
+     */
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException excp) {
+            // the channel is unusable anyway.
+            return;
+        }
+    }
+}
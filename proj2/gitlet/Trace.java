@@ -0,0 +1,330 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The opt-in instrumentation of gitlet, to find where the time of a slow command goes.
+ * Set the environment variable GITLET_TRACE to turn it on: each command then prints
+ * on the standard error how many times it hashed, read and wrote files and objects,
+ * how many bytes and how much time that took, and how long its phases lasted.
+ * The counters overlap (e.g. reading a loose object also counts as reading a file),
+ * and they are per process, so the commands that a daemon serves at the same time share them.
+ * The commands, phases and operations are also Java Flight Recorder events
+ * (category "Gitlet"), recorded when the JVM runs with -XX:StartFlightRecording.
+ * When GITLET_TRACE isn't set, ENABLED is a constant false that the JIT compiler folds,
+ * so the instrumentation costs nothing: no clock read, no allocation, no counter update.
+ *
+ * @author R7CKB
+ */
+final class Trace {
+
+    /**
+     * Whether the instrumentation is turned on.
+     */
+    static final boolean ENABLED = System.getenv("GITLET_TRACE") != null;
+
+    /**
+     * The operations that are counted.
+     */
+    static final Counter SHA1 = new Counter("sha1");
+    static final Counter READ_FILE = new Counter("read file");
+    static final Counter WRITE_FILE = new Counter("write file");
+    static final Counter SERIALIZE = new Counter("serialize");
+    static final Counter DESERIALIZE = new Counter("deserialize");
+    static final Counter READ_OBJECT = new Counter("read object");
+    static final Counter WRITE_OBJECT = new Counter("write object");
+
+    /**
+     * All the operations, in the order they are printed.
+     */
+    private static final Counter[] OPERATIONS = {
+        SHA1, READ_FILE, WRITE_FILE, SERIALIZE, DESERIALIZE, READ_OBJECT, WRITE_OBJECT,
+    };
+
+    /**
+     * The phases of the current command, by name, in the order they first started.
+     */
+    private static final Map<String, Counter> PHASES = new LinkedHashMap<>();
+
+    /**
+     * The span that does nothing, returned when the instrumentation is off.
+     */
+    private static final Span NOOP = new Span(null, null, null);
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private Trace() {
+    }
+
+    /**
+     * Returns the start time of an operation, to be passed to record.
+     *
+     * @return the current time in nanoseconds, or 0 if the instrumentation is off.
+     */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts an operation that started at the given time and ends now.
+     *
+     * @param operation the counter of the operation.
+     * @param start     the start time returned by start.
+     * @param bytes     the number of bytes the operation processed.
+     */
+    static void record(Counter operation, long start, long bytes) {
+        if (!ENABLED) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        operation.add(bytes, nanos);
+        OperationEvent event = new OperationEvent();
+        if (event.isEnabled()) {
+            event.operation = operation.name;
+            event.bytes = bytes;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts a command: the counters are reset, and the summary of the command
+     * is printed on the standard error when the returned span is closed.
+     *
+     * @param command the name of the command.
+     * @return the span of the command.
+     */
+    static Span command(String command) {
+        if (!ENABLED) {
+            return NOOP;
+        }
+        for (Counter operation : OPERATIONS) {
+            operation.reset();
+        }
+        synchronized (PHASES) {
+            PHASES.clear();
+        }
+        return new Span(command, null, new CommandEvent(command));
+    }
+
+    /**
+     * Starts a phase of the current command, which ends when the returned span is closed.
+     * The phases with the same name are added up.
+     *
+     * @param phase the name of the phase, e.g. "merge: find the split point".
+     * @return the span of the phase.
+     */
+    static Span phase(String phase) {
+        if (!ENABLED) {
+            return NOOP;
+        }
+        Counter counter;
+        synchronized (PHASES) {
+            counter = PHASES.computeIfAbsent(phase, Counter::new);
+        }
+        return new Span(phase, counter, new PhaseEvent(phase));
+    }
+
+    /**
+     * Returns the summary of the current command.
+     *
+     * @param command the name of the command.
+     * @param nanos   the time the command took.
+     * @return the summary, one line per operation and phase.
+     */
+    private static String summary(String command, long nanos) {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("trace: %s took %.3f ms", command, nanos / 1e6));
+        result.append(System.lineSeparator());
+        List<Counter> counters = new ArrayList<>(List.of(OPERATIONS));
+        synchronized (PHASES) {
+            counters.addAll(PHASES.values());
+        }
+        for (Counter counter : counters) {
+            if (counter.count.sum() > 0) {
+                result.append("  ").append(counter).append(System.lineSeparator());
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * The number of calls, bytes and nanoseconds of an operation or a phase.
+     */
+    static final class Counter {
+
+        /**
+         * The name of the operation or phase.
+         */
+        private final String name;
+
+        /**
+         * The numbers of calls, bytes and nanoseconds.
+         */
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        /**
+         * Creates a counter.
+         *
+         * @param name the name of the operation or phase.
+         */
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Counts a call.
+         *
+         * @param processed the number of bytes processed by the call.
+         * @param time      the time the call took, in nanoseconds.
+         */
+        private void add(long processed, long time) {
+            count.increment();
+            bytes.add(processed);
+            nanos.add(time);
+        }
+
+        /**
+         * Sets the counts back to 0.
+         */
+        private void reset() {
+            count.reset();
+            bytes.reset();
+            nanos.reset();
+        }
+
+        /**
+         * Returns the counts, without the bytes if there are none (e.g. for a phase).
+         */
+        @Override
+        public String toString() {
+            long size = bytes.sum();
+            return String.format("%s: %d calls, %s%.3f ms", name, count.sum(),
+                    size > 0 ? size + " bytes, " : "", nanos.sum() / 1e6);
+        }
+    }
+
+    /**
+     * A command or a phase, measured from its creation until it is closed.
+     */
+    static final class Span implements AutoCloseable {
+
+        /**
+         * The name of the command or phase, or null for the span that does nothing.
+         */
+        private final String name;
+
+        /**
+         * The counter of the phase, or null for a command.
+         */
+        private final Counter counter;
+
+        /**
+         * The flight recorder event of the span.
+         */
+        private final Event event;
+
+        /**
+         * The start time of the span, in nanoseconds.
+         */
+        private final long start;
+
+        /**
+         * Starts a span.
+         *
+         * @param name    the name of the command or phase.
+         * @param counter the counter of the phase, or null for a command.
+         * @param event   the flight recorder event of the span.
+         */
+        private Span(String name, Counter counter, Event event) {
+            this.name = name;
+            this.counter = counter;
+            this.event = event;
+            this.start = start();
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /**
+         * Ends the span: a phase is counted, and the summary of a command is printed.
+         */
+        @Override
+        public void close() {
+            if (name == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            event.commit();
+            if (counter != null) {
+                counter.add(0, nanos);
+            } else {
+                System.err.print(summary(name, nanos));
+            }
+        }
+    }
+
+    /**
+     * The flight recorder event of a command.
+     */
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    static final class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+
+        CommandEvent(String command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * The flight recorder event of a phase of a command.
+     */
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        PhaseEvent(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    /**
+     * The flight recorder event of an operation (hashing, reading or writing).
+     * The operations are timed by the counters, so their time is a field of the event.
+     */
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Category("Gitlet")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * Copies the history of a commit from one repository to another, for fetch and push.
+ * The transfer starts with a negotiation: the "want" is the commit to copy,
+ * and a commit is a "have" when the destination already contains it.
+ * Since a commit is always written after its parents, its tree and its blobs,
+ * a have is complete together with all its ancestors, so the walk over the parents
+ * (all of them, not only the first ones) stops at the haves.
+ * The missing commits and objects are then copied in one batch (see copy),
+ * and the commit-graph of the destination is updated once.
+ * The cost of a transfer is thus proportional to the new commits and objects.
+ *
+ * @author R7CKB
+ */
+class Transfer {
+
+    /**
+     * The number of workers copying objects.
+     * Copying is bound by the disks rather than by the processors,
+     * so there are a few more workers than processors to keep the disks busy
+     * (and at least 4 on small machines).
+     */
+    private static final int WORKERS =
+            Math.max(4, Runtime.getRuntime().availableProcessors() + 2);
+
+    /**
+     * The object store to copy from.
+     */
+    private final ObjectStore from;
+
+    /**
+     * The object store to copy to.
+     */
+    private final ObjectStore to;
+
+    /**
+     * Creates a transfer between two object stores.
+     *
+     * @param from the object store to copy from.
+     * @param to   the object store to copy to.
+     */
+    Transfer(ObjectStore from, ObjectStore to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Returns the commits of the history of the wanted commit that the destination is missing,
+     * every commit coming after its parents.
+     *
+     * @param want the id of the wanted commit.
+     * @return the missing commits, parents first.
+     */
+    List<Commit> negotiate(String want) {
+        // walk the parents from the want, stopping at the haves.
+        Map<String, Commit> missing = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        seen.add(want);
+        queue.add(want);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (to.contains(ObjectStore.COMMITS, id)) {
+                continue;
+            }
+            Commit commit = Commit.decode(from.read(ObjectStore.COMMITS, id));
+            missing.put(id, commit);
+            for (String parent : commit.getParents()) {
+                if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        // sort the missing commits topologically: a commit is ready once its missing parents are.
+        Map<String, Integer> waiting = new HashMap<>();
+        Map<String, List<String>> children = new HashMap<>();
+        ArrayDeque<String> ready = new ArrayDeque<>();
+        for (Commit commit : missing.values()) {
+            int count = 0;
+            for (String parent : new HashSet<>(commit.getParents())) {
+                if (missing.containsKey(parent)) {
+                    children.computeIfAbsent(parent, k -> new ArrayList<>()).add(commit.getId());
+                    count += 1;
+                }
+            }
+            waiting.put(commit.getId(), count);
+            if (count == 0) {
+                ready.add(commit.getId());
+            }
+        }
+        List<Commit> result = new ArrayList<>(missing.size());
+        while (!ready.isEmpty()) {
+            String id = ready.poll();
+            result.add(missing.get(id));
+            for (String child : children.getOrDefault(id, List.of())) {
+                if (waiting.merge(child, -1, Integer::sum) == 0) {
+                    ready.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the given commits with the trees and blobs that the destination is missing,
+     * then adds them to the commit-graph of the destination.
+     * The raw bytes of the trees and blobs are copied into temporary files by a pool of
+     * workers, without being decoded (see ObjectStore.receive). All the files are then synced
+     * at once, and moved into place in order: blobs (delta bases first), trees (subtrees
+     * first) and commits (parents first), so that every object is only visible after
+     * everything it references.
+     *
+     * @param commits the commits to copy, parents first (see negotiate).
+     * @param graph   the commit-graph of the destination.
+     */
+    void copy(List<Commit> commits, CommitGraph graph) {
+        if (commits.isEmpty()) {
+            return;
+        }
+        Set<String> trees = new LinkedHashSet<>();
+        Set<String> blobs = new LinkedHashSet<>();
+        for (Commit commit : commits) {
+            Tree.missing(from, to, commit.getTree(), trees, blobs);
+        }
+        List<Item> items = new ArrayList<>();
+        for (String id : blobs) {
+            items.add(new Item(ObjectStore.BLOBS, id));
+        }
+        for (String id : trees) {
+            Item item = new Item(ObjectStore.TREES, id);
+            // the trees of the commits of the first version are only in memory.
+            byte[] computed = Tree.encodeComputed(id);
+            if (computed != null) {
+                item.temp = to.tempFile();
+                writeContents(item.temp, computed);
+            }
+            items.add(item);
+        }
+        List<Item> commitItems = new ArrayList<>();
+        for (Commit commit : commits) {
+            Item item = new Item(ObjectStore.COMMITS, commit.getId());
+            // commits are re-encoded, in case they come from an older repository.
+            item.temp = to.tempFile();
+            writeContents(item.temp, commit.encode());
+            commitItems.add(item);
+        }
+        List<Item> all = new ArrayList<>(items);
+        all.addAll(commitItems);
+        ExecutorService pool = Executors.newFixedThreadPool(WORKERS);
+        try {
+            forEach(pool, items, item -> {
+                if (item.temp == null) {
+                    item.temp = to.receive(from, item.type, item.id);
+                }
+            });
+            forEach(pool, all, item -> ObjectStore.sync(item.temp));
+        } catch (RuntimeException excp) {
+            for (Item item : all) {
+                if (item.temp != null) {
+                    item.temp.delete();
+                }
+            }
+            throw excp;
+        } finally {
+            pool.shutdownNow();
+        }
+        for (Item item : all) {
+            to.install(item.type, item.id, item.temp);
+        }
+        to.syncDirectories();
+        graph.addAll(commits);
+    }
+
+    /**
+     * Applies the given action to every item on the given pool, and waits for all of them.
+     *
+     * @param pool   the pool of workers.
+     * @param items  the items.
+     * @param action the action to apply, which must be safe to call from several threads.
+     */
+    private static void forEach(ExecutorService pool, List<Item> items, Consumer<Item> action) {
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        for (Item item : items) {
+            futures.add(pool.submit(() -> action.accept(item)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * An object to copy, and the temporary file holding its bytes once it is received.
+     */
+    private static class Item {
+        /** The type of the object. */
+        private final String type;
+        /** The id of the object. */
+        private final String id;
+        /** The temporary file holding the bytes of the object, or null until it is received. */
+        private volatile File temp;
+
+        Item(String type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a tree object in Gitlet: the content of one directory of a commit.
+ * A tree maps the names of the files of the directory to their blob ids,
+ * and the names of its subdirectories to their tree ids.
+ * Like blobs, trees are content-addressed: the id of a tree is the SHA-1 hash of its entries,
+ * so a directory that doesn't change between two commits is the very same tree object,
+ * and a new commit only writes the trees of the directories it changes.
+ * Paths are relative to the working directory and use "/" as separator (e.g. "src/Main.java").
+ *
+ * @author R7CKB
+ */
+public class Tree implements Serializable {
+
+    /**
+     * The version of the Java-serialized form of this class,
+     * so that trees written by older versions can still be read.
+     */
+    private static final long serialVersionUID = 6510906970838448485L;
+
+    /**
+     * The trees' directory.
+     * This directory contains all the loose trees of the repository.
+     */
+    static final File TREES_DIR = join(Repository.OBJECTS_DIR, "trees");
+
+    /**
+     * The trees read from the local object store during this command,
+     * weighed by a rough estimate of their size.
+     */
+    private static final ObjectCache<Tree> CACHE = new ObjectCache<>("trees",
+            16 * 1024 * 1024, tree -> 64 + 128L * (tree.blobs.size() + tree.trees.size()));
+
+    /**
+     * The trees computed from the blobMaps of the commits of the first version of Gitlet,
+     * by id. Reading such a commit doesn't write to any object store, so these trees are only
+     * written by migrate, by a transfer that copies the commit, or when a new tree refers to
+     * them. They are looked up before the object stores, which they may be missing from.
+     * They are never evicted: there are only as many as the directories of the old commits.
+     */
+    private static final Map<String, Tree> COMPUTED = new ConcurrentHashMap<>();
+
+    /**
+     * The separator of the components of a path.
+     */
+    static final String SEPARATOR = "/";
+
+    /**
+     * The files of this directory, mapping names to blob ids.
+     */
+    private final TreeMap<String, String> blobs;
+
+    /**
+     * The subdirectories of this directory, mapping names to tree ids.
+     */
+    private final TreeMap<String, String> trees;
+
+    /**
+     * The tree's id.
+     * This id is the SHA-1 hash of the encoded entries of the tree (see writeEntries),
+     * in which every name and id is delimited, so different entries never hash alike.
+     */
+    private final String id;
+
+    /**
+     * The tree of an empty directory.
+     */
+    private static final Tree EMPTY = new Tree(new TreeMap<>(), new TreeMap<>());
+
+    /**
+     * Creates a tree with the given entries.
+     *
+     * @param blobs the files of the directory, mapping names to blob ids.
+     * @param trees the subdirectories of the directory, mapping names to tree ids.
+     */
+    private Tree(TreeMap<String, String> blobs, TreeMap<String, String> trees) {
+        this(sha1(Codec.encode(Codec.TREE, out -> writeEntries(out, blobs, trees))),
+                blobs, trees);
+    }
+
+    /**
+     * Creates a tree with the given id and entries.
+     *
+     * @param id    the id of the tree.
+     * @param blobs the files of the directory, mapping names to blob ids.
+     * @param trees the subdirectories of the directory, mapping names to tree ids.
+     */
+    private Tree(String id, TreeMap<String, String> blobs, TreeMap<String, String> trees) {
+        this.id = id;
+        this.blobs = blobs;
+        this.trees = trees;
+    }
+
+    /**
+     * Get the id of the tree.
+     *
+     * @return the id of the tree.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns true if the tree has no entry.
+     *
+     * @return true if the tree is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        return blobs.isEmpty() && trees.isEmpty();
+    }
+
+    /**
+     * Returns the blob ids of the files of this directory.
+     *
+     * @return the blob ids.
+     */
+    Collection<String> blobIds() {
+        return blobs.values();
+    }
+
+    /**
+     * Returns the tree ids of the subdirectories of this directory.
+     *
+     * @return the tree ids.
+     */
+    Collection<String> treeIds() {
+        return trees.values();
+    }
+
+    /**
+     * Reads the tree with the given id from the given object store.
+     * The trees of the local object store are cached.
+     *
+     * @param store the object store.
+     * @param id    the id of the tree.
+     * @return the tree object.
+     */
+    static Tree fromStore(ObjectStore store, String id) {
+        if (store == ObjectStore.LOCAL) {
+            return CACHE.get(id, treeId -> load(store, treeId));
+        }
+        return load(store, id);
+    }
+
+    /**
+     * Reads the tree with the given id from the given object store, without caching it.
+     *
+     * @param store the object store.
+     * @param id    the id of the tree.
+     * @return the tree object.
+     */
+    static Tree load(ObjectStore store, String id) {
+        Tree computed = COMPUTED.get(id);
+        return computed != null ? computed : decode(store.read(ObjectStore.TREES, id));
+    }
+
+    /**
+     * Returns the id of the tree holding the given files, computed in memory.
+     * The trees are kept in COMPUTED instead of being written to the object store.
+     *
+     * @param files the files, mapping paths to blob ids.
+     * @return the id of the tree.
+     */
+    static String compute(Map<String, String> files) {
+        Tree tree = updateTree(null, files, false);
+        if (tree == null) {
+            COMPUTED.putIfAbsent(EMPTY.id, EMPTY);
+            return EMPTY.id;
+        }
+        return tree.id;
+    }
+
+    /**
+     * Returns true if the tree with the given id was computed by compute.
+     *
+     * @param id the id of the tree.
+     * @return true if the tree is in COMPUTED, false otherwise.
+     */
+    static boolean isComputed(String id) {
+        return COMPUTED.containsKey(id);
+    }
+
+    /**
+     * Returns the encoded tree with the given id if it was computed by compute.
+     *
+     * @param id the id of the tree.
+     * @return the encoded tree, or null if it wasn't computed.
+     */
+    static byte[] encodeComputed(String id) {
+        Tree computed = COMPUTED.get(id);
+        return computed == null ? null : computed.encode();
+    }
+
+    /**
+     * Writes the tree with the given id and its subtrees to the local object store
+     * if they were computed by compute.
+     *
+     * @param id the id of the tree.
+     */
+    static void saveComputed(String id) {
+        Tree computed = COMPUTED.get(id);
+        if (computed != null) {
+            computed.save();
+        }
+    }
+
+    /**
+     * Returns the id of the tree obtained by applying the given changes to the given tree,
+     * and writes the new trees to the object store.
+     * Only the trees of the directories that contain a change are read and written,
+     * the other subtrees are shared by id with the original tree.
+     *
+     * @param treeId  the id of the original tree, or null for an empty tree.
+     * @param changes the changes, mapping paths to their new blob ids (null to remove the file).
+     * @return the id of the new tree.
+     */
+    static String update(String treeId, Map<String, String> changes) {
+        Tree tree = updateTree(treeId, changes, true);
+        if (tree == null) {
+            return EMPTY.save().getId();
+        }
+        saveComputed(tree.id);
+        return tree.id;
+    }
+
+    /**
+     * Applies the given changes to the given tree, as for update.
+     *
+     * @param treeId  the id of the original tree, or null for an empty tree.
+     * @param changes the changes, mapping paths (relative to the tree) to blob ids or null.
+     * @param save    true to save the new trees, false to put them in COMPUTED.
+     * @return the new tree, or null if it is empty.
+     */
+    private static Tree updateTree(String treeId, Map<String, String> changes,
+                                   boolean save) {
+        Tree old = treeId == null ? EMPTY : fromStore(ObjectStore.LOCAL, treeId);
+        TreeMap<String, String> blobs = new TreeMap<>(old.blobs);
+        TreeMap<String, String> trees = new TreeMap<>(old.trees);
+        // group the changes by subdirectory, keeping the paths relative to the subdirectory.
+        Map<String, Map<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    blobs.remove(path);
+                } else {
+                    blobs.put(path, change.getValue());
+                }
+            } else {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> entry : subChanges.entrySet()) {
+            Tree subtree = updateTree(trees.get(entry.getKey()), entry.getValue(), save);
+            if (subtree == null) {
+                trees.remove(entry.getKey());
+            } else {
+                trees.put(entry.getKey(), subtree.getId());
+            }
+        }
+        if (blobs.isEmpty() && trees.isEmpty()) {
+            return null;
+        }
+        Tree tree = new Tree(blobs, trees);
+        if (tree.id.equals(treeId)) {
+            return tree;
+        } else if (save) {
+            return tree.save();
+        }
+        COMPUTED.putIfAbsent(tree.id, tree);
+        return tree;
+    }
+
+    /**
+     * Returns all the files of the tree with the given id and of its subtrees.
+     *
+     * @param store  the object store holding the trees.
+     * @param treeId the id of the tree.
+     * @return the sorted map from path to blob id.
+     */
+    static TreeMap<String, String> flatten(ObjectStore store, String treeId) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(store, treeId, "", result);
+        return result;
+    }
+
+    /**
+     * As a helper method to add the files of a tree to the result, prefixed by its path.
+     *
+     * @param store  the object store holding the trees.
+     * @param treeId the id of the tree.
+     * @param prefix the path of the tree followed by a separator ("" for the root).
+     * @param result the map from path to blob id to fill.
+     */
+    private static void flatten(ObjectStore store, String treeId, String prefix,
+                                Map<String, String> result) {
+        Tree tree = fromStore(store, treeId);
+        for (Map.Entry<String, String> entry : tree.blobs.entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.trees.entrySet()) {
+            flatten(store, entry.getValue(), prefix + entry.getKey() + SEPARATOR, result);
+        }
+    }
+
+    /**
+     * Returns the files that differ between two trees.
+     * The subtrees with the same id in both trees are the same directory, so they are skipped
+     * without being read: the cost is proportional to the changed directories.
+     *
+     * @param store the object store holding the trees.
+     * @param oldId the id of the old tree, or null for an empty tree.
+     * @param newId the id of the new tree, or null for an empty tree.
+     * @return the sorted map from path to {old blob id, new blob id}, null for a missing file.
+     */
+    static TreeMap<String, String[]> diff(ObjectStore store, String oldId, String newId) {
+        TreeMap<String, String[]> result = new TreeMap<>();
+        diff(store, oldId, newId, "", result);
+        return result;
+    }
+
+    /**
+     * As a helper method to add the files that differ between two trees to the result.
+     *
+     * @param store  the object store holding the trees.
+     * @param oldId  the id of the old tree, or null for an empty tree.
+     * @param newId  the id of the new tree, or null for an empty tree.
+     * @param prefix the path of the trees followed by a separator ("" for the root).
+     * @param result the map from path to {old blob id, new blob id} to fill.
+     */
+    private static void diff(ObjectStore store, String oldId, String newId, String prefix,
+                             Map<String, String[]> result) {
+        if (oldId != null && oldId.equals(newId)) {
+            return;
+        }
+        Tree oldTree = oldId == null ? EMPTY : fromStore(store, oldId);
+        Tree newTree = newId == null ? EMPTY : fromStore(store, newId);
+        TreeSet<String> names = new TreeSet<>(oldTree.blobs.keySet());
+        names.addAll(newTree.blobs.keySet());
+        for (String name : names) {
+            String oldBlob = oldTree.blobs.get(name);
+            String newBlob = newTree.blobs.get(name);
+            if (oldBlob == null || !oldBlob.equals(newBlob)) {
+                result.put(prefix + name, new String[]{oldBlob, newBlob});
+            }
+        }
+        names = new TreeSet<>(oldTree.trees.keySet());
+        names.addAll(newTree.trees.keySet());
+        for (String name : names) {
+            diff(store, oldTree.trees.get(name), newTree.trees.get(name),
+                    prefix + name + SEPARATOR, result);
+        }
+    }
+
+    /**
+     * Adds the tree with the given id, its subtrees and their blobs to the objects to copy
+     * from one object store to another, skipping what the destination already has.
+     * A tree is only ever written after everything it references,
+     * so a tree that is already in the destination is complete and is skipped as a whole.
+     * The trees are added after their subtrees, the order in which they must be written.
+     *
+     * @param from   the object store to copy from.
+     * @param to     the object store to copy to.
+     * @param treeId the id of the tree.
+     * @param trees  the ordered set of the trees to copy.
+     * @param blobs  the ordered set of the blobs to copy.
+     */
+    static void missing(ObjectStore from, ObjectStore to, String treeId,
+                        Set<String> trees, Set<String> blobs) {
+        if (trees.contains(treeId) || to.contains(ObjectStore.TREES, treeId)) {
+            return;
+        }
+        Tree tree = fromStore(from, treeId);
+        for (String blobId : tree.blobs.values()) {
+            Blob.missing(from, to, blobId, blobs);
+        }
+        for (String subtreeId : tree.trees.values()) {
+            missing(from, to, subtreeId, trees, blobs);
+        }
+        trees.add(treeId);
+    }
+
+    /**
+     * Encodes this tree: its id, then its files and its subdirectories as (name, id) pairs.
+     *
+     * @return the encoded tree.
+     */
+    byte[] encode() {
+        return Codec.encode(Codec.TREE, out -> {
+            Codec.writeId(out, id);
+            writeEntries(out, blobs, trees);
+        });
+    }
+
+    /**
+     * Writes the files and the subdirectories of a tree as (name, id) pairs,
+     * each list preceded by its size and each name by its length.
+     *
+     * @param out   the stream to write to.
+     * @param blobs the files of the directory, mapping names to blob ids.
+     * @param trees the subdirectories of the directory, mapping names to tree ids.
+     */
+    private static void writeEntries(DataOutputStream out, TreeMap<String, String> blobs,
+                                     TreeMap<String, String> trees) throws IOException {
+        for (TreeMap<String, String> entries : List.of(blobs, trees)) {
+            Codec.writeNumber(out, entries.size());
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                Codec.writeString(out, entry.getKey());
+                Codec.writeId(out, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Decodes a tree written by encode, or by Java serialization in older versions of Gitlet.
+     *
+     * @param bytes the encoded tree.
+     * @return the tree object.
+     */
+    static Tree decode(byte[] bytes) {
+        if (Codec.isJavaSerialized(bytes)) {
+            return deserialize(bytes, Tree.class);
+        }
+        return Codec.decode(bytes, Codec.TREE, in -> {
+            String id = Codec.readId(in);
+            List<TreeMap<String, String>> entries = new ArrayList<>();
+            for (int kind = 0; kind < 2; kind += 1) {
+                TreeMap<String, String> map = new TreeMap<>();
+                int count = Codec.readNumber(in);
+                for (int i = 0; i < count; i += 1) {
+                    map.put(Codec.readString(in), Codec.readId(in));
+                }
+                entries.add(map);
+            }
+            return new Tree(id, entries.get(0), entries.get(1));
+        });
+    }
+
+    /**
+     * Saves the tree to the object store, unless it already contains it.
+     * Its subtrees that were computed by compute are saved first.
+     *
+     * @return this tree.
+     */
+    private Tree save() {
+        for (String subtreeId : trees.values()) {
+            saveComputed(subtreeId);
+        }
+        ObjectStore.LOCAL.write(ObjectStore.TREES, id, encode());
+        CACHE.put(id, this);
+        return this;
+    }
+}
@@ -1,21 +1,24 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 
 
@@ -34,29 +37,144 @@ class Utils {
     /* SHA-1 HASH VALUES. */
 
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
-     *  be any mixture of byte arrays and Strings. */
+     *  be any mixture of byte arrays, Strings (hashed as UTF-8) and
+     *  ByteBuffers (whose remaining bytes are hashed, without moving their
+     *  position). */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
+        long start = Trace.start();
+        long size = 0;
+        Sha1State state = SHA1_STATE.get();
+        MessageDigest md = state.reset();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+                size += ((byte[]) val).length;
+            } else if (val instanceof String) {
+                size += update(md, (String) val, state.buffer);
+            } else if (val instanceof ByteBuffer) {
+                ByteBuffer data = ((ByteBuffer) val).duplicate();
+                size += data.remaining();
+                md.update(data);
+            } else {
+                throw new IllegalArgumentException("improper type to sha1");
+            }
+        }
+        String result = state.hex();
+        Trace.record(Trace.SHA1, start, size);
+        return result;
+    }
+
+    /** Returns the SHA-1 hash of PREFIX followed by the contents of IN,
+     *  which is read through a fixed-size buffer, so that the memory used
+     *  doesn't depend on the size of the data. */
+    static String sha1(String prefix, InputStream in) throws IOException {
+        long start = Trace.start();
+        long size = 0;
+        Sha1State state = SHA1_STATE.get();
+        MessageDigest md = state.reset();
+        update(md, prefix, state.buffer);
+        int n;
+        while ((n = in.read(state.buffer)) > 0) {
+            md.update(state.buffer, 0, n);
+            size += n;
+        }
+        String result = state.hex();
+        Trace.record(Trace.SHA1, start, size);
+        return result;
+    }
+
+    /** Feeds the UTF-8 encoding of S to MD, and returns its length in bytes.
+     *  ASCII characters, which filenames, ids and dates are made of, are
+     *  copied through BUFFER instead of encoding S into a new array. */
+    private static long update(MessageDigest md, String s, byte[] buffer) {
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            int n = 0;
+            while (i < length && n < buffer.length) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    // S isn't ASCII from I on (I never splits a surrogate pair).
+                    md.update(buffer, 0, n);
+                    byte[] rest = s.substring(i).getBytes(StandardCharsets.UTF_8);
+                    md.update(rest);
+                    return i + rest.length;
                 }
+                buffer[n] = (byte) c;
+                n += 1;
+                i += 1;
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            md.update(buffer, 0, n);
+        }
+        return length;
+    }
+
+    /** The size of the buffer used to hash streams and strings. */
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    /** The length of a SHA-1 hash in bytes. */
+    private static final int SHA1_BYTES = 20;
+
+    /** The SHA-1 digest and the buffer of a thread, reused by the sha1
+     *  methods instead of getting a new MessageDigest and buffer for every
+     *  hash. The workers of a parallel command each have their own. */
+    private static final class Sha1State {
+        /** The digest. */
+        private final MessageDigest md = sha1Digest();
+        /** The buffer, which also receives the hash. */
+        private final byte[] buffer = new byte[HASH_BUFFER_SIZE];
+
+        /** Returns the digest, reset in case the last hash failed. */
+        MessageDigest reset() {
+            md.reset();
+            return md;
+        }
+
+        /** Completes the hash and returns it in hexadecimal. */
+        String hex() {
+            try {
+                md.digest(buffer, 0, SHA1_BYTES);
+            } catch (DigestException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
             }
-            return result.toString();
+            return toHex(buffer, 0, SHA1_BYTES);
+        }
+    }
+
+    /** The SHA-1 state of each thread. */
+    private static final ThreadLocal<Sha1State> SHA1_STATE =
+        ThreadLocal.withInitial(Sha1State::new);
+
+    /** Returns a new SHA-1 message digest, for the callers that hash data
+     *  as they go (the digests of the sha1 methods are never shared). */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** The hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns the lowercase hexadecimal representation of BYTES. */
+    static String toHex(byte[] bytes) {
+        return toHex(bytes, 0, bytes.length);
+    }
+
+    /** Returns the lowercase hexadecimal representation of the LENGTH bytes
+     *  of BYTES starting at OFFSET. */
+    static String toHex(byte[] bytes, int offset, int length) {
+        char[] result = new char[2 * length];
+        for (int i = 0; i < length; i += 1) {
+            int b = bytes[offset + i];
+            result[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -98,7 +216,10 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            long start = Trace.start();
+            byte[] result = Files.readAllBytes(file.toPath());
+            Trace.record(Trace.READ_FILE, start, result.length);
+            return result;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -121,16 +242,22 @@ class Utils {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
             }
+            long start = Trace.start();
+            long size = 0;
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
+                byte[] bytes;
                 if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
+                    bytes = (byte[]) obj;
                 } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                    bytes = ((String) obj).getBytes(StandardCharsets.UTF_8);
                 }
+                str.write(bytes);
+                size += bytes.length;
             }
             str.close();
+            Trace.record(Trace.WRITE_FILE, start, size);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -141,10 +268,14 @@ class Utils {
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
+            long start = Trace.start();
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            if (Trace.ENABLED) {
+                Trace.record(Trace.DESERIALIZE, start, file.length());
+            }
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -210,16 +341,37 @@ class Utils {
     /** Returns a byte array containing the serialized contents of OBJ. */
     static byte[] serialize(Serializable obj) {
         try {
+            long start = Trace.start();
             ByteArrayOutputStream stream = new ByteArrayOutputStream();
             ObjectOutputStream objectStream = new ObjectOutputStream(stream);
             objectStream.writeObject(obj);
             objectStream.close();
-            return stream.toByteArray();
+            byte[] result = stream.toByteArray();
+            Trace.record(Trace.SERIALIZE, start, result.length);
+            return result;
         } catch (IOException excp) {
             throw error("Internal error serializing commit.");
         }
     }
 
+    /** Return an object of type T deserialized from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            long start = Trace.start();
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            Trace.record(Trace.DESERIALIZE, start, bytes.length);
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
 
 
     /* MESSAGES AND ERROR REPORTING */
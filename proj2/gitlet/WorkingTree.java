@@ -0,0 +1,237 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/**
+ * Scans and hashes the working directory in parallel.
+ * The directories are walked by one fork-join task each, skipping the .gitlet directory.
+ * The list of working files is split in halves by fork-join tasks
+ * until a task has at most BATCH files, which are then processed by one worker.
+ * The results of the tasks are merged into sorted maps,
+ * so the output doesn't depend on the order in which the workers finish.
+ *
+ * @author R7CKB
+ */
+class WorkingTree {
+
+    /**
+     * The maximum number of files processed by a single task.
+     */
+    private static final int BATCH = 16;
+
+    /**
+     * The maximum number of workers, whatever the number of processors.
+     */
+    private static final int MAX_WORKERS = 64;
+
+    /**
+     * The pool of workers, one per processor (bounded by MAX_WORKERS).
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Math.min(Runtime.getRuntime().availableProcessors(), MAX_WORKERS));
+
+    /**
+     * Don't instantiate the class, all the methods are static.
+     */
+    private WorkingTree() {
+    }
+
+    /**
+     * Returns the paths of all the files of the working directory and of its subdirectories,
+     * relative to the working directory, in sorted order.
+     *
+     * @return the sorted list of working files.
+     */
+    static List<String> files() {
+        return new ArrayList<>(POOL.invoke(new WalkTask(Repository.CWD, "")));
+    }
+
+    /**
+     * Deletes the given working file, then the directories that it leaves empty
+     * (but never the working directory itself).
+     *
+     * @param file the working file to delete.
+     * @return true if the file was deleted, false otherwise.
+     */
+    static boolean delete(File file) {
+        File root = Repository.CWD.getAbsoluteFile();
+        if (!file.getAbsolutePath().startsWith(root.getPath() + File.separator)
+                || file.isDirectory()) {
+            return false;
+        }
+        boolean deleted = file.delete();
+        File dir = file.getAbsoluteFile().getParentFile();
+        while (dir != null && !dir.equals(root)) {
+            String[] children = dir.list();
+            if (children == null || children.length != 0 || !dir.delete()) {
+                break;
+            }
+            dir = dir.getParentFile();
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the stat entries of the given working files.
+     * The files whose stat data didn't change are looked up in the stat cache of the index,
+     * the others are hashed and scanned for conflict markers in parallel,
+     * and their new entries are recorded in the index.
+     *
+     * @param index     the index holding the stat cache.
+     * @param filenames the names of the working files.
+     * @return the sorted map from filename to stat entry.
+     */
+    static TreeMap<String, Index.StatEntry> hash(Index index, List<String> filenames) {
+        TreeMap<String, Index.StatEntry> cached = new TreeMap<>();
+        List<String> changed = new ArrayList<>();
+        for (String filename : filenames) {
+            Index.StatEntry stat = index.getStat(filename, new File(Repository.CWD, filename));
+            if (stat == null) {
+                changed.add(filename);
+            } else {
+                cached.put(filename, stat);
+            }
+        }
+        TreeMap<String, Index.StatEntry> hashed = map(changed, filename -> {
+            File file = new File(Repository.CWD, filename);
+            return Index.newStat(file, Blob.hashFile(filename, file), isConflicted(file));
+        });
+        for (Map.Entry<String, Index.StatEntry> entry : hashed.entrySet()) {
+            index.putStat(entry.getKey(), entry.getValue());
+        }
+        cached.putAll(hashed);
+        return cached;
+    }
+
+    /**
+     * Applies the given function to every filename in parallel.
+     *
+     * @param filenames the names of the files.
+     * @param function  the function to apply, which must be safe to call from several threads.
+     * @param <T>       the type of the results.
+     * @return the sorted map from filename to result.
+     */
+    static <T> TreeMap<String, T> map(List<String> filenames, Function<String, T> function) {
+        if (filenames.size() <= BATCH) {
+            return new MapTask<>(filenames, function).compute();
+        }
+        return POOL.invoke(new MapTask<>(filenames, function));
+    }
+
+    /**
+     * Returns true if the file is a conflicted file written by merge.
+     * The file is read line by line, so large files don't need to fit in memory.
+     *
+     * @param file the working file to check.
+     * @return true if the file contains all the conflict markers, false otherwise.
+     */
+    static boolean isConflicted(File file) {
+        boolean head = false;
+        boolean separator = false;
+        boolean end = false;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+                StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                head = head || line.startsWith("<<<<<<< HEAD");
+                separator = separator || line.equals("=======");
+                end = end || line.startsWith(">>>>>>>");
+                if (head && separator && end) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * A task listing the files of a directory, and its subdirectories in parallel subtasks.
+     */
+    private static class WalkTask extends RecursiveTask<TreeSet<String>> {
+        /** The directory to walk. */
+        private final File dir;
+        /** The path of the directory followed by a separator ("" for the working directory). */
+        private final String prefix;
+
+        WalkTask(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected TreeSet<String> compute() {
+            TreeSet<String> result = new TreeSet<>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return result;
+            }
+            List<WalkTask> subtasks = new ArrayList<>();
+            for (File child : children) {
+                String path = prefix + child.getName();
+                if (child.isFile()) {
+                    result.add(path);
+                } else if (child.isDirectory() && !child.equals(Repository.GITLET_DIR)) {
+                    WalkTask subtask = new WalkTask(child, path + Tree.SEPARATOR);
+                    subtask.fork();
+                    subtasks.add(subtask);
+                }
+            }
+            for (WalkTask subtask : subtasks) {
+                result.addAll(subtask.join());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A task applying a function to a range of files, split in halves until it is small enough.
+     *
+     * @param <T> the type of the results.
+     */
+    private static class MapTask<T> extends RecursiveTask<TreeMap<String, T>> {
+        /** The names of the files of the task. */
+        private final List<String> filenames;
+        /** The function to apply. */
+        private final Function<String, T> function;
+
+        MapTask(List<String> filenames, Function<String, T> function) {
+            this.filenames = filenames;
+            this.function = function;
+        }
+
+        @Override
+        protected TreeMap<String, T> compute() {
+            if (filenames.size() <= BATCH) {
+                TreeMap<String, T> result = new TreeMap<>();
+                for (String filename : filenames) {
+                    result.put(filename, function.apply(filename));
+                }
+                return result;
+            }
+            int middle = filenames.size() / 2;
+            MapTask<T> left = new MapTask<>(filenames.subList(0, middle), function);
+            MapTask<T> right = new MapTask<>(filenames.subList(middle, filenames.size()),
+                    function);
+            left.fork();
+            TreeMap<String, T> result = right.compute();
+            result.putAll(left.join());
+            return result;
+        }
+    }
+}